@@ -0,0 +1,96 @@
+import java.math.BigDecimal;
+import java.security.PublicKey;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A UTXOPool that also indexes its UTXOs by the address of their outputs, so that the UTXOs and
+ * the balance of an address are read in constant time instead of by scanning the whole pool.
+ * Balances are summed exactly, so that they do not drift however many outputs are added and
+ * removed. Copies share the trie of the pool as a {@link UTXOPool} does and rebuild the index.
+ */
+public class AddressIndexedUTXOPool extends UTXOPool {
+
+    /** The UTXOs of an address and the exact sum of their values */
+    private static class Account {
+        final Set<UTXO> utxos = new LinkedHashSet<UTXO>();
+        BigDecimal balance = BigDecimal.ZERO;
+    }
+
+    private final Map<PublicKey, Account> accounts = new HashMap<PublicKey, Account>();
+
+    /** Creates a new empty AddressIndexedUTXOPool */
+    public AddressIndexedUTXOPool() {
+    }
+
+    /** Creates a new AddressIndexedUTXOPool that is a copy of {@code uPool}, indexing its UTXOs */
+    public AddressIndexedUTXOPool(UTXOPool uPool) {
+        super(uPool);
+        stream().forEach(entry -> index(entry.getKey(), entry.getValue()));
+    }
+
+    @Override
+    boolean sharesTrie() {
+        return true;
+    }
+
+    @Override
+    public UTXOPool copy() {
+        return new AddressIndexedUTXOPool(this);
+    }
+
+    @Override
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        unindex(utxo, getTxOutput(utxo));
+        super.addUTXO(utxo, txOut);
+        index(utxo, txOut);
+    }
+
+    @Override
+    public void removeUTXO(UTXO utxo) {
+        Transaction.Output previous = getTxOutput(utxo);
+        super.removeUTXO(utxo);
+        unindex(utxo, previous);
+    }
+
+    /** Indexes {@code utxo} under the address of {@code txOut}; a UTXO mapped to no output has none */
+    private void index(UTXO utxo, Transaction.Output txOut) {
+        if (txOut == null) return;
+        Account account = accounts.computeIfAbsent(txOut.address, a -> new Account());
+        account.utxos.add(utxo);
+        account.balance = account.balance.add(new BigDecimal(txOut.value));
+    }
+
+    private void unindex(UTXO utxo, Transaction.Output txOut) {
+        if (txOut == null) return;
+        Account account = accounts.get(txOut.address);
+        account.utxos.remove(utxo);
+        if (account.utxos.isEmpty())
+            accounts.remove(txOut.address);
+        else
+            account.balance = account.balance.subtract(new BigDecimal(txOut.value));
+    }
+
+    /** @return the sum of the values of the UTXOs of {@code address}, or 0 if it has none */
+    public double getBalance(PublicKey address) {
+        Account account = accounts.get(address);
+        return account == null ? 0 : account.balance.doubleValue();
+    }
+
+    /**
+     * @return an unmodifiable view of the UTXOs of {@code address}, in the order they were added,
+     *         which follows the changes of the pool while the address has UTXOs
+     */
+    public Set<UTXO> getUTXOs(PublicKey address) {
+        Account account = accounts.get(address);
+        return account == null ? Collections.<UTXO>emptySet() : Collections.unmodifiableSet(account.utxos);
+    }
+
+    /** @return the number of addresses with at least one UTXO in the pool */
+    public int getAddressCount() {
+        return accounts.size();
+    }
+}
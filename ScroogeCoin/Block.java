@@ -0,0 +1,138 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A block of transactions accepted on top of its parent block. Each block keeps the undo log of
+ * the changes its transactions made to the UTXO pool, so that a {@link BlockChain} can move its
+ * single pool between branches in time proportional to the number of blocks undone and redone.
+ */
+public class Block {
+
+    /**
+     * The changes made to a UTXO pool by the transactions of a block: the UTXOs spent, with their
+     * outputs, and the UTXOs created, with their outputs and the outputs they replaced, if any
+     */
+    static class UndoLog {
+        private final List<UTXO> utxos = new ArrayList<UTXO>();
+        /** output spent, or output created */
+        private final List<Transaction.Output> outputs = new ArrayList<Transaction.Output>();
+        /** output replaced by a creation, null for a spend or a creation of a new UTXO */
+        private final List<Transaction.Output> replaced = new ArrayList<Transaction.Output>();
+        /** true for a spend, false for a creation */
+        private final List<Boolean> spends = new ArrayList<Boolean>();
+
+        /** Records that {@code utxo} of output {@code txOut} is spent */
+        void recordSpend(UTXO utxo, Transaction.Output txOut) {
+            record(utxo, txOut, null, true);
+        }
+
+        /**
+         * Records that {@code utxo} of output {@code txOut} is created, replacing {@code previous}
+         * if the UTXO was already in the pool
+         */
+        void recordCreation(UTXO utxo, Transaction.Output txOut, Transaction.Output previous) {
+            record(utxo, txOut, previous, false);
+        }
+
+        private void record(UTXO utxo, Transaction.Output txOut, Transaction.Output previous, boolean spend) {
+            utxos.add(utxo);
+            outputs.add(txOut);
+            replaced.add(previous);
+            spends.add(spend);
+        }
+
+        /** Reverts the recorded changes to {@code utxoPool}, in reverse order */
+        void undo(UTXOPool utxoPool) {
+            for (int i = utxos.size() - 1; i >= 0; i--) {
+                if (spends.get(i))
+                    utxoPool.addUTXO(utxos.get(i), outputs.get(i));
+                else if (replaced.get(i) != null)
+                    utxoPool.addUTXO(utxos.get(i), replaced.get(i));
+                else
+                    utxoPool.removeUTXO(utxos.get(i));
+            }
+        }
+
+        /** Applies the recorded changes to {@code utxoPool} again, in their original order */
+        void redo(UTXOPool utxoPool) {
+            for (int i = 0; i < utxos.size(); i++) {
+                if (spends.get(i))
+                    utxoPool.removeUTXO(utxos.get(i));
+                else
+                    utxoPool.addUTXO(utxos.get(i), outputs.get(i));
+            }
+        }
+    }
+
+    /** hash of the block, its unique id */
+    private final byte[] hash;
+    private final Block parent;
+    private final int height;
+    private final Transaction[] txs;
+    private final UndoLog undoLog;
+
+    /** Creates the genesis block, whose UTXO pool is the initial one */
+    Block() {
+        this.parent = null;
+        this.height = 0;
+        this.txs = new Transaction[0];
+        this.undoLog = new UndoLog();
+        this.hash = hash(new byte[0], 0, txs);
+    }
+
+    /** Creates the block of {@code txs} on top of {@code parent}, whose changes are {@code undoLog} */
+    Block(Block parent, Transaction[] txs, UndoLog undoLog) {
+        this.parent = parent;
+        this.height = parent.height + 1;
+        this.txs = txs;
+        this.undoLog = undoLog;
+        this.hash = hash(parent.hash, height, txs);
+    }
+
+    private static byte[] hash(byte[] prevBlockHash, int height, Transaction[] txs) {
+        try {
+            MessageDigest md = MessageDigest.getInstance("SHA-256");
+            md.update(prevBlockHash);
+            md.update(ByteBuffer.allocate(Integer.BYTES).putInt(height).array());
+            for (Transaction tx : txs)
+                md.update(tx.getHash());
+            return md.digest();
+        } catch (NoSuchAlgorithmException x) {
+            throw new IllegalStateException(x);
+        }
+    }
+
+    /** @return the changes this block made to the UTXO pool of its parent */
+    UndoLog getUndoLog() {
+        return undoLog;
+    }
+
+    /** @return the hash of this block */
+    public byte[] getHash() {
+        return hash;
+    }
+
+    /** @return the hash of the block this one extends, or null for the genesis block */
+    public byte[] getPrevBlockHash() {
+        return parent == null ? null : parent.hash;
+    }
+
+    /** @return the block this one extends, or null for the genesis block */
+    public Block getParent() {
+        return parent;
+    }
+
+    /** @return the number of blocks between this one and the genesis block */
+    public int getHeight() {
+        return height;
+    }
+
+    /** @return the transactions accepted in this block, in the order they were applied */
+    public Transaction[] getTransactions() {
+        return Arrays.copyOf(txs, txs.length);
+    }
+}
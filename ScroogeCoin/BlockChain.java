@@ -0,0 +1,149 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Stores the blocks of accepted transactions of several competing branches, and keeps a single
+ * UTXO pool at the head of the longest one. Blocks extending another branch are validated by
+ * moving that pool to their parent with the undo logs of the blocks in between, rather than by
+ * keeping a copy of the pool per branch, so a reorganization costs time proportional to its
+ * depth.
+ */
+public class BlockChain {
+
+    /** Records the changes made to the shared pool by the transactions of the block being built */
+    private static class RecordingTxHandler extends TxHandler {
+        private Block.UndoLog undoLog;
+
+        RecordingTxHandler(UTXOPool utxoPool) {
+            super(utxoPool, true);
+        }
+
+        @Override
+        protected void addTxToUTXO(Transaction tx) {
+            List<Transaction.Output> outputs = tx.getOutputs();
+            for (int index = 0; index < outputs.size(); index++) {
+                UTXO utxo = new UTXO(tx.getHash(), index);
+                undoLog.recordCreation(utxo, outputs.get(index), utxoPool.getTxOutput(utxo));
+            }
+            super.addTxToUTXO(tx);
+        }
+
+        @Override
+        protected boolean removeTxFromUTXO(Transaction tx) {
+            List<UTXO> utxos = new ArrayList<UTXO>(tx.numInputs());
+            List<Transaction.Output> spent = new ArrayList<Transaction.Output>(tx.numInputs());
+            for (Transaction.Input input : tx.getInputs()) {
+                UTXO utxo = new UTXO(input.prevTxHash, input.outputIndex);
+                utxos.add(utxo);
+                spent.add(utxoPool.getTxOutput(utxo));
+            }
+            // Nothing was spent if the handler fails, so nothing is to be undone
+            if (!super.removeTxFromUTXO(tx))
+                return false;
+            for (int index = 0; index < utxos.size(); index++)
+                undoLog.recordSpend(utxos.get(index), spent.get(index));
+            return true;
+        }
+    }
+
+    private final Map<ByteBuffer, Block> blocks = new HashMap<ByteBuffer, Block>();
+    private final UTXOPool utxoPool;
+    private final RecordingTxHandler handler;
+    private final Block genesis;
+
+    /** head of the longest branch; the first one received wins among branches of equal height */
+    private Block head;
+    /** block whose UTXO pool is the current state of utxoPool */
+    private Block current;
+
+    /**
+     * Creates a block chain whose genesis block leaves the UTXO pool {@code utxoPool}; the chain
+     * keeps a copy of it, as {@link TxHandler} does
+     */
+    public BlockChain(UTXOPool utxoPool) {
+        this.utxoPool = utxoPool.copy();
+        this.handler = new RecordingTxHandler(this.utxoPool);
+        this.genesis = new Block();
+        this.head = this.current = genesis;
+        blocks.put(ByteBuffer.wrap(genesis.getHash()), genesis);
+    }
+
+    /**
+     * Creates the block of the transactions of {@code possibleTxs} that are valid on top of the
+     * block {@code prevBlockHash}, as accepted by {@link TxHandler#handleTxs}, and moves the head
+     * to it if it extends the longest branch.
+     *
+     * @return the new block, or null if there is no block {@code prevBlockHash}
+     */
+    public Block addBlock(byte[] prevBlockHash, Transaction[] possibleTxs) {
+        Block parent = prevBlockHash == null ? null : blocks.get(ByteBuffer.wrap(prevBlockHash));
+        if (parent == null) return null;
+
+        moveTo(parent);
+        handler.undoLog = new Block.UndoLog();
+        Transaction[] acceptedTxs = handler.handleTxs(possibleTxs);
+        Block block = new Block(parent, acceptedTxs, handler.undoLog);
+        handler.undoLog = null;
+        current = block;
+
+        // The same transactions on the same parent make the same block
+        Block known = blocks.putIfAbsent(ByteBuffer.wrap(block.getHash()), block);
+        if (known != null) {
+            moveTo(parent);
+            block = known;
+        }
+        if (block.getHeight() > head.getHeight())
+            head = block;
+        moveTo(head);
+        return block;
+    }
+
+    /**
+     * Moves the UTXO pool from the state of the current block to that of {@code target}, undoing
+     * the blocks down to their common ancestor and redoing those up to {@code target}
+     */
+    private void moveTo(Block target) {
+        List<Block> redo = new ArrayList<Block>();
+        Block from = current, to = target;
+        while (from.getHeight() > to.getHeight()) {
+            from.getUndoLog().undo(utxoPool);
+            from = from.getParent();
+        }
+        while (to.getHeight() > from.getHeight()) {
+            redo.add(to);
+            to = to.getParent();
+        }
+        while (from != to) {
+            from.getUndoLog().undo(utxoPool);
+            from = from.getParent();
+            redo.add(to);
+            to = to.getParent();
+        }
+        for (int i = redo.size() - 1; i >= 0; i--)
+            redo.get(i).getUndoLog().redo(utxoPool);
+        current = target;
+    }
+
+    /** @return the block {@code blockHash}, or null if there is none */
+    public Block getBlock(byte[] blockHash) {
+        return blocks.get(ByteBuffer.wrap(blockHash));
+    }
+
+    /** @return the genesis block */
+    public Block getGenesisBlock() {
+        return genesis;
+    }
+
+    /** @return the head of the longest branch */
+    public Block getHead() {
+        return head;
+    }
+
+    /** @return a copy of the UTXO pool at the head of the longest branch */
+    public UTXOPool getUTXOPool() {
+        return utxoPool.copy();
+    }
+}
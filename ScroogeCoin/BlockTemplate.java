@@ -0,0 +1,289 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Consumer;
+
+/**
+ * The transactions of a {@link Mempool}, e.g., of a {@link MaxFeeTxHandler}, to include in the
+ * next block, within a budget of raw transaction bytes, chosen greedily by fee per byte with
+ * each following the entries whose outputs it claims. The template follows the mempool: a
+ * transaction becomes a candidate once its parents in the mempool are in the template, and on a
+ * refresh the best candidates are included while they fit, evicting included transactions of a
+ * lower fee per byte and without included children if needed. A confirmed, conflicting, evicted
+ * or expired transaction leaves the template with the mempool. The template is refreshed lazily,
+ * when read, at a cost that depends on the changes since the last refresh and not on the number
+ * of pending transactions. A template follows the mempool it was created on until closed, e.g.,
+ * by {@link MaxFeeTxHandler#setMempool} for the template of the handler.
+ */
+public class BlockTemplate implements AutoCloseable {
+
+    /** Default budget of the raw transactions of a block */
+    public static final long DEFAULT_MAX_BYTES = 1L << 20;
+
+    /** Number of consecutive candidates that do not fit after which a refresh stops */
+    private static final int MAX_SKIPPED = 1000;
+
+    /** A transaction of the mempool and its links to the other ones */
+    private static class Node {
+        final Transaction tx;
+        final int bytes;
+        final double fee;
+        final double feeRate;
+        final long sequence;
+        /** Nodes whose outputs this one claims, and nodes claiming its outputs */
+        final List<Node> parents = new ArrayList<Node>(1);
+        final List<Node> children = new ArrayList<Node>(1);
+        /** Number of parents not in the template, and of children in it */
+        int parentsOut;
+        int childrenIn;
+        boolean included;
+
+        Node(Transaction tx, double fee, long sequence) {
+            this.tx = tx;
+            this.bytes = tx.getRawTxLength();
+            this.fee = fee;
+            this.feeRate = fee / bytes;
+            this.sequence = sequence;
+        }
+    }
+
+    /** By fee per byte, then oldest first among equal rates as preferred */
+    private static final Comparator<Node> BY_FEE_RATE =
+            Comparator.<Node>comparingDouble(node -> node.feeRate).thenComparingLong(node -> -node.sequence);
+
+    private final Mempool mempool;
+    private final long maxBytes;
+    private final Consumer<Transaction> onAdded = this::added, onRemoved = this::removed;
+    private boolean closed;
+
+    private final Map<ByteBuffer, Node> nodes = new HashMap<ByteBuffer, Node>();
+    /** Nodes in the template, in the order they were included, hence each following its parents */
+    private final Set<Node> template = new LinkedHashSet<Node>();
+    /** Nodes out of the template whose parents are all in it, by fee per byte */
+    private final TreeSet<Node> candidates = new TreeSet<Node>(BY_FEE_RATE);
+    /** Nodes in the template without children in it, which may leave it, by fee per byte */
+    private final TreeSet<Node> leaves = new TreeSet<Node>(BY_FEE_RATE);
+    private long bytes;
+    private double fee;
+    private long sequence;
+    /** Candidates since the last refresh, and whether room was made since for those that did not fit */
+    private final List<Node> fresh = new ArrayList<Node>();
+    private boolean freed;
+
+    /** Creates a template of {@link #DEFAULT_MAX_BYTES} following {@code mempool} */
+    public BlockTemplate(Mempool mempool) {
+        this(mempool, DEFAULT_MAX_BYTES);
+    }
+
+    /** Creates a template of {@code maxBytes} raw transaction bytes following {@code mempool} */
+    public BlockTemplate(Mempool mempool, long maxBytes) {
+        this.mempool = mempool;
+        this.maxBytes = maxBytes;
+        for (Transaction tx : mempool.getTxsByArrival())
+            added(tx);
+        mempool.onAdded(onAdded);
+        mempool.onRemoved(onRemoved);
+    }
+
+    /** Stops following the mempool and releases the transactions of the template, which can no longer be read */
+    @Override
+    public void close() {
+        if (closed) return;
+        closed = true;
+        mempool.removeListener(onAdded);
+        mempool.removeListener(onRemoved);
+        nodes.clear();
+        template.clear();
+        candidates.clear();
+        leaves.clear();
+        fresh.clear();
+        bytes = 0;
+        fee = 0;
+    }
+
+    /** @return true iff the template was closed */
+    public boolean isClosed() {
+        return closed;
+    }
+
+    /** @return the transactions of the template, each following those of the template whose outputs it claims */
+    public Transaction[] getTxs() {
+        refresh();
+        Transaction[] txs = new Transaction[template.size()];
+        int i = 0;
+        for (Node node : template)
+            txs[i++] = node.tx;
+        return txs;
+    }
+
+    /** @return the total fee of the transactions of the template */
+    public double getFee() {
+        refresh();
+        return fee;
+    }
+
+    /** @return the total size of the raw transactions of the template */
+    public long getBytes() {
+        refresh();
+        return bytes;
+    }
+
+    /** @return the number of transactions of the template */
+    public int size() {
+        refresh();
+        return template.size();
+    }
+
+    /** @return the budget of the raw transactions of the template */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    private void added(Transaction tx) {
+        Node node = new Node(tx, mempool.getFee(tx), sequence++);
+        nodes.put(ByteBuffer.wrap(tx.getHash()), node);
+        for (Transaction.Input input : tx.getInputs()) {
+            Node parent = nodes.get(ByteBuffer.wrap(input.prevTxHash));
+            if (parent != null && !node.parents.contains(parent)) {
+                node.parents.add(parent);
+                parent.children.add(node);
+                if (!parent.included)
+                    node.parentsOut++;
+            }
+        }
+        if (node.parentsOut == 0) {
+            candidates.add(node);
+            fresh.add(node);
+        }
+    }
+
+    /** Removes {@code tx}, whose children stay if it was confirmed, as then its outputs are in the UTXO pool */
+    private void removed(Transaction tx) {
+        Node node = nodes.remove(ByteBuffer.wrap(tx.getHash()));
+        if (node == null) return;
+        if (node.included) {
+            template.remove(node);
+            leaves.remove(node);
+            bytes -= node.bytes;
+            fee -= node.fee;
+            for (Node parent : node.parents)
+                if (--parent.childrenIn == 0)
+                    leaves.add(parent);
+            freed = true;
+        } else {
+            candidates.remove(node);
+        }
+        for (Node parent : node.parents)
+            parent.children.remove(node);
+        for (Node child : node.children) {
+            child.parents.remove(node);
+            if (!node.included && --child.parentsOut == 0) {
+                candidates.add(child);
+                fresh.add(child);
+            }
+        }
+    }
+
+    /**
+     * Includes the new candidates that fit, best first, with the candidates they make; then, if
+     * room was made, the best candidates while they fit, from the highest fee per byte down, until
+     * {@value #MAX_SKIPPED} consecutive ones do not
+     */
+    private void refresh() {
+        if (closed)
+            throw new IllegalStateException("Closed block template");
+        if (!freed) {
+            PriorityQueue<Node> best = new PriorityQueue<Node>(Math.max(1, fresh.size()), BY_FEE_RATE.reversed());
+            best.addAll(fresh);
+            for (Node node; (node = best.poll()) != null; )
+                if (candidates.contains(node) && makeRoom(node))
+                    best.addAll(include(node));
+        }
+        fresh.clear();
+        if (!freed) return;
+        freed = false;
+        int skipped = 0;
+        for (Node node = candidates.isEmpty() ? null : candidates.last(); node != null && skipped < MAX_SKIPPED; ) {
+            if (!makeRoom(node)) {
+                skipped++;
+                node = candidates.lower(node);
+                continue;
+            }
+            skipped = 0;
+            Node next = candidates.lower(node);
+            for (Node child : include(node))
+                if (next == null || BY_FEE_RATE.compare(child, next) > 0)
+                    next = child;
+            node = next;
+        }
+    }
+
+    /**
+     * Evicts the leaves of a lower fee per byte than {@code node}, cheapest first, if that makes
+     * room for it
+     *
+     * @return true iff {@code node} fits in the template
+     */
+    private boolean makeRoom(Node node) {
+        long needed = bytes + node.bytes - maxBytes;
+        if (needed <= 0)
+            return true;
+        List<Node> evicted = new ArrayList<Node>();
+        for (Node leaf : leaves) {
+            if (needed <= 0 || BY_FEE_RATE.compare(leaf, node) >= 0)
+                break;
+            if (node.parents.contains(leaf)) continue;
+            evicted.add(leaf);
+            needed -= leaf.bytes;
+        }
+        if (needed > 0)
+            return false;
+        for (Node leaf : evicted)
+            evict(leaf);
+        freed |= !evicted.isEmpty();
+        return true;
+    }
+
+    /** @return the children of {@code node} made candidates by its inclusion */
+    private List<Node> include(Node node) {
+        candidates.remove(node);
+        node.included = true;
+        template.add(node);
+        leaves.add(node);
+        bytes += node.bytes;
+        fee += node.fee;
+        for (Node parent : node.parents)
+            if (parent.childrenIn++ == 0)
+                leaves.remove(parent);
+        List<Node> ready = new ArrayList<Node>(0);
+        for (Node child : node.children) {
+            if (--child.parentsOut == 0) {
+                candidates.add(child);
+                ready.add(child);
+            }
+        }
+        return ready;
+    }
+
+    private void evict(Node node) {
+        node.included = false;
+        template.remove(node);
+        leaves.remove(node);
+        bytes -= node.bytes;
+        fee -= node.fee;
+        for (Node parent : node.parents)
+            if (--parent.childrenIn == 0)
+                leaves.add(parent);
+        for (Node child : node.children)
+            if (child.parentsOut++ == 0)
+                candidates.remove(child);
+        candidates.add(node);
+    }
+}
@@ -0,0 +1,56 @@
+/**
+ * A UTXOPool maintaining the {@link UTXOCommitment} of its UTXOs on each change, so that the
+ * state of two pools, e.g., of two nodes after an epoch, or of a pool restored from disk, is
+ * compared in constant time instead of by sorting and hashing all UTXOs. Copies share the trie
+ * of the pool as a {@link UTXOPool} does and start from a copy of its commitment.
+ */
+public class CommittedUTXOPool extends UTXOPool {
+
+    private final UTXOCommitment commitment;
+
+    /** Creates a new empty CommittedUTXOPool */
+    public CommittedUTXOPool() {
+        commitment = new UTXOCommitment();
+    }
+
+    /**
+     * Creates a new CommittedUTXOPool that is a copy of {@code uPool}, whose commitment is copied
+     * if it maintains one, or hashed in parallel otherwise
+     */
+    public CommittedUTXOPool(UTXOPool uPool) {
+        super(uPool);
+        commitment = uPool instanceof CommittedUTXOPool
+                ? new UTXOCommitment(((CommittedUTXOPool) uPool).commitment)
+                : UTXOCommitment.of(this);
+    }
+
+    @Override
+    boolean sharesTrie() {
+        return true;
+    }
+
+    @Override
+    public UTXOPool copy() {
+        return new CommittedUTXOPool(this);
+    }
+
+    @Override
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        if (contains(utxo))
+            commitment.remove(utxo, getTxOutput(utxo));
+        super.addUTXO(utxo, txOut);
+        commitment.add(utxo, txOut);
+    }
+
+    @Override
+    public void removeUTXO(UTXO utxo) {
+        if (!contains(utxo)) return;
+        commitment.remove(utxo, getTxOutput(utxo));
+        super.removeUTXO(utxo);
+    }
+
+    /** @return a copy of the commitment to the current UTXOs of the pool */
+    public UTXOCommitment getCommitment() {
+        return new UTXOCommitment(commitment);
+    }
+}
@@ -0,0 +1,167 @@
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * A thread-safe UTXOPool, which several handlers may share, see
+ * {@link TxHandler#TxHandler(UTXOPool, boolean)}. Lookups read a {@link ConcurrentHashMap}
+ * without locking. Removals lock the stripes of the UTXOs they remove, in ascending order, so
+ * that {@link #spend} removes all outputs claimed by a transaction or none, and each output is
+ * spent exactly once however many handlers race for it. Additions only make UTXOs present, so
+ * they need no lock either. A UTXO mapped to a null output is stored with a sentinel output, as
+ * a {@link ConcurrentHashMap} holds no null values.
+ */
+public class ConcurrentUTXOPool extends UTXOPool {
+
+    /** Number of lock stripes, a power of two well above the number of cores */
+    private static final int STRIPES = Integer.highestOneBit(Math.max(1, Runtime.getRuntime().availableProcessors())) * 16;
+
+    /** Stored in place of a null output */
+    private static final Transaction.Output NO_OUTPUT = new Transaction().new Output(0, null);
+
+    /** The output of each UTXO of the pool, in place of the trie of a {@link UTXOPool} */
+    private final ConcurrentHashMap<UTXO, Transaction.Output> outputs;
+    private final ReentrantLock[] stripes = new ReentrantLock[STRIPES];
+
+    /** Creates a new empty pool */
+    public ConcurrentUTXOPool() {
+        super(false);
+        outputs = new ConcurrentHashMap<UTXO, Transaction.Output>();
+        for (int i = 0; i < STRIPES; i++)
+            stripes[i] = new ReentrantLock();
+    }
+
+    /** Creates a new pool that is a copy of {@code uPool} */
+    public ConcurrentUTXOPool(UTXOPool uPool) {
+        this();
+        JfrEvents.PoolBulkOperation event = new JfrEvents.PoolBulkOperation();
+        event.begin();
+        uPool.stream().forEach(entry -> outputs.put(entry.getKey(), stored(entry.getValue())));
+        commit(event, "copy", uPool);
+    }
+
+    @Override
+    public UTXOPool copy() {
+        return new ConcurrentUTXOPool(this);
+    }
+
+    private static Transaction.Output stored(Transaction.Output txOut) {
+        return txOut == null ? NO_OUTPUT : txOut;
+    }
+
+    private static Transaction.Output output(Transaction.Output stored) {
+        return stored == NO_OUTPUT ? null : stored;
+    }
+
+    private static int stripe(UTXO utxo) {
+        int h = utxo.hashCode();
+        return (h ^ (h >>> 16)) & (STRIPES - 1);
+    }
+
+    /** Adds a mapping from UTXO {@code utxo} to transaction output @code{txOut} to the pool */
+    @Override
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        outputs.put(utxo, stored(txOut));
+    }
+
+    /** Removes the UTXO {@code utxo} from the pool */
+    @Override
+    public void removeUTXO(UTXO utxo) {
+        ReentrantLock lock = stripes[stripe(utxo)];
+        lock.lock();
+        try {
+            outputs.remove(utxo);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Removes all UTXOs of {@code utxos} from the pool if all are in it, and none otherwise,
+     * atomically with respect to other removals: of the calls claiming a UTXO concurrently,
+     * exactly one removes it
+     */
+    @Override
+    public boolean spend(List<UTXO> utxos) {
+        if (utxos.size() == 1) {
+            UTXO utxo = utxos.get(0);
+            ReentrantLock lock = stripes[stripe(utxo)];
+            lock.lock();
+            try {
+                return outputs.remove(utxo) != null;
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        // Distinct stripes in ascending order, so that spends never wait for each other in a cycle
+        int[] locked = new int[utxos.size()];
+        for (int i = 0; i < locked.length; i++)
+            locked[i] = stripe(utxos.get(i));
+        Arrays.sort(locked);
+        int count = 0;
+        for (int i = 0; i < locked.length; i++)
+            if (i == 0 || locked[i] != locked[i - 1])
+                locked[count++] = locked[i];
+
+        for (int i = 0; i < count; i++)
+            stripes[locked[i]].lock();
+        try {
+            for (UTXO utxo : utxos)
+                if (!outputs.containsKey(utxo))
+                    return false;
+            for (UTXO utxo : utxos)
+                outputs.remove(utxo);
+            return true;
+        } finally {
+            for (int i = count - 1; i >= 0; i--)
+                stripes[locked[i]].unlock();
+        }
+    }
+
+    /**
+     * @return the transaction output corresponding to UTXO {@code utxo}, or null if {@code utxo} is
+     *         not in the pool.
+     */
+    @Override
+    public Transaction.Output getTxOutput(UTXO ut) {
+        return output(outputs.get(ut));
+    }
+
+    /** @return true if UTXO {@code utxo} is in the pool and false otherwise */
+    @Override
+    public boolean contains(UTXO utxo) {
+        return outputs.containsKey(utxo);
+    }
+
+    /** @return the number of UTXOs in the pool, approximate while it changes */
+    @Override
+    public int size() {
+        return outputs.size();
+    }
+
+    /**
+     * @return a stream of immutable entries of the UTXOs of the pool with their outputs, which
+     *         reflects changes made while it is consumed or not, but never fails because of them
+     */
+    @Override
+    public Stream<Map.Entry<UTXO, Transaction.Output>> stream() {
+        return outputs.entrySet().stream().map(entry ->
+                new AbstractMap.SimpleImmutableEntry<UTXO, Transaction.Output>(entry.getKey(), output(entry.getValue())));
+    }
+
+    /** Returns an {@code ArrayList} of all UTXOs in the pool */
+    @Override
+    public ArrayList<UTXO> getAllUTXO() {
+        JfrEvents.PoolBulkOperation event = new JfrEvents.PoolBulkOperation();
+        event.begin();
+        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>(outputs.keySet());
+        commit(event, "getAllUTXO", this);
+        return allUTXO;
+    }
+}
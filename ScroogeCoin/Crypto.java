@@ -1,36 +1,68 @@
-import java.security.InvalidKeyException;
+import java.nio.ByteBuffer;
 import java.security.NoSuchAlgorithmException;
 import java.security.PublicKey;
-import java.security.Signature;
-import java.security.SignatureException;
 
 public class Crypto {
 
+    /** Number of verification results cached by default */
+    public static final int DEFAULT_CACHE_CAPACITY = 1 << 16;
+
+    /** Results of earlier verifications, or null if caching is disabled */
+    private static volatile VerificationCache cache = new VerificationCache(DEFAULT_CACHE_CAPACITY);
+
     /**
      * @return true is {@code signature} is a valid digital signature of {@code message} under the
-     *         key {@code pubKey}. Internally, this uses RSA signature, but the student does not
-     *         have to deal with any of the implementation details of the specific signature
-     *         algorithm
+     *         key {@code pubKey}. Internally, this uses the {@link SignatureScheme} of the key's
+     *         algorithm (RSA, ECDSA or Ed25519), but the student does not have to deal with any
+     *         of the implementation details of the specific signature algorithm
      */
     public static boolean verifySignature(PublicKey pubKey, byte[] message, byte[] signature) {
-        Signature sig = null;
-        try {
-            sig = Signature.getInstance("SHA256withRSA");
-        } catch (NoSuchAlgorithmException e) {
-            e.printStackTrace();
+        if (signature == null)
+            return false;
+        JfrEvents.SignatureVerification event = new JfrEvents.SignatureVerification();
+        event.begin();
+        VerificationCache cache = Crypto.cache;
+        Boolean cached = null;
+        boolean valid;
+        if (cache == null) {
+            valid = verify(pubKey, message, signature);
+        } else {
+            ByteBuffer key = VerificationCache.key(pubKey, message, signature);
+            cached = cache.get(key);
+            if (cached != null) {
+                valid = cached;
+            } else {
+                valid = verify(pubKey, message, signature);
+                cache.put(key, valid);
+            }
         }
-        try {
-            sig.initVerify(pubKey);
-        } catch (InvalidKeyException e) {
-            e.printStackTrace();
+        event.end();
+        if (event.shouldCommit()) {
+            event.keyAlgorithm = pubKey.getAlgorithm();
+            event.cached = cached != null;
+            event.valid = valid;
+            event.commit();
         }
-        try {
-            sig.update(message);
-            return sig.verify(signature);
-        } catch (SignatureException e) {
-            e.printStackTrace();
+        return valid;
+    }
+
+    private static boolean verify(PublicKey pubKey, byte[] message, byte[] signature) {
+        SignatureScheme scheme = SignatureScheme.of(pubKey);
+        if (scheme == null) {
+            new NoSuchAlgorithmException("No signature scheme for " + pubKey.getAlgorithm() + " keys")
+                    .printStackTrace();
+            return false;
         }
-        return false;
+        return scheme.verify(pubKey, message, signature);
+    }
+
+    /** @return the cache of verification results, e.g., to read its hit and miss counters */
+    public static VerificationCache getCache() {
+        return cache;
+    }
 
+    /** Replaces the cache of verification results; null disables caching */
+    public static void setCache(VerificationCache verificationCache) {
+        cache = verificationCache;
     }
 }
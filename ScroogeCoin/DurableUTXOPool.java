@@ -0,0 +1,400 @@
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.PublicKey;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * An {@link OffHeapUTXOPool} persisted in a directory, so that it survives restarts without being
+ * rebuilt. A checkpoint consists of the table file, mapped privately on startup so that its
+ * pages are only read when touched, and of the interned addresses with the number of UTXOs of
+ * the table referring to each. Every change since the last
+ * checkpoint is appended to a write-ahead log, written and forced to disk as one group per
+ * {@link #commit}. Recovery maps the last checkpoint and replays the committed groups of its log;
+ * changes not committed before a crash are lost. Once the log exceeds a threshold,
+ * {@link #commit} folds it into a new checkpoint.
+ *
+ * Handlers must update the pool itself, see {@link TxHandler#TxHandler(UTXOPool, boolean)}, as a
+ * {@link #copy} is an in-memory {@link OffHeapUTXOPool}. Handlers do not commit: callers must call
+ * {@link #commit} after each epoch, once {@link TxHandler#handleTxs} returns, so that an epoch is
+ * durable as a whole or not at all.
+ */
+public class DurableUTXOPool extends OffHeapUTXOPool implements Closeable {
+
+    /** Size of the log above which {@link #commit} takes a checkpoint by default */
+    public static final long DEFAULT_CHECKPOINT_BYTES = 64L << 20;
+
+    private static final String MANIFEST = "manifest";
+
+    /** Types of the log records */
+    private static final byte ADD = 1, ADD_NULL_OUTPUT = 2, REMOVE = 3, ADDRESS = 4, COMMIT = 5;
+
+    /** Length and CRC-32 of each group of records */
+    private static final int GROUP_HEADER_SIZE = Integer.BYTES + Long.BYTES;
+
+    private static final int EMPTY_CAPACITY = 16;
+
+    /** Owner of the outputs read from the log, which are inner objects of a transaction */
+    private static final Transaction OWNER = new Transaction();
+
+    private final Path directory;
+    private final long checkpointBytes;
+
+    /** Generation of the last checkpoint, naming its files and the log following it */
+    private long generation;
+    private FileChannel log;
+
+    /** Records of the changes since the last commit */
+    private final GroupBuffer pending = new GroupBuffer();
+    private final DataOutputStream records = new DataOutputStream(pending);
+
+    /**
+     * Opens the pool persisted in {@code directory}, or creates an empty one, taking a checkpoint
+     * whenever the log exceeds {@code checkpointBytes} on commit
+     */
+    public static DurableUTXOPool open(Path directory, long checkpointBytes) throws IOException {
+        Files.createDirectories(directory);
+        long generation = 0;
+        int capacity = 0, size = 0;
+        Path manifest = directory.resolve(MANIFEST);
+        if (Files.exists(manifest)) {
+            try (DataInputStream in = new DataInputStream(Files.newInputStream(manifest))) {
+                generation = in.readLong();
+                capacity = in.readInt();
+                size = in.readInt();
+            }
+        }
+
+        // Changes to the privately mapped table stay in memory until the next checkpoint
+        ByteBuffer[] chunks;
+        if (capacity == 0) {
+            capacity = EMPTY_CAPACITY;
+            chunks = new ByteBuffer[] {ByteBuffer.allocateDirect(chunkBytes(capacity))};
+        } else {
+            int chunkBytes = chunkBytes(capacity);
+            chunks = new ByteBuffer[(int) (tableBytes(capacity) / chunkBytes)];
+            // A private mapping needs a writable channel, though the file is never written
+            try (FileChannel table = FileChannel.open(file(directory, "table", generation),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+                for (int i = 0; i < chunks.length; i++)
+                    chunks[i] = table.map(FileChannel.MapMode.PRIVATE, (long) i * chunkBytes, chunkBytes);
+            }
+        }
+        List<PublicKey> addresses = new ArrayList<PublicKey>();
+        int[] references = readAddresses(file(directory, "addresses", generation), addresses);
+
+        DurableUTXOPool pool = new DurableUTXOPool(directory, checkpointBytes, generation, chunks, capacity, size,
+                addresses, references);
+        pool.recover();
+        return pool;
+    }
+
+    /** Opens the pool persisted in {@code directory} with the default checkpoint threshold */
+    public static DurableUTXOPool open(Path directory) throws IOException {
+        return open(directory, DEFAULT_CHECKPOINT_BYTES);
+    }
+
+    private DurableUTXOPool(Path directory, long checkpointBytes, long generation, ByteBuffer[] chunks,
+            int capacity, int size, List<PublicKey> addresses, int[] references) {
+        super(chunks, capacity, size, addresses, references);
+        this.directory = directory;
+        this.checkpointBytes = checkpointBytes;
+        this.generation = generation;
+    }
+
+    /** Adds a mapping from UTXO {@code utxo} to transaction output @code{txOut} to the pool */
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        boolean interned = txOut == null || txOut.address == null || addressId(txOut.address) >= 0;
+        super.addUTXO(utxo, txOut);
+        try {
+            // An address interned by this change precedes it in the log
+            if (!interned)
+                writeAddress(addressId(txOut.address), txOut.address);
+            writeAdd(utxo, txOut);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** Removes the UTXO {@code utxo} from the pool */
+    public void removeUTXO(UTXO utxo) {
+        super.removeUTXO(utxo);
+        try {
+            writeUTXO(REMOVE, utxo);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /** @return an in-memory copy of this pool, whose changes are not persisted */
+    public UTXOPool copy() {
+        return new OffHeapUTXOPool(this);
+    }
+
+    /**
+     * Makes all changes since the last commit durable by appending them to the log as one group
+     * forced to disk, and takes a checkpoint if the log grew beyond its threshold
+     */
+    public void commit() throws IOException {
+        writeGroup(log);
+        if (log.size() > checkpointBytes)
+            checkpoint();
+    }
+
+    /**
+     * Commits pending changes and writes the table and addresses to a new checkpoint, which
+     * replaces the last one and its log once it is complete on disk
+     */
+    public void checkpoint() throws IOException {
+        writeGroup(log);
+        long next = generation + 1;
+        int capacity = capacity();
+        int chunkBytes = chunkBytes(capacity);
+        try (FileChannel table = FileChannel.open(file(directory, "table", next), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer[] chunks = chunks();
+            for (int i = 0; i < chunks.length; i++) {
+                MappedByteBuffer mapped = table.map(FileChannel.MapMode.READ_WRITE, (long) i * chunkBytes, chunkBytes);
+                mapped.put(0, chunks[i], 0, chunkBytes);
+                mapped.force();
+            }
+        }
+        writeAddresses(file(directory, "addresses", next));
+
+        // UTXOs kept on the heap do not fit into the table, so they start the next log
+        FileChannel nextLog = FileChannel.open(file(directory, "log", next), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        for (Map.Entry<UTXO, Transaction.Output> entry : overflow().entrySet())
+            writeAdd(entry.getKey(), entry.getValue());
+        writeGroup(nextLog);
+
+        Path manifest = directory.resolve(MANIFEST + ".tmp");
+        try (FileChannel channel = FileChannel.open(manifest, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            ByteBuffer contents = ByteBuffer.allocate(Long.BYTES + 2 * Integer.BYTES);
+            contents.putLong(next).putInt(capacity).putInt(size() - overflow().size()).flip();
+            while (contents.hasRemaining())
+                channel.write(contents);
+            channel.force(true);
+        }
+        Files.move(manifest, directory.resolve(MANIFEST), StandardCopyOption.ATOMIC_MOVE);
+        forceDirectory();
+
+        log.close();
+        log = nextLog;
+        for (String name : new String[] {"table", "addresses", "log"})
+            Files.deleteIfExists(file(directory, name, generation));
+        generation = next;
+    }
+
+    /** Closes the log; changes not committed are lost */
+    public void close() throws IOException {
+        log.close();
+    }
+
+    /**
+     * Forces the entries of the directory to disk, so that a crash does not undo the rename of the
+     * manifest, nor the creation of the files it refers to, once it has been renamed
+     */
+    private void forceDirectory() throws IOException {
+        try (FileChannel channel = FileChannel.open(directory, StandardOpenOption.READ)) {
+            channel.force(true);
+        }
+    }
+
+    private static Path file(Path directory, String name, long generation) {
+        return directory.resolve(name + "." + generation);
+    }
+
+    /** Writes the pending records as one group to {@code channel}, followed by a force */
+    private void writeGroup(FileChannel channel) throws IOException {
+        if (pending.size() == 0)
+            return;
+        records.writeByte(COMMIT);
+        records.flush();
+        ByteBuffer group = pending.toByteBuffer();
+        CRC32 crc = new CRC32();
+        crc.update(group.duplicate());
+        ByteBuffer header = ByteBuffer.allocate(GROUP_HEADER_SIZE);
+        header.putInt(group.remaining()).putLong(crc.getValue()).flip();
+        while (header.hasRemaining() || group.hasRemaining())
+            channel.write(new ByteBuffer[] {header, group});
+        channel.force(false);
+        pending.reset();
+    }
+
+    /** Replays the committed groups of the log of the checkpoint, truncating a torn tail */
+    private void recover() throws IOException {
+        log = FileChannel.open(file(directory, "log", generation),
+                StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(GROUP_HEADER_SIZE);
+        long position = 0;
+        while (true) {
+            header.clear();
+            if (log.read(header, position) < GROUP_HEADER_SIZE)
+                break;
+            header.flip();
+            int length = header.getInt();
+            long checksum = header.getLong();
+            if (length <= 0 || position + GROUP_HEADER_SIZE + length > log.size())
+                break;
+            ByteBuffer group = ByteBuffer.allocate(length);
+            while (group.hasRemaining())
+                log.read(group, position + GROUP_HEADER_SIZE + group.position());
+            group.flip();
+            CRC32 crc = new CRC32();
+            crc.update(group.duplicate());
+            if (crc.getValue() != checksum)
+                break;
+            replay(group);
+            position += GROUP_HEADER_SIZE + length;
+        }
+        log.truncate(position);
+        log.position(position);
+        // The log of a new pool is created here, and its commits are lost with it if its entry is
+        forceDirectory();
+    }
+
+    private void replay(ByteBuffer group) throws IOException {
+        while (true) {
+            byte type = group.get();
+            switch (type) {
+            case COMMIT:
+                return;
+            case ADDRESS:
+                int id = group.getInt();
+                internAs(id, readAddress(group));
+                break;
+            case ADD:
+                UTXO utxo = readUTXO(group);
+                double value = group.getDouble();
+                int address = group.getInt();
+                super.addUTXO(utxo, OWNER.new Output(value, address < 0 ? null : addresses().get(address)));
+                break;
+            case ADD_NULL_OUTPUT:
+                super.addUTXO(readUTXO(group), null);
+                break;
+            case REMOVE:
+                super.removeUTXO(readUTXO(group));
+                break;
+            default:
+                throw new IOException("Corrupt log record of type " + type);
+            }
+        }
+    }
+
+    private void writeAdd(UTXO utxo, Transaction.Output txOut) throws IOException {
+        writeUTXO(txOut == null ? ADD_NULL_OUTPUT : ADD, utxo);
+        if (txOut != null) {
+            records.writeDouble(txOut.value);
+            records.writeInt(addressId(txOut.address));
+        }
+    }
+
+    private void writeUTXO(byte type, UTXO utxo) throws IOException {
+        records.writeByte(type);
+        records.writeByte(utxo.getTxHash().length);
+        records.write(utxo.getTxHash());
+        records.writeInt(utxo.getIndex());
+    }
+
+    private static UTXO readUTXO(ByteBuffer group) {
+        byte[] txHash = new byte[group.get() & 0xff];
+        group.get(txHash);
+        return new UTXO(txHash, group.getInt());
+    }
+
+    private void writeAddress(int id, PublicKey address) throws IOException {
+        records.writeByte(ADDRESS);
+        records.writeInt(id);
+        records.write(encode(address));
+    }
+
+    /** @return the algorithm and X.509 encoding of {@code address} */
+    static byte[] encode(PublicKey address) {
+        byte[] algorithm = address.getAlgorithm().getBytes(StandardCharsets.UTF_8);
+        byte[] encoded = address.getEncoded();
+        return ByteBuffer.allocate(Short.BYTES + algorithm.length + Integer.BYTES + encoded.length)
+                .putShort((short) algorithm.length).put(algorithm).putInt(encoded.length).put(encoded).array();
+    }
+
+    static PublicKey readAddress(ByteBuffer in) throws IOException {
+        byte[] algorithm = new byte[in.getShort()];
+        in.get(algorithm);
+        byte[] encoded = new byte[in.getInt()];
+        in.get(encoded);
+        try {
+            return KeyFactory.getInstance(new String(algorithm, StandardCharsets.UTF_8))
+                    .generatePublic(new X509EncodedKeySpec(encoded));
+        } catch (GeneralSecurityException e) {
+            throw new IOException("Cannot decode address", e);
+        }
+    }
+
+    /**
+     * Reads the addresses of a checkpoint into {@code addresses}, null for a free id
+     *
+     * @return the number of UTXOs of the table referring to each address
+     */
+    private static int[] readAddresses(Path file, List<PublicKey> addresses) throws IOException {
+        List<Integer> references = new ArrayList<Integer>();
+        if (Files.exists(file)) {
+            ByteBuffer in = ByteBuffer.wrap(Files.readAllBytes(file));
+            while (in.hasRemaining()) {
+                int count = in.getInt();
+                addresses.add(count < 0 ? null : readAddress(in));
+                references.add(Math.max(count, 0));
+            }
+        }
+        return references.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /**
+     * Writes each interned address, preceded by the number of UTXOs of the table referring to it,
+     * or -1 alone for a free id. UTXOs kept on the heap are not counted, as the next log adds them.
+     */
+    private void writeAddresses(Path file) throws IOException {
+        List<PublicKey> addresses = addresses();
+        int[] references = new int[addresses.size()];
+        for (int id = 0; id < references.length; id++)
+            references[id] = addresses.get(id) == null ? -1 : references(id);
+        for (Transaction.Output txOut : overflow().values())
+            if (txOut != null && txOut.address != null)
+                references[addressId(txOut.address)]--;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            for (int id = 0; id < references.length; id++) {
+                byte[] encoded = addresses.get(id) == null ? new byte[0] : encode(addresses.get(id));
+                ByteBuffer record = ByteBuffer.allocate(Integer.BYTES + encoded.length).putInt(references[id]).put(encoded);
+                record.flip();
+                while (record.hasRemaining())
+                    channel.write(record);
+            }
+            channel.force(true);
+        }
+    }
+
+    /** Pending records, viewed as a buffer without copying */
+    private static class GroupBuffer extends ByteArrayOutputStream {
+        ByteBuffer toByteBuffer() {
+            return ByteBuffer.wrap(buf, 0, count);
+        }
+    }
+}
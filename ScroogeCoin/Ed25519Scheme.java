@@ -0,0 +1,330 @@
+import java.math.BigInteger;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The Ed25519 scheme of RFC 8032, verifying single signatures by the JDK and batches of them by
+ * the randomized batch equation
+ * <pre>
+ *   [8] ([-sum z_i S_i] B + sum [z_i] R_i + sum [z_i h_i] A_i) = 0
+ * </pre>
+ * for random 128-bit z_i, computed as one multi-scalar multiplication that shares its doublings
+ * between all signatures and adds each key once, with the scalars of its signatures summed. An
+ * invalid signature fails the equation but with probability 2^-128; the batch is then halved
+ * until the invalid signatures are found by individual checks.
+ *
+ * The equation is cofactored, as batch equations must be: it also holds for signatures whose
+ * R or key have a component of small order, which no honest signer produces and which the
+ * individual, cofactorless check rejects. Handlers that must agree on such crafted signatures
+ * therefore verify them individually, as {@link Crypto#verifySignature} does.
+ */
+class Ed25519Scheme extends SignatureScheme {
+
+    /** Smallest batch checked by the equation; smaller ones are checked individually */
+    static final int MIN_BATCH_SIZE = 4;
+
+    private static final BigInteger P = BigInteger.ONE.shiftLeft(255).subtract(BigInteger.valueOf(19));
+    private static final BigInteger L = BigInteger.ONE.shiftLeft(252).add(new BigInteger("27742317777372353535851937790883648493"));
+    private static final BigInteger D = BigInteger.valueOf(-121665).multiply(BigInteger.valueOf(121666).modInverse(P)).mod(P);
+    private static final BigInteger D2 = D.shiftLeft(1).mod(P);
+    /** A square root of -1 */
+    private static final BigInteger SQRT_M1 = BigInteger.TWO.modPow(P.subtract(BigInteger.ONE).shiftRight(2), P);
+    private static final BigInteger SQRT_EXPONENT = P.subtract(BigInteger.valueOf(5)).shiftRight(3);
+
+    private static final Point BASE = decode(encodeY(BigInteger.valueOf(4).multiply(BigInteger.valueOf(5).modInverse(P)).mod(P)));
+
+    /** Prefix of the X.509 encoding of an Ed25519 key, followed by its 32 bytes */
+    private static final byte[] X509_PREFIX = {0x30, 0x2a, 0x30, 0x05, 0x06, 0x03, 0x2b, 0x65, 0x70, 0x03, 0x21, 0x00};
+
+    /** Width of the non-adjacent forms of the scalars */
+    private static final int WINDOW = 5;
+
+    private static final SecureRandom RANDOM = new SecureRandom();
+
+    private static final ThreadLocal<MessageDigest> SHA512 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-512");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    Ed25519Scheme() {
+        super("Ed25519");
+    }
+
+    /** A point of the curve in extended coordinates, x = X/Z, y = Y/Z and xy = T/Z */
+    private static final class Point {
+        static final Point IDENTITY = new Point(BigInteger.ZERO, BigInteger.ONE, BigInteger.ONE, BigInteger.ZERO);
+
+        final BigInteger x, y, z, t;
+
+        Point(BigInteger x, BigInteger y, BigInteger z, BigInteger t) {
+            this.x = x;
+            this.y = y;
+            this.z = z;
+            this.t = t;
+        }
+
+        /** Adds {@code q}, as in RFC 8032, section 5.1.4 */
+        Point add(Point q) {
+            BigInteger a = mul(y.subtract(x), q.y.subtract(q.x));
+            BigInteger b = mul(y.add(x), q.y.add(q.x));
+            BigInteger c = mul(mul(t, D2), q.t);
+            BigInteger d = mul(z.shiftLeft(1), q.z);
+            BigInteger e = b.subtract(a), f = d.subtract(c), g = d.add(c), h = b.add(a);
+            return new Point(mul(e, f), mul(g, h), mul(f, g), mul(e, h));
+        }
+
+        Point dbl() {
+            BigInteger a = mul(x, x);
+            BigInteger b = mul(y, y);
+            BigInteger c = mul(z, z).shiftLeft(1);
+            BigInteger h = a.add(b);
+            BigInteger xy = x.add(y);
+            BigInteger e = h.subtract(mul(xy, xy));
+            BigInteger g = a.subtract(b);
+            BigInteger f = c.add(g);
+            return new Point(mul(e, f), mul(g, h), mul(f, g), mul(e, h));
+        }
+
+        Point negate() {
+            return new Point(P.subtract(x), y, z, P.subtract(t));
+        }
+
+        boolean isIdentity() {
+            return x.signum() == 0 && y.equals(z);
+        }
+    }
+
+    private static BigInteger mul(BigInteger a, BigInteger b) {
+        return a.multiply(b).mod(P);
+    }
+
+    /** A signature prepared for the batch equation */
+    private static final class Prepared {
+        final int index;
+        final Point r;
+        final byte[] key;
+        final BigInteger s;
+        final BigInteger h;
+
+        Prepared(int index, Point r, byte[] key, BigInteger s, BigInteger h) {
+            this.index = index;
+            this.r = r;
+            this.key = key;
+            this.s = s;
+            this.h = h;
+        }
+    }
+
+    @Override
+    protected void verifyBatch(List<Check> checks, List<Integer> indices, BitSet invalid) {
+        if (indices.size() < MIN_BATCH_SIZE) {
+            super.verifyBatch(checks, indices, invalid);
+            return;
+        }
+        // Malformed signatures and keys are left to the individual check
+        List<Prepared> prepared = new ArrayList<Prepared>(indices.size());
+        List<Integer> individual = new ArrayList<Integer>();
+        Map<KeyBytes, Point> keys = new HashMap<KeyBytes, Point>();
+        for (int index : indices) {
+            Prepared signature = prepare(index, checks.get(index), keys);
+            if (signature == null)
+                individual.add(index);
+            else
+                prepared.add(signature);
+        }
+        super.verifyBatch(checks, individual, invalid);
+        verifyPrepared(checks, prepared, keys, invalid);
+    }
+
+    /** Checks {@code prepared} by the batch equation, and its halves if it fails */
+    private void verifyPrepared(List<Check> checks, List<Prepared> prepared, Map<KeyBytes, Point> keys, BitSet invalid) {
+        if (prepared.size() < MIN_BATCH_SIZE) {
+            List<Integer> indices = new ArrayList<Integer>(prepared.size());
+            for (Prepared signature : prepared)
+                indices.add(signature.index);
+            super.verifyBatch(checks, indices, invalid);
+            return;
+        }
+        if (holds(prepared, keys))
+            return;
+        int half = prepared.size() / 2;
+        verifyPrepared(checks, prepared.subList(0, half), keys, invalid);
+        verifyPrepared(checks, prepared.subList(half, prepared.size()), keys, invalid);
+    }
+
+    /** @return true iff the batch equation holds for {@code prepared} with fresh random z_i */
+    private static boolean holds(List<Prepared> prepared, Map<KeyBytes, Point> keys) {
+        List<Point> points = new ArrayList<Point>(prepared.size() + keys.size() + 1);
+        List<BigInteger> scalars = new ArrayList<BigInteger>(points.size());
+        Map<KeyBytes, BigInteger> keyScalars = new HashMap<KeyBytes, BigInteger>();
+        BigInteger baseScalar = BigInteger.ZERO;
+        for (Prepared signature : prepared) {
+            BigInteger z = new BigInteger(128, RANDOM);
+            baseScalar = baseScalar.add(z.multiply(signature.s));
+            points.add(signature.r);
+            scalars.add(z);
+            keyScalars.merge(new KeyBytes(signature.key), z.multiply(signature.h), BigInteger::add);
+        }
+        for (Map.Entry<KeyBytes, BigInteger> entry : keyScalars.entrySet()) {
+            points.add(keys.get(entry.getKey()));
+            scalars.add(entry.getValue().mod(L));
+        }
+        points.add(BASE);
+        scalars.add(L.subtract(baseScalar.mod(L)));
+        return multiply(points, scalars).dbl().dbl().dbl().isIdentity();
+    }
+
+    /** @return sum [scalars_i] points_i, by Straus' method over width-w non-adjacent forms */
+    private static Point multiply(List<Point> points, List<BigInteger> scalars) {
+        int n = points.size();
+        int[][] digits = new int[n][];
+        Point[][] odd = new Point[n][];
+        int length = 0;
+        for (int i = 0; i < n; i++) {
+            digits[i] = nonAdjacentForm(scalars.get(i));
+            length = Math.max(length, digits[i].length);
+            // P, 3P, 5P, ..., (2^(w-1) - 1)P
+            odd[i] = new Point[1 << (WINDOW - 2)];
+            odd[i][0] = points.get(i);
+            Point twice = odd[i][0].dbl();
+            for (int j = 1; j < odd[i].length; j++)
+                odd[i][j] = odd[i][j - 1].add(twice);
+        }
+        Point sum = Point.IDENTITY;
+        for (int bit = length - 1; bit >= 0; bit--) {
+            sum = sum.dbl();
+            for (int i = 0; i < n; i++) {
+                int digit = bit < digits[i].length ? digits[i][bit] : 0;
+                if (digit > 0)
+                    sum = sum.add(odd[i][digit >> 1]);
+                else if (digit < 0)
+                    sum = sum.add(odd[i][-digit >> 1].negate());
+            }
+        }
+        return sum;
+    }
+
+    /** @return the digits of {@code k}, least significant first, odd and below 2^(w-1) in absolute value, or zero */
+    private static int[] nonAdjacentForm(BigInteger k) {
+        int[] digits = new int[k.bitLength() + 1];
+        int i = 0;
+        while (k.signum() > 0) {
+            if (k.testBit(0)) {
+                int digit = k.intValue() & ((1 << WINDOW) - 1);
+                if (digit >= 1 << (WINDOW - 1))
+                    digit -= 1 << WINDOW;
+                digits[i] = digit;
+                k = k.subtract(BigInteger.valueOf(digit));
+            }
+            k = k.shiftRight(1);
+            i++;
+        }
+        return Arrays.copyOf(digits, i);
+    }
+
+    /** @return the signature of {@code check} decoded for the batch equation, or null if it is not canonical */
+    private static Prepared prepare(int index, Check check, Map<KeyBytes, Point> keys) {
+        byte[] key = rawKey(check.pubKey);
+        byte[] signature = check.signature;
+        if (key == null || signature.length != 64)
+            return null;
+        KeyBytes keyBytes = new KeyBytes(key);
+        Point a = keys.get(keyBytes);
+        if (a == null) {
+            a = decode(key);
+            if (a == null)
+                return null;
+            keys.put(keyBytes, a);
+        }
+        byte[] encodedR = Arrays.copyOfRange(signature, 0, 32);
+        Point r = decode(encodedR);
+        BigInteger s = littleEndian(Arrays.copyOfRange(signature, 32, 64));
+        if (r == null || s.compareTo(L) >= 0)
+            return null;
+        MessageDigest sha512 = SHA512.get();
+        sha512.update(encodedR);
+        sha512.update(key);
+        sha512.update(check.message);
+        BigInteger h = littleEndian(sha512.digest()).mod(L);
+        return new Prepared(index, r, key, s, h);
+    }
+
+    /** @return the 32 bytes of the Ed25519 key {@code pubKey}, or null if it is not X.509 encoded as such */
+    private static byte[] rawKey(PublicKey pubKey) {
+        byte[] encoded = pubKey.getEncoded();
+        if (encoded == null || encoded.length != X509_PREFIX.length + 32
+                || !Arrays.equals(encoded, 0, X509_PREFIX.length, X509_PREFIX, 0, X509_PREFIX.length))
+            return null;
+        return Arrays.copyOfRange(encoded, X509_PREFIX.length, encoded.length);
+    }
+
+    /** @return the point of the canonical encoding {@code encoded}, as in RFC 8032, section 5.1.3, or null */
+    private static Point decode(byte[] encoded) {
+        boolean xOdd = (encoded[31] & 0x80) != 0;
+        byte[] bytes = encoded.clone();
+        bytes[31] &= 0x7f;
+        BigInteger y = littleEndian(bytes);
+        if (y.compareTo(P) >= 0)
+            return null;
+        BigInteger yy = mul(y, y);
+        BigInteger u = yy.subtract(BigInteger.ONE).mod(P);
+        BigInteger v = mul(D, yy).add(BigInteger.ONE).mod(P);
+        BigInteger v3 = mul(mul(v, v), v);
+        BigInteger x = mul(mul(u, v3), mul(u, mul(v3, mul(v3, v))).modPow(SQRT_EXPONENT, P));
+        BigInteger vxx = mul(v, mul(x, x));
+        if (vxx.equals(P.subtract(u).mod(P)))
+            x = mul(x, SQRT_M1);
+        else if (!vxx.equals(u))
+            return null;
+        if (x.signum() == 0 && xOdd)
+            return null;
+        if (x.testBit(0) != xOdd)
+            x = P.subtract(x);
+        return new Point(x, y, BigInteger.ONE, mul(x, y));
+    }
+
+    private static byte[] encodeY(BigInteger y) {
+        byte[] encoded = new byte[32];
+        byte[] bigEndian = y.toByteArray();
+        for (int i = 0; i < bigEndian.length && i < 32; i++)
+            encoded[i] = bigEndian[bigEndian.length - 1 - i];
+        return encoded;
+    }
+
+    private static BigInteger littleEndian(byte[] bytes) {
+        byte[] bigEndian = new byte[bytes.length];
+        for (int i = 0; i < bytes.length; i++)
+            bigEndian[i] = bytes[bytes.length - 1 - i];
+        return new BigInteger(1, bigEndian);
+    }
+
+    /** The 32 bytes of a key, compared by value */
+    private static final class KeyBytes {
+        final byte[] bytes;
+
+        KeyBytes(byte[] bytes) {
+            this.bytes = bytes;
+        }
+
+        @Override
+        public boolean equals(Object other) {
+            return other instanceof KeyBytes && Arrays.equals(bytes, ((KeyBytes) other).bytes);
+        }
+
+        @Override
+        public int hashCode() {
+            return Arrays.hashCode(bytes);
+        }
+    }
+}
@@ -0,0 +1,179 @@
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An append-only journal of the epochs handled by a {@link TxHandler}, to be replayed by
+ * {@link JournalReplay}, e.g., to check an optimized handler against recorded traffic. The
+ * journal starts with the initial UTXO pool; each epoch records when it was handled, its proposed
+ * transactions, the indexes of the accepted ones, and the {@link UTXOCommitment} of the pool
+ * after it as a checkpoint of 32 bytes. Addresses are written once and then referred to by id.
+ *
+ * <p>File format, big-endian: the magic {@code "SCEJ"} and version, then records, each a type
+ * byte, the int length of its body and the body. An address record holds its id and
+ * algorithm and X.509 encoding; the pool record the number of UTXOs, then per UTXO the length
+ * and bytes of its transaction hash, its index, its output value and address id (-1 if none, -2
+ * for no output); an epoch record the ns since the journal was opened, the number of
+ * transactions and each of them, as the length and bytes of its hash (-1 if none) followed by its
+ * encoding in {@link Fixture}, but with each output's address as an id (-1 if none, -2 for no
+ * output, of value 0), the number and indexes of the accepted ones, and a commitment flag byte
+ * followed by the 32 bytes of the commitment if set. The hash is recorded as the handler saw it,
+ * as that of a transaction with a missing output or address cannot be recomputed.
+ */
+public class EpochJournal implements Closeable {
+
+    static final int MAGIC = 0x5343454A; // "SCEJ"
+    static final int VERSION = 2;
+
+    /** Types of the records */
+    static final byte ADDRESS = 1, POOL = 2, EPOCH = 3;
+
+    /** Address ids of a missing address and of a missing output */
+    static final int NO_ADDRESS = -1, NO_OUTPUT = -2;
+
+    private final DataOutputStream out;
+    private final long start = System.nanoTime();
+    private final Map<PublicKey, Integer> addressIds = new HashMap<PublicKey, Integer>();
+    /** Addresses first used by the record being encoded, written before it */
+    private final List<PublicKey> newAddresses = new ArrayList<PublicKey>();
+
+    private final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+    private final DataOutputStream record = new DataOutputStream(buffer);
+
+    private EpochJournal(Path path) throws IOException {
+        out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+    }
+
+    /** Creates the journal {@code path}, replacing any file, starting from the UTXOs of {@code utxoPool} */
+    public static EpochJournal create(Path path, UTXOPool utxoPool) throws IOException {
+        EpochJournal journal = new EpochJournal(path);
+        journal.writePool(utxoPool);
+        return journal;
+    }
+
+    /**
+     * Handles {@code possibleTxs} by {@code handler} and records the epoch, with the commitment to
+     * its pool if it is a {@link CommittedUTXOPool}
+     *
+     * @return the transactions accepted by {@code handler}
+     */
+    public Transaction[] handle(TxHandler handler, Transaction[] possibleTxs) throws IOException {
+        Transaction[] acceptedTxs = handler.handleTxs(possibleTxs);
+        UTXOCommitment commitment = handler.utxoPool instanceof CommittedUTXOPool
+                ? ((CommittedUTXOPool) handler.utxoPool).getCommitment() : null;
+        record(possibleTxs, acceptedTxs, commitment);
+        return acceptedTxs;
+    }
+
+    /**
+     * Records an epoch of {@code possibleTxs}, of which {@code acceptedTxs} were accepted, leaving
+     * the pool with {@code commitment}, unless null
+     */
+    public void record(Transaction[] possibleTxs, Transaction[] acceptedTxs, UTXOCommitment commitment)
+            throws IOException {
+        Map<Transaction, Integer> indexes = new IdentityHashMap<Transaction, Integer>();
+        record.writeLong(System.nanoTime() - start);
+        record.writeInt(possibleTxs.length);
+        for (int i = 0; i < possibleTxs.length; i++) {
+            indexes.put(possibleTxs[i], i);
+            writeTx(possibleTxs[i]);
+        }
+        record.writeInt(acceptedTxs.length);
+        for (Transaction tx : acceptedTxs) {
+            Integer index = indexes.get(tx);
+            if (index == null) {
+                buffer.reset();
+                throw new IllegalArgumentException("An accepted transaction was not proposed");
+            }
+            record.writeInt(index);
+        }
+        record.writeBoolean(commitment != null);
+        if (commitment != null)
+            record.write(commitment.getBytes());
+        flushRecord(EPOCH);
+    }
+
+    private void writePool(UTXOPool utxoPool) throws IOException {
+        record.writeInt(utxoPool.size());
+        for (UTXO utxo : utxoPool.getAllUTXO()) {
+            writeBytes(utxo.getTxHash());
+            record.writeInt(utxo.getIndex());
+            Transaction.Output txOut = utxoPool.getTxOutput(utxo);
+            record.writeDouble(txOut == null ? 0 : txOut.value);
+            record.writeInt(txOut == null ? NO_OUTPUT : addressId(txOut.address));
+        }
+        flushRecord(POOL);
+    }
+
+    private void writeTx(Transaction tx) throws IOException {
+        writeBytes(tx.getHash());
+        record.writeInt(tx.numInputs());
+        for (Transaction.Input input : tx.getInputs()) {
+            writeBytes(input.prevTxHash);
+            record.writeInt(input.outputIndex);
+            writeBytes(input.signature);
+        }
+        record.writeInt(tx.numOutputs());
+        for (Transaction.Output output : tx.getOutputs()) {
+            record.writeDouble(output == null ? 0 : output.value);
+            record.writeInt(output == null ? NO_OUTPUT : addressId(output.address));
+        }
+    }
+
+    private void writeBytes(byte[] bytes) throws IOException {
+        record.writeInt(bytes == null ? -1 : bytes.length);
+        if (bytes != null)
+            record.write(bytes);
+    }
+
+    private int addressId(PublicKey address) {
+        if (address == null)
+            return NO_ADDRESS;
+        Integer id = addressIds.get(address);
+        if (id == null) {
+            id = addressIds.size();
+            addressIds.put(address, id);
+            newAddresses.add(address);
+        }
+        return id;
+    }
+
+    /** Writes the addresses first used by the encoded record, then the record */
+    private void flushRecord(byte type) throws IOException {
+        record.flush();
+        for (PublicKey address : newAddresses) {
+            byte[] encoded = DurableUTXOPool.encode(address);
+            out.writeByte(ADDRESS);
+            out.writeInt(Integer.BYTES + encoded.length);
+            out.writeInt(addressIds.get(address));
+            out.write(encoded);
+        }
+        newAddresses.clear();
+        out.writeByte(type);
+        out.writeInt(buffer.size());
+        buffer.writeTo(out);
+        buffer.reset();
+    }
+
+    /** Writes the buffered records to the file */
+    public void flush() throws IOException {
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        out.close();
+    }
+}
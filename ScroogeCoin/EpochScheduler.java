@@ -0,0 +1,72 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Orders the transactions of an epoch topologically by their spends, so that a transaction
+ * claiming an output of another transaction of the same epoch is validated after it.
+ */
+class EpochScheduler {
+
+    private EpochScheduler() {
+    }
+
+    /**
+     * @return {@code possibleTxs} reordered such that each transaction follows the transactions of
+     *         the epoch whose hash one of its inputs claims, keeping the array order otherwise. Runs
+     *         in O(n + e) for n transactions with e claims among them.
+     */
+    static Transaction[] order(Transaction[] possibleTxs) {
+        int n = possibleTxs.length;
+
+        // Index of each tx by its hash
+        Map<ByteBuffer, Integer> txIndex = new HashMap<ByteBuffer, Integer>();
+        for (int i = 0; i < n; i++) {
+            byte[] hash = possibleTxs[i].getHash();
+            if (hash != null)
+                txIndex.putIfAbsent(ByteBuffer.wrap(hash), i);
+        }
+
+        // Edges from each parent to its children, counting unresolved parents per child
+        List<List<Integer>> children = new ArrayList<List<Integer>>(n);
+        int[] parents = new int[n];
+        for (int i = 0; i < n; i++)
+            children.add(null);
+        for (int i = 0; i < n; i++) {
+            for (Transaction.Input input : possibleTxs[i].getInputs()) {
+                if (input.prevTxHash == null) continue;
+                Integer parent = txIndex.get(ByteBuffer.wrap(input.prevTxHash));
+                if (parent == null || parent == i) continue;
+                if (children.get(parent) == null)
+                    children.set(parent, new ArrayList<Integer>());
+                children.get(parent).add(i);
+                parents[i]++;
+            }
+        }
+
+        // Kahn's algorithm, with ready txs queued in array order
+        int[] queue = new int[n];
+        int head = 0, tail = 0;
+        for (int i = 0; i < n; i++)
+            if (parents[i] == 0)
+                queue[tail++] = i;
+        while (head < tail) {
+            List<Integer> next = children.get(queue[head++]);
+            if (next == null) continue;
+            for (int child : next)
+                if (--parents[child] == 0)
+                    queue[tail++] = child;
+        }
+
+        Transaction[] orderedTxs = new Transaction[n];
+        for (int i = 0; i < tail; i++)
+            orderedTxs[i] = possibleTxs[queue[i]];
+        // Txs on a cycle of claims (only possible for colliding hashes) follow in array order
+        for (int i = 0; i < n && tail < n; i++)
+            if (parents[i] > 0)
+                orderedTxs[tail++] = possibleTxs[i];
+        return orderedTxs;
+    }
+}
@@ -0,0 +1,348 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Selects a mutually valid set of transactions of an epoch with maximum total fee.
+ * Transactions claiming the same output conflict, and a transaction claiming an output of
+ * another transaction of the epoch depends on it. Clusters of conflicting or dependent
+ * transactions are solved independently: small ones exactly by branch-and-bound within a time
+ * budget, large ones (or those left when the budget is exhausted) greedily.
+ */
+public class FeeSelector {
+
+    /** Largest cluster solved by branch-and-bound by default */
+    public static final int DEFAULT_MAX_EXACT_CLUSTER_SIZE = 32;
+
+    /** Time spent on branch-and-bound per epoch by default, in nanoseconds */
+    public static final long DEFAULT_TIME_BUDGET_NANOS = 50_000_000L;
+
+    /** Number of search nodes visited between two checks of the deadline */
+    private static final int DEADLINE_CHECK_INTERVAL = 1024;
+
+    private final int maxExactClusterSize;
+    private final long timeBudgetNanos;
+
+    /** Creates a selector with the default cluster size limit and time budget */
+    public FeeSelector() {
+        this(DEFAULT_MAX_EXACT_CLUSTER_SIZE, DEFAULT_TIME_BUDGET_NANOS);
+    }
+
+    /**
+     * Creates a selector solving clusters of at most {@code maxExactClusterSize} transactions
+     * exactly, spending at most {@code timeBudgetNanos} on doing so per epoch
+     */
+    public FeeSelector(int maxExactClusterSize, long timeBudgetNanos) {
+        this.maxExactClusterSize = maxExactClusterSize;
+        this.timeBudgetNanos = timeBudgetNanos;
+    }
+
+    /** Outcome of a selection: the accepted transactions, their fee and an upper bound on it */
+    public static class Selection {
+        private final Transaction[] txs;
+        private final double[] fees;
+        private final double fee;
+        private final double bound;
+
+        private Selection(Transaction[] txs, double[] fees, double fee, double bound) {
+            this.txs = txs;
+            this.fees = fees;
+            this.fee = fee;
+            this.bound = bound;
+        }
+
+        /** @return the selected transactions, each following the transactions it depends on */
+        public Transaction[] getTxs() {
+            return txs;
+        }
+
+        /** @return the fee of the {@code index}th selected transaction */
+        public double getFee(int index) {
+            return fees[index];
+        }
+
+        /** @return the total fee of the selected transactions */
+        public double getFee() {
+            return fee;
+        }
+
+        /** @return a proven upper bound on the total fee of any mutually valid set */
+        public double getBound() {
+            return bound;
+        }
+
+        /** @return true iff the selection was proven to have maximum total fee */
+        public boolean isOptimal() {
+            return fee >= bound;
+        }
+    }
+
+    /**
+     * Selects among {@code orderedTxs}, ordered by {@link EpochScheduler#order} and prechecked
+     * against {@code utxoPool} by {@code prechecks}, a mutually valid set of maximum total fee.
+     */
+    Selection select(Transaction[] orderedTxs, TxPrecheck[] prechecks, UTXOPool utxoPool) {
+        long deadline = System.nanoTime() + timeBudgetNanos;
+        int n = orderedTxs.length;
+
+        Map<ByteBuffer, Integer> txIndex = new HashMap<ByteBuffer, Integer>();
+        for (int i = 0; i < n; i++)
+            if (orderedTxs[i].getHash() != null)
+                txIndex.putIfAbsent(ByteBuffer.wrap(orderedTxs[i].getHash()), i);
+
+        // Fee and validity of each tx given that its parents are accepted
+        double[] fee = new double[n];
+        boolean[] valid = new boolean[n];
+        int[][] parents = new int[n][];
+        Map<UTXO, List<Integer>> claims = new HashMap<UTXO, List<Integer>>();
+        for (int i = 0; i < n; i++) {
+            valid[i] = prechecks[i].isSound();
+            if (!valid[i]) continue;
+            fee[i] = prechecks[i].fee();
+            valid[i] = fee[i] >= 0;
+            int[] txParents = new int[orderedTxs[i].numInputs()];
+            int numParents = 0;
+            for (Transaction.Input input : orderedTxs[i].getInputs()) {
+                UTXO utxo = new UTXO(input.prevTxHash, input.outputIndex);
+                claims.computeIfAbsent(utxo, k -> new ArrayList<Integer>()).add(i);
+                // claimed outputs not in the pool were resolved among the outputs of the epoch
+                if (utxoPool.contains(utxo)) continue;
+                Integer parent = txIndex.get(ByteBuffer.wrap(input.prevTxHash));
+                if (parent != null)
+                    txParents[numParents++] = parent;
+            }
+            parents[i] = Arrays.copyOf(txParents, numParents);
+            // txs ordered after their parents, so validity of the parents is already known
+            for (int parent : parents[i])
+                valid[i] &= parent != i && parent < i && valid[parent];
+        }
+
+        // Conflicts between valid txs claiming the same output
+        List<List<Integer>> conflicts = new ArrayList<List<Integer>>(n);
+        for (int i = 0; i < n; i++)
+            conflicts.add(new ArrayList<Integer>());
+        for (List<Integer> claimants : claims.values()) {
+            for (int a = 0; a < claimants.size(); a++) {
+                int i = claimants.get(a);
+                if (!valid[i]) continue;
+                for (int b = a + 1; b < claimants.size(); b++) {
+                    int j = claimants.get(b);
+                    if (i != j && valid[j]) {
+                        conflicts.get(i).add(j);
+                        conflicts.get(j).add(i);
+                    }
+                }
+            }
+        }
+
+        // Clusters of valid txs connected by conflicts or dependencies
+        int[] root = new int[n];
+        for (int i = 0; i < n; i++)
+            root[i] = i;
+        for (int i = 0; i < n; i++) {
+            if (!valid[i]) continue;
+            for (int parent : parents[i])
+                union(root, i, parent);
+            for (int j : conflicts.get(i))
+                union(root, i, j);
+        }
+        Map<Integer, List<Integer>> clusters = new HashMap<Integer, List<Integer>>();
+        for (int i = 0; i < n; i++)
+            if (valid[i])
+                clusters.computeIfAbsent(find(root, i), k -> new ArrayList<Integer>()).add(i);
+
+        boolean[] chosen = new boolean[n];
+        double totalFee = 0, totalBound = 0;
+        for (List<Integer> members : clusters.values()) {
+            Cluster cluster = new Cluster(members, fee, parents, conflicts);
+            double clusterBound = cluster.greedy();
+            if (members.size() <= maxExactClusterSize && cluster.branchAndBound(deadline))
+                clusterBound = cluster.bestFee;
+            for (int k = 0; k < cluster.size; k++)
+                chosen[members.get(k)] = cluster.best[k];
+            totalFee += cluster.bestFee;
+            totalBound += clusterBound;
+        }
+
+        // Selected txs in scheduled order, hence after their parents
+        List<Transaction> selectedTxs = new ArrayList<Transaction>();
+        double[] selectedFees = new double[n];
+        for (int i = 0; i < n; i++) {
+            if (!chosen[i]) continue;
+            selectedFees[selectedTxs.size()] = fee[i];
+            selectedTxs.add(orderedTxs[i]);
+        }
+        return new Selection(selectedTxs.toArray(Transaction[]::new),
+                Arrays.copyOf(selectedFees, selectedTxs.size()), totalFee, Math.max(totalFee, totalBound));
+    }
+
+    private static int find(int[] root, int i) {
+        while (root[i] != i)
+            i = root[i] = root[root[i]];
+        return i;
+    }
+
+    private static void union(int[] root, int i, int j) {
+        root[find(root, i)] = find(root, j);
+    }
+
+    /** A cluster of transactions, indexed locally in scheduled order */
+    private static class Cluster {
+        final int size;
+        final double[] fee;
+        final int[][] parents;
+        final int[][] conflicts;
+
+        /** Best selection found so far and its fee */
+        final boolean[] best;
+        double bestFee;
+
+        /** Search state: chosen txs and the number of chosen txs each tx conflicts with */
+        private final boolean[] chosen;
+        private final int[] blocked;
+        /** Scratch space of {@link #bound}, reused by all search nodes */
+        private final boolean[] choosable;
+        private long deadline;
+        private int visits;
+        private boolean aborted;
+
+        Cluster(List<Integer> members, double[] txFee, int[][] txParents, List<List<Integer>> txConflicts) {
+            size = members.size();
+            Map<Integer, Integer> local = new HashMap<Integer, Integer>();
+            for (int k = 0; k < size; k++)
+                local.put(members.get(k), k);
+            fee = new double[size];
+            parents = new int[size][];
+            conflicts = new int[size][];
+            for (int k = 0; k < size; k++) {
+                int i = members.get(k);
+                fee[k] = txFee[i];
+                parents[k] = Arrays.stream(txParents[i]).map(local::get).toArray();
+                conflicts[k] = txConflicts.get(i).stream().mapToInt(local::get).toArray();
+            }
+            best = new boolean[size];
+            chosen = new boolean[size];
+            blocked = new int[size];
+            choosable = new boolean[size];
+        }
+
+        /**
+         * Chooses txs by decreasing fee, each together with its unchosen ancestors if none of them
+         * conflicts with a chosen tx or another of them.
+         * @return the sum of all fees of the cluster, an upper bound on its best selection
+         */
+        double greedy() {
+            Integer[] byFee = new Integer[size];
+            for (int k = 0; k < size; k++)
+                byFee[k] = k;
+            Arrays.sort(byFee, Comparator.comparingDouble((Integer k) -> fee[k]).reversed());
+
+            boolean[] inPackage = new boolean[size];
+            for (int k : byFee) {
+                if (chosen[k]) continue;
+                List<Integer> txPackage = new ArrayList<Integer>();
+                collectAncestors(k, inPackage, txPackage);
+                boolean feasible = true;
+                for (int j : txPackage) {
+                    feasible &= blocked[j] == 0;
+                    for (int c : conflicts[j])
+                        feasible &= !inPackage[c];
+                }
+                for (int j : txPackage)
+                    inPackage[j] = false;
+                if (feasible)
+                    for (int j : txPackage)
+                        choose(j);
+            }
+
+            double total = 0;
+            for (int k = 0; k < size; k++) {
+                best[k] = chosen[k];
+                if (chosen[k])
+                    bestFee += fee[k];
+                total += fee[k];
+                if (chosen[k])
+                    unchoose(k);
+            }
+            return total;
+        }
+
+        private void collectAncestors(int k, boolean[] inPackage, List<Integer> txPackage) {
+            if (chosen[k] || inPackage[k]) return;
+            inPackage[k] = true;
+            txPackage.add(k);
+            for (int parent : parents[k])
+                collectAncestors(parent, inPackage, txPackage);
+        }
+
+        /**
+         * Searches the selections of the cluster exhaustively, pruning those that cannot exceed
+         * the best one found so far.
+         * @return true iff the search completed before {@code deadline}, proving the best optimal
+         */
+        boolean branchAndBound(long deadline) {
+            this.deadline = deadline;
+            search(0, 0);
+            return !aborted;
+        }
+
+        private void search(int k, double fee) {
+            if (aborted || (++visits % DEADLINE_CHECK_INTERVAL == 0 && System.nanoTime() > deadline)) {
+                aborted = true;
+                return;
+            }
+            if (k == size) {
+                if (fee > bestFee) {
+                    bestFee = fee;
+                    System.arraycopy(chosen, 0, best, 0, size);
+                }
+                return;
+            }
+            if (fee + bound(k) <= bestFee) return;
+
+            if (isChoosable(k)) {
+                choose(k);
+                search(k + 1, fee + this.fee[k]);
+                unchoose(k);
+            }
+            search(k + 1, fee);
+        }
+
+        /** @return the sum of fees of txs from the {@code k}th on that may still be chosen */
+        private double bound(int k) {
+            // Entries from the kth on are written before they are read, each parent preceding its child
+            double bound = 0;
+            for (int j = k; j < size; j++) {
+                choosable[j] = blocked[j] == 0;
+                for (int parent : parents[j])
+                    choosable[j] &= parent < k ? chosen[parent] : choosable[parent];
+                if (choosable[j])
+                    bound += fee[j];
+            }
+            return bound;
+        }
+
+        private boolean isChoosable(int k) {
+            if (blocked[k] > 0) return false;
+            for (int parent : parents[k])
+                if (!chosen[parent]) return false;
+            return true;
+        }
+
+        private void choose(int k) {
+            chosen[k] = true;
+            for (int c : conflicts[k])
+                blocked[c]++;
+        }
+
+        private void unchoose(int k) {
+            chosen[k] = false;
+            for (int c : conflicts[k])
+                blocked[c]--;
+        }
+    }
+}
@@ -0,0 +1,171 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.GeneralSecurityException;
+import java.security.KeyFactory;
+import java.security.KeyPair;
+import java.security.PublicKey;
+import java.security.spec.PKCS8EncodedKeySpec;
+import java.security.spec.X509EncodedKeySpec;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A workload of key pairs, a genesis transaction whose outputs make up the initial UTXO pool,
+ * and signed transactions spending them, e.g., made by {@link TxGraphGenerator}. A fixture is
+ * written to a compact binary file, where addresses are ids of the key list, so that it is
+ * loaded without generating keys or signing again.
+ *
+ * <p>File format, big-endian: the magic {@code "SCFX"} and version; the number of keys, then
+ * per key its algorithm (modified UTF-8) and X.509 public and PKCS#8 private encodings (each an
+ * int length and bytes); the genesis transaction then the number of transactions and each of
+ * them, a transaction being its number of inputs, per input the length and bytes of its
+ * previous hash, its output index and the length and bytes of its signature (-1 if none), and
+ * its number of outputs, per output its value and address id. Hashes are recomputed on load.
+ */
+public class Fixture {
+
+    private static final int MAGIC = 0x53434658; // "SCFX"
+    private static final int VERSION = 1;
+
+    private final KeyPair[] keys;
+    private final Transaction genesis;
+    private final Transaction[] txs;
+
+    /** Creates a fixture whose output addresses are all public keys of {@code keys} */
+    public Fixture(KeyPair[] keys, Transaction genesis, Transaction[] txs) {
+        this.keys = keys;
+        this.genesis = genesis;
+        this.txs = txs;
+    }
+
+    /** @return the key pairs of the fixture */
+    public KeyPair[] getKeys() {
+        return keys;
+    }
+
+    /** @return the transaction whose outputs make up the initial UTXO pool */
+    public Transaction getGenesis() {
+        return genesis;
+    }
+
+    /** @return the signed transactions, in generation order */
+    public Transaction[] getTxs() {
+        return txs;
+    }
+
+    /** @return a new UTXO pool of the outputs of the genesis transaction */
+    public UTXOPool getUTXOPool() {
+        UTXOPool utxoPool = new UTXOPool();
+        for (int index = 0; index < genesis.numOutputs(); index++)
+            utxoPool.addUTXO(new UTXO(genesis.getHash(), index), genesis.getOutput(index));
+        return utxoPool;
+    }
+
+    /** Writes this fixture to the file {@code path} */
+    public void write(Path path) throws IOException {
+        Map<PublicKey, Integer> ids = new HashMap<PublicKey, Integer>();
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(path), 1 << 16))) {
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeInt(keys.length);
+            for (int id = 0; id < keys.length; id++) {
+                ids.put(keys[id].getPublic(), id);
+                out.writeUTF(keys[id].getPublic().getAlgorithm());
+                writeBytes(out, keys[id].getPublic().getEncoded());
+                writeBytes(out, keys[id].getPrivate().getEncoded());
+            }
+            writeTx(out, genesis, ids);
+            out.writeInt(txs.length);
+            for (Transaction tx : txs)
+                writeTx(out, tx, ids);
+        }
+    }
+
+    /** @return the fixture read from the file {@code path} */
+    public static Fixture read(Path path) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), 1 << 16))) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION)
+                throw new IOException("Not a fixture of version " + VERSION + ": " + path);
+            KeyPair[] keys = new KeyPair[in.readInt()];
+            Map<String, KeyFactory> factories = new HashMap<String, KeyFactory>();
+            try {
+                for (int id = 0; id < keys.length; id++) {
+                    String algorithm = in.readUTF();
+                    KeyFactory factory = factories.get(algorithm);
+                    if (factory == null) {
+                        factory = KeyFactory.getInstance(algorithm);
+                        factories.put(algorithm, factory);
+                    }
+                    keys[id] = new KeyPair(factory.generatePublic(new X509EncodedKeySpec(readBytes(in))),
+                            factory.generatePrivate(new PKCS8EncodedKeySpec(readBytes(in))));
+                }
+            } catch (GeneralSecurityException e) {
+                throw new IOException("Invalid key in " + path, e);
+            }
+            Transaction genesis = readTx(in, keys);
+            Transaction[] txs = new Transaction[in.readInt()];
+            for (int i = 0; i < txs.length; i++)
+                txs[i] = readTx(in, keys);
+            return new Fixture(keys, genesis, txs);
+        }
+    }
+
+    private static void writeTx(DataOutputStream out, Transaction tx, Map<PublicKey, Integer> ids) throws IOException {
+        out.writeInt(tx.numInputs());
+        for (Transaction.Input input : tx.getInputs()) {
+            writeBytes(out, input.prevTxHash);
+            out.writeInt(input.outputIndex);
+            writeBytes(out, input.signature);
+        }
+        out.writeInt(tx.numOutputs());
+        for (Transaction.Output output : tx.getOutputs()) {
+            Integer id = ids.get(output.address);
+            if (id == null)
+                throw new IOException("Output address is not a key of the fixture");
+            out.writeDouble(output.value);
+            out.writeInt(id);
+        }
+    }
+
+    private static Transaction readTx(DataInputStream in, KeyPair[] keys) throws IOException {
+        Transaction tx = new Transaction();
+        int numInputs = in.readInt();
+        List<byte[]> signatures = new ArrayList<byte[]>(numInputs);
+        for (int index = 0; index < numInputs; index++) {
+            tx.addInput(readBytes(in), in.readInt());
+            signatures.add(readBytes(in));
+        }
+        int numOutputs = in.readInt();
+        for (int index = 0; index < numOutputs; index++) {
+            double value = in.readDouble();
+            tx.addOutput(value, keys[in.readInt()].getPublic());
+        }
+        for (int index = 0; index < numInputs; index++)
+            if (signatures.get(index) != null)
+                tx.addSignature(signatures.get(index), index);
+        tx.finalize();
+        return tx;
+    }
+
+    private static void writeBytes(DataOutputStream out, byte[] bytes) throws IOException {
+        out.writeInt(bytes == null ? -1 : bytes.length);
+        if (bytes != null)
+            out.write(bytes);
+    }
+
+    private static byte[] readBytes(DataInputStream in) throws IOException {
+        int length = in.readInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        in.readFully(bytes);
+        return bytes;
+    }
+}
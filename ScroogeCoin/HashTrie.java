@@ -0,0 +1,438 @@
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/**
+ * A hash array mapped trie: a hash map of 32-way branching nodes that can be snapshot in
+ * constant time. A snapshot shares all nodes with the trie it was taken of, and each trie
+ * copies only the nodes on the path to an entry it changes afterwards. Nodes are tagged with
+ * the edit token of the trie that copied them and are changed in place while that trie owns
+ * them, so that runs of writes without snapshots do not copy.
+ */
+class HashTrie<K, V> {
+
+    private static final int BITS = 5;
+    private static final int MASK = (1 << BITS) - 1;
+
+    /** Returned by lookups of keys not in the trie, as values may be null */
+    private static final Object ABSENT = new Object();
+
+    private Node root;
+    private int size;
+
+    /** Token of the nodes this trie may change in place */
+    private Object edit = new Object();
+
+    /** Creates a new empty trie */
+    HashTrie() {
+    }
+
+    private HashTrie(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    /** @return a trie with the entries of this one, in constant time */
+    HashTrie<K, V> snapshot() {
+        // Neither trie may change the shared nodes in place anymore
+        edit = new Object();
+        return new HashTrie<K, V>(root, size);
+    }
+
+    /** @return the root of the current version, to later diff against with {@link #diff} */
+    Object version() {
+        edit = new Object();
+        return root;
+    }
+
+    /** Replaces the entries of this trie by those of {@code other}, in constant time */
+    void assign(HashTrie<K, V> other) {
+        edit = new Object();
+        other.edit = new Object();
+        root = other.root;
+        size = other.size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean containsKey(K key) {
+        return root != null && root.find(0, hash(key), key) != ABSENT;
+    }
+
+    V get(K key) {
+        if (root == null)
+            return null;
+        Object value = root.find(0, hash(key), key);
+        return value == ABSENT ? null : cast(value);
+    }
+
+    void put(K key, V value) {
+        boolean[] added = new boolean[1];
+        if (root == null)
+            root = new BitmapNode(edit, 0, new Object[0]);
+        root = root.put(edit, 0, hash(key), key, value, added);
+        if (added[0])
+            size++;
+    }
+
+    void remove(K key) {
+        if (root == null)
+            return;
+        boolean[] removed = new boolean[1];
+        root = root.remove(edit, 0, hash(key), key, removed);
+        if (removed[0])
+            size--;
+    }
+
+    /** Calls {@code action} with each entry of the trie */
+    void forEach(BiConsumer<? super K, ? super V> action) {
+        if (root != null)
+            root.forEach((key, value) -> action.accept(cast(key), cast(value)));
+    }
+
+    /**
+     * @return an iterator over the entries of the trie; the trie must not change while iterated,
+     *         so iterate over a {@link #snapshot} of a trie that may
+     */
+    Iterator<Map.Entry<K, V>> iterator() {
+        return new Iterator<Map.Entry<K, V>>() {
+            // Arrays of the nodes on the path to the next entry, and the slot in each
+            private final ArrayDeque<Object[]> arrays = new ArrayDeque<Object[]>();
+            private final ArrayDeque<Integer> slots = new ArrayDeque<Integer>();
+            private Map.Entry<K, V> next;
+
+            {
+                if (root != null)
+                    push(root);
+                advance();
+            }
+
+            private void push(Node node) {
+                arrays.push(node instanceof BitmapNode ? ((BitmapNode) node).array : ((CollisionNode) node).array);
+                slots.push(0);
+            }
+
+            private void advance() {
+                next = null;
+                while (next == null && !arrays.isEmpty()) {
+                    Object[] array = arrays.peek();
+                    int slot = slots.pop();
+                    if (slot >= array.length) {
+                        arrays.pop();
+                        continue;
+                    }
+                    slots.push(slot + 2);
+                    if (array[slot] == null)
+                        push((Node) array[slot + 1]);
+                    else
+                        next = new AbstractMap.SimpleImmutableEntry<K, V>(cast(array[slot]), cast(array[slot + 1]));
+                }
+            }
+
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            public Map.Entry<K, V> next() {
+                if (next == null)
+                    throw new NoSuchElementException();
+                Map.Entry<K, V> entry = next;
+                advance();
+                return entry;
+            }
+        };
+    }
+
+    /**
+     * Calls {@code changed} with each entry added or replaced, and {@code removed} with each key
+     * removed, since {@code version} was taken by {@link #version} of this trie or one it was
+     * snapshot from. Runs in time proportional to the changed paths, as unchanged subtries are
+     * shared.
+     */
+    void diff(Object version, BiConsumer<? super K, ? super V> changed, BiConsumer<? super K, ? super V> removed) {
+        diff((Node) version, root, 0, changed, removed);
+    }
+
+    private void diff(Node before, Node after, int shift, BiConsumer<? super K, ? super V> changed,
+            BiConsumer<? super K, ? super V> removed) {
+        if (before == after)
+            return;
+        if (before instanceof BitmapNode && after instanceof BitmapNode) {
+            BitmapNode b = (BitmapNode) before, a = (BitmapNode) after;
+            for (int bits = b.bitmap | a.bitmap; bits != 0; bits &= bits - 1) {
+                int bit = bits & -bits;
+                Object[] entryBefore = b.entry(bit), entryAfter = a.entry(bit);
+                if (entryBefore != null && entryAfter != null && entryBefore[0] == null && entryAfter[0] == null)
+                    diff((Node) entryBefore[1], (Node) entryAfter[1], shift + BITS, changed, removed);
+                else
+                    diffEntries(entries(entryBefore), entries(entryAfter), changed, removed);
+            }
+            return;
+        }
+        diffEntries(entries(before), entries(after), changed, removed);
+    }
+
+    private void diffEntries(Map<Object, Object> before, Map<Object, Object> after,
+            BiConsumer<? super K, ? super V> changed, BiConsumer<? super K, ? super V> removed) {
+        for (Map.Entry<Object, Object> entry : after.entrySet())
+            if (!before.containsKey(entry.getKey()) || before.get(entry.getKey()) != entry.getValue())
+                changed.accept(cast(entry.getKey()), cast(entry.getValue()));
+        for (Map.Entry<Object, Object> entry : before.entrySet())
+            if (!after.containsKey(entry.getKey()))
+                removed.accept(cast(entry.getKey()), cast(entry.getValue()));
+    }
+
+    /** @return the entries of a key and value pair, or of the subtrie, in {@code entry} */
+    private static Map<Object, Object> entries(Object[] entry) {
+        if (entry == null)
+            return new HashMap<Object, Object>();
+        if (entry[0] == null)
+            return entries((Node) entry[1]);
+        Map<Object, Object> entries = new HashMap<Object, Object>();
+        entries.put(entry[0], entry[1]);
+        return entries;
+    }
+
+    private static Map<Object, Object> entries(Node node) {
+        Map<Object, Object> entries = new HashMap<Object, Object>();
+        if (node != null)
+            node.forEach(entries::put);
+        return entries;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> T cast(Object o) {
+        return (T) o;
+    }
+
+    /** Spreads the hash code of {@code key} over all bits used to index the levels */
+    private static int hash(Object key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return h ^ (h >>> 16);
+    }
+
+    private static abstract class Node {
+        final Object edit;
+
+        Node(Object edit) {
+            this.edit = edit;
+        }
+
+        /** @return the value of {@code key}, or {@link #ABSENT} if it is not in this subtrie */
+        abstract Object find(int shift, int hash, Object key);
+
+        abstract Node put(Object edit, int shift, int hash, Object key, Object value, boolean[] added);
+
+        /** @return this subtrie without {@code key}, or null if it became empty */
+        abstract Node remove(Object edit, int shift, int hash, Object key, boolean[] removed);
+
+        abstract void forEach(BiConsumer<Object, Object> action);
+    }
+
+    /**
+     * An inner node holding, for each bit set in its bitmap, a key and value pair or (with a null
+     * key) a subtrie in two consecutive array slots
+     */
+    private static class BitmapNode extends Node {
+        int bitmap;
+        Object[] array;
+
+        BitmapNode(Object edit, int bitmap, Object[] array) {
+            super(edit);
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int slot(int bit) {
+            return 2 * Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        /** @return the key and value (or null and subtrie) under {@code bit}, or null */
+        Object[] entry(int bit) {
+            if ((bitmap & bit) == 0)
+                return null;
+            int slot = slot(bit);
+            return new Object[] {array[slot], array[slot + 1]};
+        }
+
+        private BitmapNode editable(Object edit) {
+            return this.edit == edit ? this : new BitmapNode(edit, bitmap, array.clone());
+        }
+
+        Object find(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return ABSENT;
+            int slot = slot(bit);
+            Object k = array[slot];
+            if (k == null)
+                return ((Node) array[slot + 1]).find(shift + BITS, hash, key);
+            return key.equals(k) ? array[slot + 1] : ABSENT;
+        }
+
+        Node put(Object edit, int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            int slot = slot(bit);
+            if ((bitmap & bit) == 0) {
+                BitmapNode node = editable(edit);
+                Object[] array = new Object[node.array.length + 2];
+                System.arraycopy(node.array, 0, array, 0, slot);
+                array[slot] = key;
+                array[slot + 1] = value;
+                System.arraycopy(node.array, slot, array, slot + 2, node.array.length - slot);
+                node.array = array;
+                node.bitmap |= bit;
+                added[0] = true;
+                return node;
+            }
+            Object k = array[slot];
+            Object v = array[slot + 1];
+            Node child;
+            if (k == null) {
+                child = ((Node) v).put(edit, shift + BITS, hash, key, value, added);
+                if (child == v)
+                    return this;
+            } else if (key.equals(k)) {
+                if (v == value)
+                    return this;
+                BitmapNode node = editable(edit);
+                node.array[slot + 1] = value;
+                return node;
+            } else {
+                child = split(edit, shift + BITS, k, v, hash, key, value);
+                added[0] = true;
+            }
+            BitmapNode node = editable(edit);
+            node.array[slot] = null;
+            node.array[slot + 1] = child;
+            return node;
+        }
+
+        /** @return a subtrie holding both the pair of {@code k1} and that of {@code k2} */
+        private static Node split(Object edit, int shift, Object k1, Object v1, int hash2, Object k2, Object v2) {
+            int hash1 = hash(k1);
+            if (hash1 == hash2 || shift >= Integer.SIZE)
+                return new CollisionNode(edit, new Object[] {k1, v1, k2, v2});
+            boolean[] added = new boolean[1];
+            return new BitmapNode(edit, 0, new Object[0])
+                    .put(edit, shift, hash1, k1, v1, added)
+                    .put(edit, shift, hash2, k2, v2, added);
+        }
+
+        Node remove(Object edit, int shift, int hash, Object key, boolean[] removed) {
+            int bit = 1 << ((hash >>> shift) & MASK);
+            if ((bitmap & bit) == 0)
+                return this;
+            int slot = slot(bit);
+            Object k = array[slot];
+            Object v = array[slot + 1];
+            if (k == null) {
+                Node child = ((Node) v).remove(edit, shift + BITS, hash, key, removed);
+                if (child == v)
+                    return this;
+                if (child != null) {
+                    BitmapNode node = editable(edit);
+                    node.array[slot + 1] = child;
+                    return node;
+                }
+            } else if (!key.equals(k)) {
+                return this;
+            } else {
+                removed[0] = true;
+            }
+            if (bitmap == bit && shift > 0)
+                return null;
+            BitmapNode node = editable(edit);
+            Object[] array = new Object[node.array.length - 2];
+            System.arraycopy(node.array, 0, array, 0, slot);
+            System.arraycopy(node.array, slot + 2, array, slot, array.length - slot);
+            node.array = array;
+            node.bitmap &= ~bit;
+            return node;
+        }
+
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int slot = 0; slot < array.length; slot += 2) {
+                if (array[slot] == null)
+                    ((Node) array[slot + 1]).forEach(action);
+                else
+                    action.accept(array[slot], array[slot + 1]);
+            }
+        }
+    }
+
+    /** A leaf holding the pairs of keys whose spread hash codes are equal */
+    private static class CollisionNode extends Node {
+        Object[] array;
+
+        CollisionNode(Object edit, Object[] array) {
+            super(edit);
+            this.array = array;
+        }
+
+        private int slot(Object key) {
+            for (int slot = 0; slot < array.length; slot += 2)
+                if (key.equals(array[slot]))
+                    return slot;
+            return -1;
+        }
+
+        private CollisionNode editable(Object edit) {
+            return this.edit == edit ? this : new CollisionNode(edit, array.clone());
+        }
+
+        Object find(int shift, int hash, Object key) {
+            int slot = slot(key);
+            return slot < 0 ? ABSENT : array[slot + 1];
+        }
+
+        Node put(Object edit, int shift, int hash, Object key, Object value, boolean[] added) {
+            int slot = slot(key);
+            if (slot >= 0 && array[slot + 1] == value)
+                return this;
+            if (slot < 0 && hash != hash(array[0])) {
+                // Push this leaf one level down, next to the new pair
+                BitmapNode node = new BitmapNode(edit, 1 << ((hash(array[0]) >>> shift) & MASK),
+                        new Object[] {null, this});
+                return node.put(edit, shift, hash, key, value, added);
+            }
+            CollisionNode node = editable(edit);
+            if (slot >= 0) {
+                node.array[slot + 1] = value;
+            } else {
+                node.array = Arrays.copyOf(node.array, node.array.length + 2);
+                node.array[node.array.length - 2] = key;
+                node.array[node.array.length - 1] = value;
+                added[0] = true;
+            }
+            return node;
+        }
+
+        Node remove(Object edit, int shift, int hash, Object key, boolean[] removed) {
+            int slot = slot(key);
+            if (slot < 0)
+                return this;
+            removed[0] = true;
+            if (array.length == 2)
+                return null;
+            CollisionNode node = editable(edit);
+            Object[] array = new Object[node.array.length - 2];
+            System.arraycopy(node.array, 0, array, 0, slot);
+            System.arraycopy(node.array, slot + 2, array, slot, array.length - slot);
+            node.array = array;
+            return node;
+        }
+
+        void forEach(BiConsumer<Object, Object> action) {
+            for (int slot = 0; slot < array.length; slot += 2)
+                action.accept(array[slot], array[slot + 1]);
+        }
+    }
+}
@@ -0,0 +1,112 @@
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events of ScroogeCoin, enabled by default with thresholds so that a
+ * recording can stay on in production and only frequent operations that take unusually long are
+ * recorded. Each threshold can be changed by a settings file given to the recording, e.g., a
+ * {@code scroogecoin.jfc} of
+ * <pre>{@code
+ * <configuration version="2.0">
+ *   <event name="scroogecoin.SignatureVerification">
+ *     <setting name="threshold">0 ms</setting>
+ *   </event>
+ * </configuration>
+ * }</pre>
+ * applied over the default settings by
+ * {@code java -XX:StartFlightRecording:settings=default,settings=scroogecoin.jfc,filename=run.jfr}.
+ * While no recording is running, creating and committing an event does nothing.
+ */
+final class JfrEvents {
+
+    private JfrEvents() {
+    }
+
+    @Name("scroogecoin.Epoch")
+    @Label("Epoch")
+    @Category("ScroogeCoin")
+    @Description("An epoch of proposed transactions handled by TxHandler.handleTxs")
+    @Threshold("0 ms")
+    @StackTrace(false)
+    static final class Epoch extends Event {
+        @Label("Handler")
+        String handler;
+
+        @Label("Proposed Transactions")
+        int size;
+
+        @Label("Accepted Transactions")
+        int accepted;
+
+        @Label("Total Fee")
+        double feeTotal;
+    }
+
+    @Name("scroogecoin.TransactionValidation")
+    @Label("Transaction Validation")
+    @Category("ScroogeCoin")
+    @Description("A validation of one transaction by TxHandler.isValidTx")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class Validation extends Event {
+        @Label("Inputs")
+        int inputs;
+
+        @Label("Outputs")
+        int outputs;
+
+        @Label("Verdict")
+        String verdict;
+    }
+
+    @Name("scroogecoin.SignatureVerification")
+    @Label("Signature Verification")
+    @Category({"ScroogeCoin", "Crypto"})
+    @Description("A signature verified by Crypto.verifySignature")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class SignatureVerification extends Event {
+        @Label("Key Algorithm")
+        String keyAlgorithm;
+
+        @Label("Cached")
+        boolean cached;
+
+        @Label("Valid")
+        boolean valid;
+    }
+
+    @Name("scroogecoin.TransactionHash")
+    @Label("Transaction Hash")
+    @Category({"ScroogeCoin", "Crypto"})
+    @Description("The hashing of a raw transaction by Transaction.finalize")
+    @Threshold("1 ms")
+    @StackTrace(false)
+    static final class TransactionHash extends Event {
+        @Label("Raw Transaction Size")
+        @DataAmount
+        int rawTxBytes;
+    }
+
+    @Name("scroogecoin.UTXOPoolBulkOperation")
+    @Label("UTXO Pool Bulk Operation")
+    @Category("ScroogeCoin")
+    @Description("An operation on all UTXOs of a pool, e.g., a copy or getAllUTXO")
+    @Threshold("10 ms")
+    static final class PoolBulkOperation extends Event {
+        @Label("Operation")
+        String operation;
+
+        @Label("Pool Class")
+        String poolClass;
+
+        @Label("UTXOs")
+        int size;
+    }
+}
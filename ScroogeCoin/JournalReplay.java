@@ -0,0 +1,304 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.lang.reflect.Constructor;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Function;
+
+/**
+ * Replays an {@link EpochJournal} through a handler, as fast as possible or at the pace the
+ * epochs were recorded, reporting the throughput and latency of {@link TxHandler#handleTxs} and
+ * the epochs whose accepted transactions, or pool commitment, diverge from the recorded ones.
+ * The journal is read from a read-only memory mapping, remapped in windows of at most
+ * {@value #MAX_WINDOW} bytes so that journals larger than a byte buffer can be replayed.
+ */
+public class JournalReplay implements Closeable {
+
+    private static final int MAX_WINDOW = 1 << 30;
+
+    /** Owner of the outputs of the pool record, which are inner objects of a transaction */
+    private static final Transaction OWNER = new Transaction();
+
+    /** Outcome of a replay */
+    public static class Report {
+        private long epochs, txs, acceptedTxs, divergentEpochs, commitmentMismatches;
+        private long firstDivergentEpoch = -1;
+        private long handleNanos;
+        private final LatencyHistogram epochLatency = new LatencyHistogram();
+
+        /** @return the number of epochs replayed */
+        public long getEpochs() {
+            return epochs;
+        }
+
+        /** @return the number of proposed transactions replayed */
+        public long getTxs() {
+            return txs;
+        }
+
+        /** @return the number of transactions the handler accepted */
+        public long getAcceptedTxs() {
+            return acceptedTxs;
+        }
+
+        /** @return the number of epochs whose accepted transactions differ from the recorded ones */
+        public long getDivergentEpochs() {
+            return divergentEpochs;
+        }
+
+        /** @return the number of epochs after which the commitment of the pool differs from the recorded one */
+        public long getCommitmentMismatches() {
+            return commitmentMismatches;
+        }
+
+        /** @return the index of the first divergent epoch, or -1 if none diverged */
+        public long getFirstDivergentEpoch() {
+            return firstDivergentEpoch;
+        }
+
+        /** @return true iff no epoch diverged in its accepted transactions or commitment */
+        public boolean isConsistent() {
+            return divergentEpochs == 0 && commitmentMismatches == 0;
+        }
+
+        /** @return the proposed transactions handled per second, excluding decoding and pacing */
+        public double getThroughput() {
+            return handleNanos == 0 ? 0 : txs * 1e9 / handleNanos;
+        }
+
+        /** @return the latencies of the epochs, in ns */
+        public LatencyHistogram getEpochLatency() {
+            return epochLatency;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%d epochs, %d txs, %d accepted, %.0f tx/s, epoch latency %s, "
+                    + "%d divergent epochs (first %d), %d commitment mismatches", epochs, txs, acceptedTxs,
+                    getThroughput(), epochLatency.getSummary(), divergentEpochs, firstDivergentEpoch,
+                    commitmentMismatches);
+        }
+    }
+
+    private final FileChannel channel;
+    private final List<PublicKey> addresses = new ArrayList<PublicKey>();
+    private MappedByteBuffer window;
+    private long windowStart;
+
+    /** Opens the journal {@code path} for replay */
+    public JournalReplay(Path path) throws IOException {
+        channel = FileChannel.open(path, StandardOpenOption.READ);
+        map(0);
+        if (window.remaining() < 2 * Integer.BYTES || window.getInt() != EpochJournal.MAGIC
+                || window.getInt() != EpochJournal.VERSION)
+            throw new IOException("Not an epoch journal of version " + EpochJournal.VERSION + ": " + path);
+    }
+
+    private void map(long position) throws IOException {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position, Math.min(MAX_WINDOW, channel.size() - position));
+    }
+
+    /**
+     * @return the body of the next record, of the type in its first byte, or null at the end of
+     *         the journal or at a record torn by a crash
+     */
+    private ByteBuffer next() throws IOException {
+        long position = windowStart + window.position();
+        if (position + Byte.BYTES + Integer.BYTES > channel.size())
+            return null;
+        if (window.remaining() < Byte.BYTES + Integer.BYTES)
+            map(position);
+        int length = window.getInt(window.position() + Byte.BYTES);
+        long end = position + Byte.BYTES + Integer.BYTES + length;
+        if (length < 0 || end > channel.size())
+            return null;
+        if (end > windowStart + window.limit()) {
+            if (end - position > MAX_WINDOW)
+                throw new IOException("Journal record of " + length + " bytes");
+            map(position);
+        }
+        ByteBuffer record = window.slice(window.position(), Byte.BYTES + Integer.BYTES + length);
+        window.position(window.position() + Byte.BYTES + Integer.BYTES + length);
+        return record;
+    }
+
+    /**
+     * Replays the journal through the handler {@code handlers} creates on the recorded initial
+     * pool, which is a {@link CommittedUTXOPool} so that the recorded commitments are checked, and
+     * sleeps between epochs to keep their recorded pace if {@code paced}
+     */
+    public Report replay(Function<UTXOPool, TxHandler> handlers, boolean paced) throws IOException {
+        Report report = new Report();
+        TxHandler handler = null;
+        long start = System.nanoTime();
+        try {
+            for (ByteBuffer record; (record = next()) != null; ) {
+                byte type = record.get();
+                record.getInt();
+                switch (type) {
+                case EpochJournal.ADDRESS:
+                    int id = record.getInt();
+                    while (addresses.size() <= id)
+                        addresses.add(null);
+                    addresses.set(id, DurableUTXOPool.readAddress(record));
+                    break;
+                case EpochJournal.POOL:
+                    handler = handlers.apply(readPool(record));
+                    break;
+                case EpochJournal.EPOCH:
+                    if (handler == null)
+                        throw new IOException("Journal epoch before its pool");
+                    long offset = record.getLong();
+                    if (paced) {
+                        long delay = start + offset - System.nanoTime();
+                        if (delay > 0)
+                            LockSupport.parkNanos(delay);
+                    }
+                    replayEpoch(handler, record, report);
+                    break;
+                default:
+                    throw new IOException("Corrupt journal record of type " + type);
+                }
+            }
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt journal record", e);
+        }
+        return report;
+    }
+
+    private void replayEpoch(TxHandler handler, ByteBuffer record, Report report) {
+        Transaction[] possibleTxs = new Transaction[record.getInt()];
+        for (int i = 0; i < possibleTxs.length; i++)
+            possibleTxs[i] = readTx(record);
+        int[] recorded = new int[record.getInt()];
+        for (int i = 0; i < recorded.length; i++)
+            recorded[i] = record.getInt();
+        byte[] commitment = null;
+        if (record.get() != 0) {
+            commitment = new byte[32];
+            record.get(commitment);
+        }
+
+        long start = System.nanoTime();
+        Transaction[] acceptedTxs = handler.handleTxs(possibleTxs);
+        long nanos = System.nanoTime() - start;
+
+        Map<Transaction, Integer> indexes = new IdentityHashMap<Transaction, Integer>();
+        for (int i = 0; i < possibleTxs.length; i++)
+            indexes.put(possibleTxs[i], i);
+        int[] accepted = new int[acceptedTxs.length];
+        for (int i = 0; i < accepted.length; i++) {
+            Integer index = indexes.get(acceptedTxs[i]);
+            accepted[i] = index == null ? -1 : index;
+        }
+        Arrays.sort(accepted);
+        Arrays.sort(recorded);
+        if (!Arrays.equals(accepted, recorded)) {
+            if (report.firstDivergentEpoch < 0)
+                report.firstDivergentEpoch = report.epochs;
+            report.divergentEpochs++;
+        }
+        if (commitment != null && handler.utxoPool instanceof CommittedUTXOPool
+                && !Arrays.equals(commitment, ((CommittedUTXOPool) handler.utxoPool).getCommitment().getBytes()))
+            report.commitmentMismatches++;
+
+        report.epochs++;
+        report.txs += possibleTxs.length;
+        report.acceptedTxs += acceptedTxs.length;
+        report.handleNanos += nanos;
+        report.epochLatency.record(nanos);
+    }
+
+    private UTXOPool readPool(ByteBuffer record) {
+        UTXOPool utxoPool = new CommittedUTXOPool();
+        int size = record.getInt();
+        for (int i = 0; i < size; i++) {
+            UTXO utxo = new UTXO(readBytes(record), record.getInt());
+            double value = record.getDouble();
+            int id = record.getInt();
+            utxoPool.addUTXO(utxo, id == EpochJournal.NO_OUTPUT ? null : OWNER.new Output(value, address(id)));
+        }
+        return utxoPool;
+    }
+
+    private Transaction readTx(ByteBuffer record) {
+        Transaction tx = new Transaction();
+        byte[] hash = readBytes(record);
+        int numInputs = record.getInt();
+        byte[][] signatures = new byte[numInputs][];
+        for (int index = 0; index < numInputs; index++) {
+            tx.addInput(readBytes(record), record.getInt());
+            signatures[index] = readBytes(record);
+        }
+        int numOutputs = record.getInt();
+        for (int index = 0; index < numOutputs; index++) {
+            double value = record.getDouble();
+            int id = record.getInt();
+            if (id == EpochJournal.NO_OUTPUT)
+                tx.getOutputs().add(null);
+            else
+                tx.addOutput(value, address(id));
+        }
+        for (int index = 0; index < numInputs; index++)
+            if (signatures[index] != null)
+                tx.addSignature(signatures[index], index);
+        tx.setHash(hash);
+        return tx;
+    }
+
+    private PublicKey address(int id) {
+        return id == EpochJournal.NO_ADDRESS ? null : addresses.get(id);
+    }
+
+    private static byte[] readBytes(ByteBuffer record) {
+        int length = record.getInt();
+        if (length < 0)
+            return null;
+        byte[] bytes = new byte[length];
+        record.get(bytes);
+        return bytes;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+    }
+
+    /**
+     * Replays the journal {@code args[0]} through a handler of the class named {@code args[1]}, by
+     * default {@link TxHandler}, created by its {@code UTXOPool} constructor, at the recorded pace
+     * if {@code args[2]} is {@code paced}, and prints the report
+     */
+    public static void main(String[] args) throws Exception {
+        Path path = Paths.get(args[0]);
+        Class<? extends TxHandler> type = args.length > 1
+                ? Class.forName(args[1]).asSubclass(TxHandler.class) : TxHandler.class;
+        boolean paced = args.length > 2 && args[2].equals("paced");
+        Constructor<? extends TxHandler> constructor = type.getConstructor(UTXOPool.class);
+        try (JournalReplay replay = new JournalReplay(path)) {
+            Report report = replay.replay(utxoPool -> {
+                try {
+                    return constructor.newInstance(utxoPool);
+                } catch (ReflectiveOperationException e) {
+                    throw new IllegalArgumentException("Cannot create a " + type.getName(), e);
+                }
+            }, paced);
+            System.out.println(report);
+            if (!report.isConsistent())
+                System.exit(1);
+        }
+    }
+}
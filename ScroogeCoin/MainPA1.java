@@ -115,7 +115,9 @@ public class MainPA1 {
     final long seed = 42; // typically use: SecureRandom.generateSeed()
     final int bitLength = 1024;//4096; // 1024; 2048; 4096;
 
-    SecureRandom random = SecureRandom.getInstanceStrong(); // else: .getInstance("NativePRNG");
+    // Seeded before first use, SHA1PRNG is deterministic and never blocks on the entropy pool,
+    // unlike getInstanceStrong() (whose seed only supplements its own)
+    SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
     random.setSeed(seed); // alternatively, for self-seeding use random.nextBytes(randomBytes);
 
     keyGen = KeyPairGenerator.getInstance(keyAlg, new BouncyCastleProvider());
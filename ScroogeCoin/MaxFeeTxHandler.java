@@ -1,18 +1,30 @@
 import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.Comparator;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Set;
 
 public class MaxFeeTxHandler extends TxHandler {
 
-  private HashMap<Transaction, Double> validTxToFee = new HashMap<Transaction, Double>();
+  /** Valid transactions not yet accepted by {@link #handleTxs}, e.g., to propose in later epochs */
+  private Mempool mempool = new Mempool();
+
+  /** Template of the next block following the mempool, or null if none was requested */
+  private BlockTemplate template;
+
+  private FeeSelector selector = new FeeSelector();
+  private FeeSelector.Selection lastSelection;
 
 	public MaxFeeTxHandler(UTXOPool utxoPool) {
 		super(utxoPool);
 	}
 
+	public MaxFeeTxHandler(UTXOPool utxoPool, boolean shared) {
+		super(utxoPool, shared);
+	}
+
     /**
      * @return `true` iff:
      * (1) all outputs claimed by {@code tx} are in the current UTXO pool,
@@ -21,78 +33,142 @@ public class MaxFeeTxHandler extends TxHandler {
      * (4) all of {@code tx}s output values are non-negative, and
      * (5) the sum of {@code tx}s input values not less than the sum of its output values;
      * and early aborts with `false` otherwise.
+     * A valid transaction is added to the mempool with its fee, and so is one only missing inputs
+     * that are outputs of the mempool.
      */
     public boolean isValidTx(Transaction tx) {
-        // Using stateless, non-interfering stream operations (that do not modify source)
-        List<Transaction.Input> inputs = tx.getInputs();
-        List<Transaction.Output> outputs = tx.getOutputs();
-        int numInputs = inputs.size();
-
-        // (1) returns iff not all claimed utxo are in the current utxoPool
-        if (!inputs.stream().map(input -> new UTXO(input.prevTxHash, input.outputIndex))
-                .allMatch(utxo -> super.utxoPool.contains(utxo))) return false;
-
-        // (2) returns iff the signature of 1 input is invalid
-        boolean validInputIndexSignature;
-        for (int index = 0; index < numInputs; index++) {
-            validInputIndexSignature = super.validSignature(tx, index, inputs.get(index));
-            if (!validInputIndexSignature) return validInputIndexSignature;
-        }
-
-        // (3) returns iff an UTXO is claimed multiple times
-        if (inputs.stream()
-            .map(input -> new UTXO(input.prevTxHash, input.outputIndex))
-            .map(utxo -> utxo.hashCode())
-            .collect(Collectors.toSet()).size() != numInputs) return false;
-
-        // (4) returns iff an output value is negative
-        if (outputs.stream().anyMatch(output -> output.value < 0))
-            return false;
-
-        // (5) returns iff input value sum is less than the output value sum
-        double fee = inputs.stream()
-        .mapToDouble(input -> super.utxoPool.getTxOutput(new UTXO(input.prevTxHash, input.outputIndex)).value)
-        .sum();
-        fee -= outputs.stream().mapToDouble(output ->
-                {if (output == null) return 0.0; //else
-                  return output.value;
-                }).sum();
-        
-        if ( fee < 0 )
+        TxValidator.Verdict verdict = super.validate(tx);
+        if (verdict == TxValidator.Verdict.MISSING_INPUT)
+          keepChild(tx);
+        if (verdict != TxValidator.Verdict.VALID)
           return false;
-        else
-          validTxToFee.put(tx, fee);
-
-        // tx is valid otherwise
+        mempool.add(tx, validator.getFee());
         return true;
     }
 
+    /** Adds {@code tx}, which misses inputs, to the mempool if it is valid with the outputs of the mempool */
+    private void keepChild(Transaction tx) {
+      if (mempool.size() > 0
+          && validator.validate(tx, mempool.withOutputs(super.utxoPool)) == TxValidator.Verdict.VALID)
+        mempool.add(tx, validator.getFee());
+    }
+
     /**
      * Handles each epoch by receiving an unordered array of proposed transactions,
      * checking each transaction for correctness, returning a mutually valid array
      * of accepted transactions, and updating the current UTXO pool as appropriate.
+     * The accepted transactions are selected by {@link FeeSelector} to maximize their total fee,
+     * each following the transactions of the epoch whose outputs it claims. The accepted
+     * transactions leave the mempool, with the transactions conflicting with them, and those still
+     * valid against the updated UTXO pool but not selected enter it. The mempool is not proposed
+     * by itself: its transactions are considered again once passed to a later epoch with the new
+     * ones, e.g., those of {@link Mempool#getTxs} or of {@link #getBlockTemplate}.
      */
     public Transaction[] handleTxs(Transaction[] possibleTxs) {
-      // Filters validTxs and stores their fees, and updates UTXO
-      Arrays.stream(possibleTxs).filter(tx -> isValidTx(tx))
-      .peek(tx -> {super.removeTxFromUTXO(tx); super.addTxToUTXO(tx);});
-      //System.out.println("|validTxToFee| = " + validTxToFee.size());
-
-      // Compares fees of txs (stored in validTxToFee) and sorts in decreasing order
-      List<Transaction> txsSortedByFee = new ArrayList<Transaction>( validTxToFee.keySet() );
-      txsSortedByFee.sort(new Metric( txsSortedByFee ).reversed());
-      return txsSortedByFee.toArray(Transaction[]::new);
-    }
-
-    private class Metric implements Comparator<Transaction> {
-      private List<Transaction> txsSortedByComparisonMetric;
+      JfrEvents.Epoch event = new JfrEvents.Epoch();
+      event.begin();
+      long start = metrics == null ? 0 : System.nanoTime();
+      Transaction[] orderedTxs = EpochScheduler.order(possibleTxs);
+      TxPrecheck[] prechecks = precheck(orderedTxs);
+      lastSelection = selector.select(orderedTxs, prechecks, super.utxoPool);
 
-      public Metric(List<Transaction> txsSortedByFee) {
-          this.txsSortedByComparisonMetric = txsSortedByFee;
+      // Selected transactions whose inputs another handler sharing the pool spent meanwhile are
+      // dropped, and so are their children, whose inputs are then missing
+      Transaction[] selectedTxs = lastSelection.getTxs();
+      List<Transaction> committedTxs = new ArrayList<Transaction>(selectedTxs.length);
+      double fee = 0;
+      for (int index = 0; index < selectedTxs.length; index++) {
+        if (!super.removeTxFromUTXO(selectedTxs[index])) continue;
+        super.addTxToUTXO(selectedTxs[index]);
+        committedTxs.add(selectedTxs[index]);
+        fee += lastSelection.getFee(index);
       }
+      Transaction[] acceptedTxs = committedTxs.size() == selectedTxs.length
+          ? selectedTxs : committedTxs.toArray(Transaction[]::new);
+      mempool.removeConfirmed(acceptedTxs);
+      keepUnselected(prechecks, acceptedTxs);
+      if (metrics != null)
+        metrics.epochHandled(orderedTxs.length, acceptedTxs.length, System.nanoTime() - start);
+      super.commit(event, orderedTxs.length, acceptedTxs.length, fee);
+      return acceptedTxs;
+    }
 
-      public int compare(Transaction tx1, Transaction tx2) {
-          return validTxToFee.get(tx1).compareTo(validTxToFee.get(tx2));
+    /**
+     * Adds the transactions not selected but valid against the updated UTXO pool to the mempool,
+     * with their fee, and records the selected transactions as valid and the others with their
+     * verdict against that pool, e.g., {@code MISSING_INPUT} for those conflicting with a selected
+     * one. A transaction claiming an output of an unselected one is missing that input, and is
+     * kept as its child if valid with the outputs of the mempool, the prechecks following the
+     * order of {@link EpochScheduler#order}, parents first.
+     */
+    private void keepUnselected(TxPrecheck[] prechecks, Transaction[] acceptedTxs) {
+      Set<Transaction> accepted = Collections.newSetFromMap(new IdentityHashMap<Transaction, Boolean>());
+      accepted.addAll(Arrays.asList(acceptedTxs));
+      for (TxPrecheck precheck : prechecks) {
+        TxValidator.Verdict verdict = TxValidator.Verdict.VALID;
+        if (!accepted.contains(precheck.tx)) {
+          verdict = precheck.verdict(super.utxoPool);
+          if (verdict == TxValidator.Verdict.VALID) {
+            verdict = TxValidator.Verdict.NOT_SELECTED;
+            // An input resolved to another output than the pool's has no prechecked fee
+            if (precheck.isSound())
+              mempool.add(precheck.tx, precheck.fee());
+            else if (validator.validate(precheck.tx, super.utxoPool) == TxValidator.Verdict.VALID)
+              mempool.add(precheck.tx, validator.getFee());
+          } else if (verdict == TxValidator.Verdict.MISSING_INPUT) {
+            keepChild(precheck.tx);
+          }
+        }
+        if (metrics != null)
+          metrics.validated(precheck.tx, verdict, -1, -1);
       }
     }
+
+    /** Also measures the size of the mempool */
+    @Override
+    public void setMetrics(TxMetrics metrics) {
+      super.setMetrics(metrics);
+      if (metrics != null)
+        metrics.bind(() -> super.utxoPool.size(), () -> mempool.size());
+    }
+
+    /** @return the mempool of the valid transactions not yet accepted */
+    public Mempool getMempool() {
+      return mempool;
+    }
+
+    /**
+     * Replaces the mempool, e.g., to change its budget. The block template, if any, is closed and
+     * replaced by one of the same budget following the new mempool.
+     */
+    public void setMempool(Mempool mempool) {
+      this.mempool = mempool;
+      if (template != null)
+        setBlockTemplate(template.getMaxBytes());
+    }
+
+    /**
+     * Makes the handler keep a template of the next block of {@code maxBytes} raw transaction
+     * bytes from its mempool, replacing and closing the previous one
+     */
+    public void setBlockTemplate(long maxBytes) {
+      if (template != null)
+        template.close();
+      template = new BlockTemplate(mempool, maxBytes);
+    }
+
+    /** @return the template of the next block from the mempool, or null if none was set */
+    public BlockTemplate getBlockTemplate() {
+      return template;
+    }
+
+    /** Replaces the selector used by {@link #handleTxs}, e.g., to change its time budget */
+    public void setSelector(FeeSelector selector) {
+      this.selector = selector;
+    }
+
+    /** @return the selection of the last epoch, with its total fee and proven bound, or null */
+    public FeeSelector.Selection getLastSelection() {
+      return lastSelection;
+    }
 }
\ No newline at end of file
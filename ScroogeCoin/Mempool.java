@@ -0,0 +1,271 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeSet;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.function.LongSupplier;
+
+/**
+ * Valid transactions waiting to be confirmed, bounded in the total size of their raw
+ * transactions. A transaction may claim outputs of entries, its parents, once it is valid against
+ * the UTXO pool extended with those outputs, as by {@link #withOutputs}. Entries are indexed by their fee per byte, so that once over budget the cheapest
+ * one is evicted with its descendants, the entries spending its outputs; by arrival, so that
+ * entries older than the maximum age expire first; and by the outputs they claim, so that
+ * {@link #removeConfirmed} also removes the entries conflicting with confirmed transactions. Of
+ * two transactions claiming the same output, the first one added is kept.
+ */
+public class Mempool {
+
+    /** Default budget of the raw transactions kept */
+    public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+    /** Default age after which a transaction expires, of two weeks */
+    public static final long DEFAULT_MAX_AGE_NANOS = TimeUnit.DAYS.toNanos(14);
+
+    /** A transaction of the mempool and its links to the other entries */
+    private static class Entry {
+        final Transaction tx;
+        final ByteBuffer hash;
+        final int bytes;
+        final double fee;
+        final double feeRate;
+        final long arrival;
+        final long sequence;
+        /** Entries whose outputs this one claims, and entries claiming its outputs */
+        final List<Entry> parents = new ArrayList<Entry>(1);
+        final List<Entry> children = new ArrayList<Entry>(1);
+
+        Entry(Transaction tx, double fee, long arrival, long sequence) {
+            this.tx = tx;
+            this.hash = ByteBuffer.wrap(tx.getHash());
+            this.bytes = tx.getRawTxLength();
+            this.fee = fee;
+            this.feeRate = fee / bytes;
+            this.arrival = arrival;
+            this.sequence = sequence;
+        }
+    }
+
+    private static final Comparator<Entry> BY_FEE_RATE =
+            Comparator.<Entry>comparingDouble(entry -> entry.feeRate).thenComparingLong(entry -> entry.sequence);
+
+    private final long maxBytes;
+    private final long maxAgeNanos;
+    private final LongSupplier clock;
+
+    /** Entries by hash, oldest first */
+    private final LinkedHashMap<ByteBuffer, Entry> entries = new LinkedHashMap<ByteBuffer, Entry>();
+    /** Entries by fee per byte, cheapest first */
+    private final TreeSet<Entry> byFeeRate = new TreeSet<Entry>(BY_FEE_RATE);
+    /** Entries by each output they claim */
+    private final Map<UTXO, Entry> spenders = new HashMap<UTXO, Entry>();
+    private long bytes;
+    private long sequence;
+
+    /** Notified of each transaction added to, or removed from, the mempool, e.g., by a {@link BlockTemplate} */
+    private final List<Consumer<Transaction>> added = new ArrayList<Consumer<Transaction>>(0);
+    private final List<Consumer<Transaction>> removed = new ArrayList<Consumer<Transaction>>(0);
+
+    /** Creates a mempool of {@link #DEFAULT_MAX_BYTES} expiring transactions after {@link #DEFAULT_MAX_AGE_NANOS} */
+    public Mempool() {
+        this(DEFAULT_MAX_BYTES, DEFAULT_MAX_AGE_NANOS);
+    }
+
+    /** Creates a mempool of {@code maxBytes} raw transaction bytes expiring transactions after {@code maxAgeNanos} */
+    public Mempool(long maxBytes, long maxAgeNanos) {
+        this(maxBytes, maxAgeNanos, System::nanoTime);
+    }
+
+    /** Creates a mempool as {@link #Mempool(long, long)} measuring ages by {@code clock}, in ns */
+    public Mempool(long maxBytes, long maxAgeNanos, LongSupplier clock) {
+        this.maxBytes = maxBytes;
+        this.maxAgeNanos = maxAgeNanos;
+        this.clock = clock;
+    }
+
+    /**
+     * Adds {@code tx}, valid with a fee of {@code fee}, after expiring the entries older than the
+     * maximum age, then evicts the cheapest entries with their descendants until the mempool is
+     * within its budget
+     *
+     * @return true iff {@code tx} was added and not evicted, i.e., it is new, does not claim an
+     *         output claimed by an entry and is not among the cheapest
+     */
+    public boolean add(Transaction tx, double fee) {
+        expire();
+        if (tx.getHash() == null || entries.containsKey(ByteBuffer.wrap(tx.getHash())))
+            return false;
+        for (Transaction.Input input : tx.getInputs())
+            if (spenders.containsKey(new UTXO(input.prevTxHash, input.outputIndex)))
+                return false;
+
+        Entry entry = new Entry(tx, fee, clock.getAsLong(), sequence++);
+        if (entry.bytes > maxBytes)
+            return false;
+        for (Transaction.Input input : tx.getInputs()) {
+            spenders.put(new UTXO(input.prevTxHash, input.outputIndex), entry);
+            Entry parent = entries.get(ByteBuffer.wrap(input.prevTxHash));
+            if (parent != null && !entry.parents.contains(parent)) {
+                entry.parents.add(parent);
+                parent.children.add(entry);
+            }
+        }
+        entries.put(entry.hash, entry);
+        byFeeRate.add(entry);
+        bytes += entry.bytes;
+        for (Consumer<Transaction> listener : added)
+            listener.accept(tx);
+
+        while (bytes > maxBytes)
+            removeWithDescendants(byFeeRate.first());
+        return entries.get(entry.hash) == entry;
+    }
+
+    /** Removes the entries older than the maximum age, with their descendants */
+    public void expire() {
+        long now = clock.getAsLong();
+        while (!entries.isEmpty()) {
+            Entry oldest = entries.values().iterator().next();
+            if (now - oldest.arrival <= maxAgeNanos)
+                break;
+            removeWithDescendants(oldest);
+        }
+    }
+
+    /**
+     * Removes the transactions of {@code txs}, confirmed, e.g., accepted by a handler, and the
+     * entries claiming an output that one of them claims, with their descendants. The children of
+     * a confirmed entry are kept, their inputs now being in the UTXO pool.
+     */
+    public void removeConfirmed(Transaction[] txs) {
+        for (Transaction tx : txs) {
+            Entry confirmed = tx.getHash() == null ? null : entries.get(ByteBuffer.wrap(tx.getHash()));
+            for (Transaction.Input input : tx.getInputs()) {
+                Entry conflict = spenders.get(new UTXO(input.prevTxHash, input.outputIndex));
+                if (conflict != null && conflict != confirmed)
+                    removeWithDescendants(conflict);
+            }
+            if (confirmed != null)
+                remove(confirmed);
+        }
+    }
+
+    private void removeWithDescendants(Entry root) {
+        Deque<Entry> pending = new ArrayDeque<Entry>();
+        pending.push(root);
+        for (Entry entry; (entry = pending.poll()) != null; ) {
+            if (entries.get(entry.hash) != entry) continue;
+            for (Entry child : entry.children)
+                pending.push(child);
+            remove(entry);
+        }
+    }
+
+    private void remove(Entry entry) {
+        entries.remove(entry.hash);
+        byFeeRate.remove(entry);
+        bytes -= entry.bytes;
+        for (Transaction.Input input : entry.tx.getInputs())
+            spenders.remove(new UTXO(input.prevTxHash, input.outputIndex), entry);
+        for (Entry parent : entry.parents)
+            parent.children.remove(entry);
+        for (Entry child : entry.children)
+            child.parents.remove(entry);
+        for (Consumer<Transaction> listener : removed)
+            listener.accept(entry.tx);
+    }
+
+    /**
+     * @return a view of {@code utxoPool} also holding the outputs of the entries, e.g., to validate
+     *         children of entries by {@link TxValidator#validate}, which only reads it. The view
+     *         only answers {@link UTXOPool#getTxOutput} and {@link UTXOPool#contains}.
+     */
+    UTXOPool withOutputs(UTXOPool utxoPool) {
+        return new UTXOPool() {
+            @Override
+            public Transaction.Output getTxOutput(UTXO utxo) {
+                Transaction.Output txOut = utxoPool.getTxOutput(utxo);
+                return txOut != null ? txOut : getOutput(utxo);
+            }
+
+            @Override
+            public boolean contains(UTXO utxo) {
+                return getTxOutput(utxo) != null;
+            }
+        };
+    }
+
+    /** @return the output {@code utxo} of an entry, or null if there is none */
+    private Transaction.Output getOutput(UTXO utxo) {
+        Entry entry = entries.get(ByteBuffer.wrap(utxo.getTxHash()));
+        return entry == null || utxo.getIndex() < 0 ? null : entry.tx.getOutput(utxo.getIndex());
+    }
+
+    /** Also notifies {@code listener} of each transaction added, before the mempool is brought within its budget */
+    void onAdded(Consumer<Transaction> listener) {
+        added.add(listener);
+    }
+
+    /** Also notifies {@code listener} of each transaction removed, whether confirmed, conflicting, evicted or expired */
+    void onRemoved(Consumer<Transaction> listener) {
+        removed.add(listener);
+    }
+
+    /** Stops notifying {@code listener} of added and removed transactions */
+    void removeListener(Consumer<Transaction> listener) {
+        added.remove(listener);
+        removed.remove(listener);
+    }
+
+    /** @return true iff {@code tx} is in the mempool */
+    public boolean contains(Transaction tx) {
+        return tx.getHash() != null && entries.containsKey(ByteBuffer.wrap(tx.getHash()));
+    }
+
+    /** @return the fee of {@code tx}, or NaN if it is not in the mempool */
+    public double getFee(Transaction tx) {
+        Entry entry = tx.getHash() == null ? null : entries.get(ByteBuffer.wrap(tx.getHash()));
+        return entry == null ? Double.NaN : entry.fee;
+    }
+
+    /** @return the transactions of the mempool, highest fee per byte first, e.g., to propose them */
+    public Transaction[] getTxs() {
+        Transaction[] txs = new Transaction[entries.size()];
+        Iterator<Entry> highest = byFeeRate.descendingIterator();
+        for (int i = 0; i < txs.length; i++)
+            txs[i] = highest.next().tx;
+        return txs;
+    }
+
+    /** @return the transactions of the mempool, oldest first, hence each following the entries whose outputs it claims */
+    Transaction[] getTxsByArrival() {
+        Transaction[] txs = new Transaction[entries.size()];
+        int i = 0;
+        for (Entry entry : entries.values())
+            txs[i++] = entry.tx;
+        return txs;
+    }
+
+    /** @return the number of transactions of the mempool */
+    public int size() {
+        return entries.size();
+    }
+
+    /** @return the total size of the raw transactions of the mempool */
+    public long getBytes() {
+        return bytes;
+    }
+
+    /** @return the budget of the raw transactions of the mempool */
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+}
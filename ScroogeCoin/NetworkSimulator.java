@@ -0,0 +1,376 @@
+import java.nio.ByteBuffer;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.function.Function;
+
+/**
+ * Simulates a network of handler nodes, each with its own UTXO pool, exchanging the transactions
+ * of a {@link Fixture} over links of configurable latency, jitter, loss and bandwidth. The
+ * simulation is a discrete-event one in virtual time on the calling thread, so that a run only
+ * depends on the seed and configuration, and is as fast as the handlers are: no thread sleeps
+ * and no link is real. Transactions are submitted to random nodes at a configurable rate; each
+ * node proposes the transactions it received to its handler once per epoch, retries those not
+ * accepted for a few epochs, e.g., waiting for their parents, and relays the accepted ones to
+ * its peers. The report gives the convergence time of the pools, the latency of the propagation
+ * of each transaction to all nodes, the duplicate deliveries and validations, and the throughput
+ * of each node's handler, measured in real time.
+ *
+ * <p>Usage: {@code java NetworkSimulator fixture [nodeCounts [seed]]}, e.g., {@code 1,2,4,8,16}.
+ */
+public class NetworkSimulator {
+
+    /** Outcome of a simulation */
+    public static class Report {
+        private int nodes;
+        private int txs;
+        private long endNanos;
+        private long convergenceNanos = -1;
+        private long messages, lostMessages, duplicateDeliveries;
+        private long validations;
+        private final LatencyHistogram propagation = new LatencyHistogram();
+        private double[] nodeThroughput;
+
+        /** @return the number of simulated nodes */
+        public int getNodes() {
+            return nodes;
+        }
+
+        /** @return the virtual time when the last event happened, in ns */
+        public long getEndNanos() {
+            return endNanos;
+        }
+
+        /**
+         * @return the virtual time from the last submission until the last acceptance, after
+         *         which all pools are equal, in ns, or -1 if they differ at the end, e.g., as nodes
+         *         accepted conflicting transactions or messages were lost
+         */
+        public long getConvergenceNanos() {
+            return convergenceNanos;
+        }
+
+        /** @return the latencies from the submission of each transaction until all nodes accepted it, in virtual ns */
+        public LatencyHistogram getPropagation() {
+            return propagation;
+        }
+
+        /** @return the number of messages sent, including the lost ones */
+        public long getMessages() {
+            return messages;
+        }
+
+        /** @return the number of messages lost by links */
+        public long getLostMessages() {
+            return lostMessages;
+        }
+
+        /** @return the number of transactions delivered to a node that had already received them */
+        public long getDuplicateDeliveries() {
+            return duplicateDeliveries;
+        }
+
+        /**
+         * @return the number of transactions proposed to the handlers per transaction and node,
+         *         which is 1 if each node validated each transaction once
+         */
+        public double getValidationsPerTx() {
+            return txs == 0 || nodes == 0 ? 0 : (double) validations / txs / nodes;
+        }
+
+        /** @return the transactions proposed per second of each node's handler, in real time */
+        public double[] getNodeThroughput() {
+            return nodeThroughput.clone();
+        }
+
+        @Override
+        public String toString() {
+            double min = Double.MAX_VALUE, total = 0;
+            for (double throughput : nodeThroughput) {
+                min = Math.min(min, throughput);
+                total += throughput;
+            }
+            return String.format("%d nodes: converged in %.1f ms (-1 if not), propagation p50 %.1f ms p99 %.1f ms, "
+                    + "%d messages (%d lost, %d duplicates), %.2f validations/tx/node, "
+                    + "%.0f tx/s per node (min %.0f)", nodes, convergenceNanos < 0 ? -1 : convergenceNanos / 1e6,
+                    propagation.getValueAtPercentile(50) / 1e6, propagation.getValueAtPercentile(99) / 1e6, messages,
+                    lostMessages, duplicateDeliveries, getValidationsPerTx(), total / nodeThroughput.length,
+                    min == Double.MAX_VALUE ? 0 : min);
+        }
+    }
+
+    /**
+     * A transaction delivered to a node from another, or from a client if {@code from} is -1, or
+     * the next epoch of the node if {@code tx} is null
+     */
+    private static class Event implements Comparable<Event> {
+        final long time;
+        final long sequence;
+        final int node;
+        final int from;
+        final Transaction tx;
+
+        Event(long time, long sequence, int node, int from, Transaction tx) {
+            this.time = time;
+            this.sequence = sequence;
+            this.node = node;
+            this.from = from;
+            this.tx = tx;
+        }
+
+        public int compareTo(Event other) {
+            int order = Long.compare(time, other.time);
+            return order != 0 ? order : Long.compare(sequence, other.sequence);
+        }
+    }
+
+    /** A received transaction waiting to be accepted, the node it came from, and the epochs it was proposed in */
+    private static class Waiting {
+        final Transaction tx;
+        final int from;
+        int epochs;
+
+        Waiting(Transaction tx, int from) {
+            this.tx = tx;
+            this.from = from;
+        }
+    }
+
+    private static class Node {
+        final TxHandler handler;
+        final int[] peers;
+        /** Virtual time until which the link to each peer is busy sending */
+        final long[] busyUntil;
+        final Set<ByteBuffer> seen = new HashSet<ByteBuffer>();
+        final Map<ByteBuffer, Waiting> waiting = new LinkedHashMap<ByteBuffer, Waiting>();
+        long validations;
+        long handleNanos;
+
+        Node(TxHandler handler, int[] peers) {
+            this.handler = handler;
+            this.peers = peers;
+            this.busyUntil = new long[peers.length];
+        }
+    }
+
+    private final long seed;
+    private int degree = Integer.MAX_VALUE;
+    private long latencyNanos = 50_000_000;
+    private long jitterNanos = 10_000_000;
+    private double lossRate;
+    private long bytesPerSecond = 1_000_000;
+    private long epochNanos = 1_000_000_000;
+    private double txsPerSecond = 1000;
+    private int maxEpochs = 30;
+    private Function<UTXOPool, TxHandler> handlers = TxHandler::new;
+
+    private Random random;
+    private PriorityQueue<Event> events;
+    private long sequence;
+
+    /** Creates a simulator drawing topologies, submissions and link delays and losses from {@code seed} */
+    public NetworkSimulator(long seed) {
+        this.seed = seed;
+    }
+
+    /** Connects each node to at least {@code degree} random peers, along a ring; all of them by default */
+    public void setDegree(int degree) {
+        this.degree = degree;
+    }
+
+    /** Delays each message by {@code latencyNanos} plus a uniform jitter of up to {@code jitterNanos} */
+    public void setLatency(long latencyNanos, long jitterNanos) {
+        this.latencyNanos = latencyNanos;
+        this.jitterNanos = jitterNanos;
+    }
+
+    /** Makes links lose this fraction of messages, which are not resent */
+    public void setLossRate(double lossRate) {
+        this.lossRate = lossRate;
+    }
+
+    /** Makes each link send the raw transactions, one after the other, at {@code bytesPerSecond} */
+    public void setBandwidth(long bytesPerSecond) {
+        this.bytesPerSecond = bytesPerSecond;
+    }
+
+    /** Makes each node handle an epoch every {@code epochNanos}, at a random offset */
+    public void setEpoch(long epochNanos) {
+        this.epochNanos = epochNanos;
+    }
+
+    /** Submits the transactions of the fixture to random nodes at {@code txsPerSecond} */
+    public void setSubmissionRate(double txsPerSecond) {
+        this.txsPerSecond = txsPerSecond;
+    }
+
+    /** Drops a received transaction not accepted in {@code maxEpochs} epochs */
+    public void setMaxEpochs(int maxEpochs) {
+        this.maxEpochs = maxEpochs;
+    }
+
+    /** Creates the handler of each node by {@code handlers}, from its initial pool */
+    public void setHandlers(Function<UTXOPool, TxHandler> handlers) {
+        this.handlers = handlers;
+    }
+
+    /**
+     * Simulates {@code numNodes} nodes, at least one, starting from the pool of {@code fixture},
+     * until all transactions settled. The nodes converged if all pools are
+     * {@link CommittedUTXOPool}s of equal commitments.
+     */
+    public Report run(Fixture fixture, int numNodes) {
+        if (numNodes < 1)
+            throw new IllegalArgumentException("No nodes to simulate: " + numNodes);
+        random = new Random(seed);
+        events = new PriorityQueue<Event>();
+        sequence = 0;
+
+        UTXOPool genesisPool = new CommittedUTXOPool(fixture.getUTXOPool());
+        int[][] peers = topology(numNodes);
+        Node[] nodes = new Node[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            nodes[i] = new Node(handlers.apply(genesisPool.copy()), peers[i]);
+            schedule(Math.floorMod(random.nextLong(), epochNanos), i, -1, null);
+        }
+
+        Transaction[] txs = fixture.getTxs();
+        Map<ByteBuffer, long[]> submissions = new HashMap<ByteBuffer, long[]>();
+        long lastSubmission = 0;
+        for (int i = 0; i < txs.length; i++) {
+            lastSubmission = (long) (i * 1e9 / txsPerSecond);
+            submissions.putIfAbsent(ByteBuffer.wrap(txs[i].getHash()), new long[] {lastSubmission, 0});
+            schedule(lastSubmission, random.nextInt(numNodes), -1, txs[i]);
+        }
+
+        Report report = new Report();
+        report.nodes = numNodes;
+        report.txs = txs.length;
+        long deliveries = txs.length, lastAcceptance = 0;
+        for (Event event; (event = events.poll()) != null; ) {
+            long now = event.time;
+            report.endNanos = now;
+            Node node = nodes[event.node];
+            if (event.tx != null) {
+                deliveries--;
+                ByteBuffer hash = ByteBuffer.wrap(event.tx.getHash());
+                if (node.seen.add(hash))
+                    node.waiting.put(hash, new Waiting(event.tx, event.from));
+                else
+                    report.duplicateDeliveries++;
+                continue;
+            }
+
+            if (!node.waiting.isEmpty()) {
+                Transaction[] proposed = new Transaction[node.waiting.size()];
+                int n = 0;
+                for (Waiting w : node.waiting.values())
+                    proposed[n++] = w.tx;
+                long start = System.nanoTime();
+                Transaction[] accepted = node.handler.handleTxs(proposed);
+                node.handleNanos += System.nanoTime() - start;
+                node.validations += proposed.length;
+
+                for (Transaction tx : accepted) {
+                    ByteBuffer hash = ByteBuffer.wrap(tx.getHash());
+                    Waiting w = node.waiting.remove(hash);
+                    for (int link = 0; link < node.peers.length; link++)
+                        if (w == null || node.peers[link] != w.from)
+                            deliveries += send(node, link, event.node, tx, now, report);
+                    long[] submission = submissions.get(hash);
+                    if (submission != null && ++submission[1] == numNodes)
+                        report.propagation.record(now - submission[0]);
+                    lastAcceptance = now;
+                }
+                // Forgotten, so that the transaction is proposed again if relayed again
+                node.waiting.values().removeIf(w -> ++w.epochs >= maxEpochs && node.seen.remove(ByteBuffer.wrap(w.tx.getHash())));
+            }
+
+            boolean settled = now >= lastSubmission && deliveries == 0;
+            for (Node other : nodes)
+                settled &= other.waiting.isEmpty();
+            if (!settled)
+                schedule(now + epochNanos, event.node, -1, null);
+        }
+
+        // Handlers keeping pools of their own cannot be compared, so they are not converged
+        UTXOCommitment commitment = nodes[0].handler.utxoPool instanceof CommittedUTXOPool
+                ? ((CommittedUTXOPool) nodes[0].handler.utxoPool).getCommitment() : null;
+        boolean converged = commitment != null;
+        for (Node node : nodes)
+            converged &= node.handler.utxoPool instanceof CommittedUTXOPool
+                    && ((CommittedUTXOPool) node.handler.utxoPool).getCommitment().equals(commitment);
+        if (converged)
+            report.convergenceNanos = Math.max(0, lastAcceptance - lastSubmission);
+
+        report.nodeThroughput = new double[numNodes];
+        for (int i = 0; i < numNodes; i++) {
+            report.validations += nodes[i].validations;
+            report.nodeThroughput[i] = nodes[i].handleNanos == 0 ? 0 : nodes[i].validations * 1e9 / nodes[i].handleNanos;
+        }
+        return report;
+    }
+
+    /** @return the peers of each node: its neighbors on a ring, then random ones up to the degree */
+    private int[][] topology(int numNodes) {
+        List<Set<Integer>> links = new ArrayList<Set<Integer>>(numNodes);
+        for (int i = 0; i < numNodes; i++)
+            links.add(new TreeSet<Integer>());
+        int degree = Math.min(this.degree, numNodes - 1);
+        for (int i = 0; i < numNodes && numNodes > 1; i++) {
+            links.get(i).add((i + 1) % numNodes);
+            links.get((i + 1) % numNodes).add(i);
+        }
+        for (int i = 0; i < numNodes; i++) {
+            while (links.get(i).size() < degree) {
+                int peer = random.nextInt(numNodes);
+                if (peer == i) continue;
+                links.get(i).add(peer);
+                links.get(peer).add(i);
+            }
+        }
+        int[][] peers = new int[numNodes][];
+        for (int i = 0; i < numNodes; i++)
+            peers[i] = links.get(i).stream().mapToInt(Integer::intValue).toArray();
+        return peers;
+    }
+
+    /**
+     * Sends {@code tx} from {@code node}, of index {@code from}, over its link {@code link}, after
+     * the messages it is busy sending
+     *
+     * @return 1 if the message will be delivered, or 0 if it is lost
+     */
+    private int send(Node node, int link, int from, Transaction tx, long now, Report report) {
+        long start = Math.max(now, node.busyUntil[link]);
+        node.busyUntil[link] = start + (long) (tx.getRawTxLength() * 1e9 / bytesPerSecond);
+        report.messages++;
+        if (random.nextDouble() < lossRate) {
+            report.lostMessages++;
+            return 0;
+        }
+        long jitter = jitterNanos > 0 ? Math.floorMod(random.nextLong(), jitterNanos + 1) : 0;
+        schedule(node.busyUntil[link] + latencyNanos + jitter, node.peers[link], from, tx);
+        return 1;
+    }
+
+    private void schedule(long time, int node, int from, Transaction tx) {
+        events.add(new Event(time, sequence++, node, from, tx));
+    }
+
+    public static void main(String[] args) throws Exception {
+        Fixture fixture = Fixture.read(Paths.get(args[0]));
+        String[] nodeCounts = (args.length > 1 ? args[1] : "1,2,4,8,16").split(",");
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        for (String nodeCount : nodeCounts)
+            System.out.println(new NetworkSimulator(seed).run(fixture, Integer.parseInt(nodeCount)));
+    }
+}
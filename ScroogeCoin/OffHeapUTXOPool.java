@@ -0,0 +1,455 @@
+import java.nio.ByteBuffer;
+import java.security.PublicKey;
+import java.util.AbstractMap;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+/**
+ * A UTXOPool storing its UTXOs outside the Java heap, in an open-addressing hash table of
+ * fixed-width slots in direct byte buffers. Each slot holds the transaction hash (of at most
+ * {@value #MAX_HASH_LENGTH} bytes) and output index of a UTXO, the bits of its output value and
+ * the id of its address, whose public key is interned once on the heap. Interned addresses are
+ * reference counted by the UTXOs of the pool, and the id of an address no UTXO refers to anymore
+ * is reused, so that churning addresses do not grow the heap. Outputs are recreated on each
+ * lookup, so {@link #getTxOutput} returns equal but not identical outputs.
+ */
+public class OffHeapUTXOPool extends UTXOPool {
+
+    /** Longest transaction hash stored in a slot; UTXOs of longer hashes are kept on the heap */
+    public static final int MAX_HASH_LENGTH = 32;
+
+    /*
+     * Slot layout: state (1 byte), hash length (1), unused (2), output index (4), hash (32),
+     * value bits (8), address id (4), hash code of the UTXO (4).
+     */
+    private static final int STATE = 0, HASH_LENGTH = 1, INDEX = 4, HASH = 8, VALUE = 40, ADDRESS = 48, CODE = 52;
+    private static final int SLOT_SIZE = 56;
+
+    private static final byte EMPTY = 0, FULL = 1, FULL_NULL_OUTPUT = 2;
+
+    /** Address id of outputs without an address */
+    private static final int NO_ADDRESS = -1;
+
+    /** Slots per buffer, keeping each buffer well below the 2 GiB limit of a byte buffer */
+    private static final int MAX_CHUNK_SHIFT = 20;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final double MAX_LOAD = 0.75;
+
+    /** Owner of the recreated outputs, which are inner objects of a transaction */
+    private static final Transaction OWNER = new Transaction();
+
+    private ByteBuffer[] chunks;
+    private int chunkShift;
+    private int capacity;
+    private int size;
+
+    /** Interned addresses, indexed by their id, null for a free id */
+    private List<PublicKey> addresses;
+    private Map<PublicKey, Integer> addressIds;
+    /** Number of UTXOs referring to each address, indexed by its id */
+    private int[] references;
+    /** Ids of no address, reused first */
+    private ArrayDeque<Integer> freeIds;
+
+    /** UTXOs whose transaction hash does not fit into a slot */
+    private HashMap<UTXO, Transaction.Output> overflow;
+
+    /** Creates a new empty pool */
+    public OffHeapUTXOPool() {
+        this(MIN_CAPACITY);
+    }
+
+    /** Creates a new empty pool with room for {@code expectedSize} UTXOs before growing */
+    public OffHeapUTXOPool(int expectedSize) {
+        allocate(tableCapacity(expectedSize));
+        addresses = new ArrayList<PublicKey>();
+        addressIds = new HashMap<PublicKey, Integer>();
+        references = new int[0];
+        freeIds = new ArrayDeque<Integer>();
+        overflow = new HashMap<UTXO, Transaction.Output>();
+    }
+
+    /** Creates a new pool that is a copy of {@code uPool}, copying the table in bulk if off-heap */
+    public OffHeapUTXOPool(UTXOPool uPool) {
+        JfrEvents.PoolBulkOperation event = new JfrEvents.PoolBulkOperation();
+        event.begin();
+        if (!(uPool instanceof OffHeapUTXOPool)) {
+            ArrayList<UTXO> allUTXO = uPool.getAllUTXO();
+            allocate(tableCapacity(allUTXO.size()));
+            addresses = new ArrayList<PublicKey>();
+            addressIds = new HashMap<PublicKey, Integer>();
+            references = new int[0];
+            freeIds = new ArrayDeque<Integer>();
+            overflow = new HashMap<UTXO, Transaction.Output>();
+            for (UTXO ut : allUTXO)
+                addUTXO(ut, uPool.getTxOutput(ut));
+        } else {
+            OffHeapUTXOPool pool = (OffHeapUTXOPool) uPool;
+            allocate(pool.capacity);
+            for (int i = 0; i < chunks.length; i++)
+                chunks[i].put(0, pool.chunks[i], 0, pool.chunks[i].capacity());
+            size = pool.size;
+            addresses = new ArrayList<PublicKey>(pool.addresses);
+            addressIds = new HashMap<PublicKey, Integer>(pool.addressIds);
+            references = pool.references.clone();
+            freeIds = new ArrayDeque<Integer>(pool.freeIds);
+            overflow = new HashMap<UTXO, Transaction.Output>(pool.overflow);
+        }
+        commit(event, "copy", uPool);
+    }
+
+    /**
+     * Creates a pool over the table of {@code capacity} slots in {@code chunks} (of
+     * {@link #chunkBytes} bytes each), e.g., mapped from a file, holding {@code size} UTXOs whose
+     * address ids index {@code addresses}, null for a free id, referred to by {@code references}
+     * UTXOs each
+     */
+    OffHeapUTXOPool(ByteBuffer[] chunks, int capacity, int size, List<PublicKey> addresses, int[] references) {
+        this.chunks = chunks;
+        this.capacity = capacity;
+        this.chunkShift = chunkShift(capacity);
+        this.size = size;
+        this.addresses = new ArrayList<PublicKey>(addresses);
+        this.references = Arrays.copyOf(references, addresses.size());
+        addressIds = new HashMap<PublicKey, Integer>();
+        freeIds = new ArrayDeque<Integer>();
+        for (int id = 0; id < addresses.size(); id++) {
+            if (addresses.get(id) == null)
+                freeIds.add(id);
+            else
+                addressIds.put(addresses.get(id), id);
+        }
+        overflow = new HashMap<UTXO, Transaction.Output>();
+    }
+
+    public UTXOPool copy() {
+        return new OffHeapUTXOPool(this);
+    }
+
+    /** Adds a mapping from UTXO {@code utxo} to transaction output @code{txOut} to the pool */
+    public void addUTXO(UTXO utxo, Transaction.Output txOut) {
+        byte[] txHash = utxo.getTxHash();
+        // The new address is interned before the replaced one is released, which keeps its id if the same
+        int address = txOut == null ? NO_ADDRESS : intern(txOut.address);
+        if (txHash.length > MAX_HASH_LENGTH) {
+            Transaction.Output replaced = overflow.put(utxo, txOut);
+            if (replaced != null)
+                release(addressId(replaced.address));
+            return;
+        }
+        int code = code(txHash, utxo.getIndex());
+        int slot = find(txHash, utxo.getIndex(), code);
+        if (slot >= 0) {
+            release(addressId(slot));
+        } else {
+            if (size + 1 > capacity * MAX_LOAD) {
+                resize(capacity * 2);
+                slot = find(txHash, utxo.getIndex(), code);
+            }
+            slot = -slot - 1;
+            size++;
+        }
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        chunk.put(offset + STATE, txOut == null ? FULL_NULL_OUTPUT : FULL);
+        chunk.put(offset + HASH_LENGTH, (byte) txHash.length);
+        chunk.putInt(offset + INDEX, utxo.getIndex());
+        for (int i = 0; i < MAX_HASH_LENGTH; i++)
+            chunk.put(offset + HASH + i, i < txHash.length ? txHash[i] : 0);
+        chunk.putLong(offset + VALUE, txOut == null ? 0 : Double.doubleToRawLongBits(txOut.value));
+        chunk.putInt(offset + ADDRESS, address);
+        chunk.putInt(offset + CODE, code);
+    }
+
+    /** Removes the UTXO {@code utxo} from the pool */
+    public void removeUTXO(UTXO utxo) {
+        byte[] txHash = utxo.getTxHash();
+        if (txHash.length > MAX_HASH_LENGTH) {
+            Transaction.Output removed = overflow.remove(utxo);
+            if (removed != null)
+                release(addressId(removed.address));
+            return;
+        }
+        int slot = find(txHash, utxo.getIndex(), code(txHash, utxo.getIndex()));
+        if (slot < 0)
+            return;
+        release(addressId(slot));
+        size--;
+        // Backward shift deletion keeps every probe sequence free of gaps
+        int mask = capacity - 1;
+        int next = slot;
+        while (true) {
+            next = (next + 1) & mask;
+            ByteBuffer chunk = chunk(next);
+            if (chunk.get(offset(next) + STATE) == EMPTY)
+                break;
+            int home = home(chunk.getInt(offset(next) + CODE));
+            boolean movable = slot <= next ? (home <= slot || home > next) : (home <= slot && home > next);
+            if (movable) {
+                chunk(slot).put(offset(slot), chunk, offset(next), SLOT_SIZE);
+                slot = next;
+            }
+        }
+        chunk(slot).put(offset(slot) + STATE, EMPTY);
+    }
+
+    /**
+     * @return the transaction output corresponding to UTXO {@code utxo}, or null if {@code utxo} is
+     *         not in the pool.
+     */
+    public Transaction.Output getTxOutput(UTXO ut) {
+        byte[] txHash = ut.getTxHash();
+        if (txHash.length > MAX_HASH_LENGTH)
+            return overflow.get(ut);
+        int slot = find(txHash, ut.getIndex(), code(txHash, ut.getIndex()));
+        return slot < 0 ? null : output(slot);
+    }
+
+    /** @return true if UTXO {@code utxo} is in the pool and false otherwise */
+    public boolean contains(UTXO utxo) {
+        byte[] txHash = utxo.getTxHash();
+        if (txHash.length > MAX_HASH_LENGTH)
+            return overflow.containsKey(utxo);
+        return find(txHash, utxo.getIndex(), code(txHash, utxo.getIndex())) >= 0;
+    }
+
+    /** Returns an {@code ArrayList} of all UTXOs in the pool */
+    public ArrayList<UTXO> getAllUTXO() {
+        JfrEvents.PoolBulkOperation event = new JfrEvents.PoolBulkOperation();
+        event.begin();
+        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>(size + overflow.size());
+        for (int slot = 0; slot < capacity; slot++)
+            if (occupied(slot))
+                allUTXO.add(utxo(slot));
+        allUTXO.addAll(overflow.keySet());
+        commit(event, "getAllUTXO", this);
+        return allUTXO;
+    }
+
+    /**
+     * @return a stream of the UTXOs of the pool with their outputs, read from the table as the
+     *         stream is consumed; the pool must not change meanwhile
+     */
+    public Stream<Map.Entry<UTXO, Transaction.Output>> stream() {
+        return Stream.concat(IntStream.range(0, capacity).filter(this::occupied)
+                .mapToObj(slot -> new AbstractMap.SimpleImmutableEntry<UTXO, Transaction.Output>(utxo(slot), output(slot))),
+                overflow.entrySet().stream());
+    }
+
+    private boolean occupied(int slot) {
+        return chunk(slot).get(offset(slot) + STATE) != EMPTY;
+    }
+
+    private UTXO utxo(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        byte[] txHash = new byte[chunk.get(offset + HASH_LENGTH)];
+        chunk.get(offset + HASH, txHash);
+        return new UTXO(txHash, chunk.getInt(offset + INDEX));
+    }
+
+    /** @return the number of UTXOs in the pool */
+    public int size() {
+        return size + overflow.size();
+    }
+
+    /** @return the number of bytes allocated outside the heap for the table */
+    public long getOffHeapBytes() {
+        return (long) capacity * SLOT_SIZE;
+    }
+
+    /**
+     * @return the slot holding the UTXO with {@code txHash} and {@code index}, or
+     *         {@code -(slot + 1)} for the empty slot ending its probe sequence
+     */
+    private int find(byte[] txHash, int index, int code) {
+        int mask = capacity - 1;
+        for (int slot = home(code); ; slot = (slot + 1) & mask) {
+            ByteBuffer chunk = chunk(slot);
+            int offset = offset(slot);
+            if (chunk.get(offset + STATE) == EMPTY)
+                return -slot - 1;
+            if (chunk.getInt(offset + CODE) == code && chunk.getInt(offset + INDEX) == index
+                    && chunk.get(offset + HASH_LENGTH) == txHash.length && hashEquals(chunk, offset, txHash))
+                return slot;
+        }
+    }
+
+    private static boolean hashEquals(ByteBuffer chunk, int offset, byte[] txHash) {
+        for (int i = 0; i < txHash.length; i++)
+            if (chunk.get(offset + HASH + i) != txHash[i])
+                return false;
+        return true;
+    }
+
+    private Transaction.Output output(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        if (chunk.get(offset + STATE) == FULL_NULL_OUTPUT)
+            return null;
+        int address = chunk.getInt(offset + ADDRESS);
+        return OWNER.new Output(Double.longBitsToDouble(chunk.getLong(offset + VALUE)),
+                address == NO_ADDRESS ? null : addresses.get(address));
+    }
+
+    /** @return the id of the address of the output in {@code slot}, or {@link #NO_ADDRESS} if none */
+    private int addressId(int slot) {
+        ByteBuffer chunk = chunk(slot);
+        int offset = offset(slot);
+        return chunk.get(offset + STATE) == FULL_NULL_OUTPUT ? NO_ADDRESS : chunk.getInt(offset + ADDRESS);
+    }
+
+    /** @return the id of {@code address}, or {@link #NO_ADDRESS} if it is null or not interned */
+    int addressId(PublicKey address) {
+        Integer id = address == null ? null : addressIds.get(address);
+        return id == null ? NO_ADDRESS : id;
+    }
+
+    /** @return the id of {@code address}, interning it if new, referred to by one more UTXO */
+    private int intern(PublicKey address) {
+        if (address == null)
+            return NO_ADDRESS;
+        Integer id = addressIds.get(address);
+        if (id == null) {
+            id = freeIds.isEmpty() ? addresses.size() : freeIds.pop();
+            if (id == addresses.size()) {
+                addresses.add(address);
+                if (references.length <= id)
+                    references = Arrays.copyOf(references, Math.max(2 * references.length, MIN_CAPACITY));
+            } else {
+                addresses.set(id, address);
+            }
+            addressIds.put(address, id);
+        }
+        references[id]++;
+        return id;
+    }
+
+    /** Drops a reference to the address {@code id}, freeing the id once no UTXO refers to it */
+    private void release(int id) {
+        if (id == NO_ADDRESS || --references[id] > 0)
+            return;
+        addressIds.remove(addresses.get(id));
+        addresses.set(id, null);
+        freeIds.push(id);
+    }
+
+    /**
+     * @return the hash code of the UTXO of {@code txHash} and {@code index} kept in its slot, which
+     *         must not change with {@link UTXO#hashCode} as tables persist in checkpoints
+     */
+    private static int code(byte[] txHash, int index) {
+        int hash = 1;
+        hash = hash * 17 + index;
+        hash = hash * 31 + Arrays.hashCode(txHash);
+        return hash;
+    }
+
+    /** @return the first slot probed for a UTXO of hash code {@code code} */
+    private int home(int code) {
+        int h = code * 0x9E3779B9;
+        return (h ^ (h >>> 16)) & (capacity - 1);
+    }
+
+    private void resize(int newCapacity) {
+        ByteBuffer[] oldChunks = chunks;
+        int oldCapacity = capacity, oldChunkShift = chunkShift;
+        allocate(newCapacity);
+        int mask = capacity - 1;
+        for (int oldSlot = 0; oldSlot < oldCapacity; oldSlot++) {
+            ByteBuffer oldChunk = oldChunks[oldSlot >>> oldChunkShift];
+            int oldOffset = (oldSlot & ((1 << oldChunkShift) - 1)) * SLOT_SIZE;
+            if (oldChunk.get(oldOffset + STATE) == EMPTY) continue;
+            int slot = home(oldChunk.getInt(oldOffset + CODE));
+            while (chunk(slot).get(offset(slot) + STATE) != EMPTY)
+                slot = (slot + 1) & mask;
+            chunk(slot).put(offset(slot), oldChunk, oldOffset, SLOT_SIZE);
+        }
+    }
+
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        chunkShift = chunkShift(newCapacity);
+        chunks = new ByteBuffer[newCapacity >>> chunkShift];
+        for (int i = 0; i < chunks.length; i++)
+            chunks[i] = ByteBuffer.allocateDirect(chunkBytes(newCapacity));
+    }
+
+    private static int chunkShift(int capacity) {
+        return Math.min(Integer.numberOfTrailingZeros(capacity), MAX_CHUNK_SHIFT);
+    }
+
+    /** @return the size in bytes of a table of {@code capacity} slots */
+    static long tableBytes(int capacity) {
+        return (long) capacity * SLOT_SIZE;
+    }
+
+    /** @return the size in bytes of each buffer of a table of {@code capacity} slots */
+    static int chunkBytes(int capacity) {
+        return (1 << chunkShift(capacity)) * SLOT_SIZE;
+    }
+
+    /** @return the buffers holding the table, in slot order */
+    ByteBuffer[] chunks() {
+        return chunks;
+    }
+
+    /** @return the number of slots of the table */
+    int capacity() {
+        return capacity;
+    }
+
+    /** @return the interned addresses, indexed by their id, null for a free id */
+    List<PublicKey> addresses() {
+        return addresses;
+    }
+
+    /** @return the number of UTXOs referring to the address {@code id} */
+    int references(int id) {
+        return references[id];
+    }
+
+    /**
+     * Interns {@code address} under {@code id}, which must be free, without a reference, e.g., to
+     * restore the ids of a log before the UTXOs referring to it
+     */
+    void internAs(int id, PublicKey address) {
+        while (addresses.size() <= id) {
+            freeIds.add(addresses.size());
+            addresses.add(null);
+        }
+        if (references.length < addresses.size())
+            references = Arrays.copyOf(references, addresses.size());
+        freeIds.remove(id);
+        addresses.set(id, address);
+        addressIds.put(address, id);
+    }
+
+    /** @return the UTXOs kept on the heap as their transaction hash does not fit into a slot */
+    Map<UTXO, Transaction.Output> overflow() {
+        return overflow;
+    }
+
+    private static int tableCapacity(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * MAX_LOAD < expectedSize)
+            capacity *= 2;
+        return capacity;
+    }
+
+    private ByteBuffer chunk(int slot) {
+        return chunks[slot >>> chunkShift];
+    }
+
+    private int offset(int slot) {
+        return (slot & ((1 << chunkShift) - 1)) * SLOT_SIZE;
+    }
+}
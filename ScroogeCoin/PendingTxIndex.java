@@ -0,0 +1,231 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+
+/**
+ * Pending transactions kept across epochs, e.g., by a long-running node, with their verdicts
+ * against the UTXO pool of a handler. Each is prechecked once, keeping its signature verdicts,
+ * and indexed by the outputs it claims. When the handler spends or adds an output, only the
+ * transactions claiming it are rechecked: those claiming an output spent by another transaction
+ * are dropped as conflicting, with their descendants, and those claiming an added output are
+ * rechecked against the pool without verifying their signatures again. The cost of an epoch thus
+ * depends on the changes of the pool, not on the number of pending transactions.
+ *
+ * Transactions claiming outputs that never appear stay pending until {@link #remove}d. The index
+ * must see every change of the pool, so the handler must be its only writer.
+ */
+public class PendingTxIndex {
+
+    /** No outputs created in an epoch, as pending transactions are prechecked against the pool only */
+    private static final Map<UTXO, Transaction.Output> NONE_CREATED = Collections.emptyMap();
+
+    /** A pending transaction with its precheck and its verdict as of the last recheck */
+    private static class Pending {
+        final Transaction tx;
+        TxPrecheck precheck;
+        TxValidator.Verdict verdict;
+        boolean dirty;
+
+        Pending(Transaction tx, TxPrecheck precheck, TxValidator.Verdict verdict) {
+            this.tx = tx;
+            this.precheck = precheck;
+            this.verdict = verdict;
+        }
+    }
+
+    private final TxHandler handler;
+
+    /** Pending transactions by hash, oldest first */
+    private final Map<ByteBuffer, Pending> pending = new LinkedHashMap<ByteBuffer, Pending>();
+    /** Pending transactions by each output they claim */
+    private final Map<UTXO, List<Pending>> dependents = new HashMap<UTXO, List<Pending>>();
+    /** Pending transactions valid as of their last recheck, oldest first */
+    private final Set<Pending> valid = new LinkedHashSet<Pending>();
+    /** Pending transactions to recheck, as an output they claim was added */
+    private final Queue<Pending> dirty = new ArrayDeque<Pending>();
+
+    /** Creates an empty index of the transactions pending against the UTXO pool of {@code handler} */
+    public PendingTxIndex(TxHandler handler) {
+        this.handler = handler;
+        handler.onOutputsAdded(this::outputsAdded);
+        handler.onInputsSpent(this::inputsSpent);
+    }
+
+    /**
+     * Prechecks {@code tx} and keeps it pending if it is valid, or only misses outputs it claims,
+     * e.g., of another pending transaction
+     *
+     * @return the verdict of {@code tx} against the current pool
+     */
+    public TxValidator.Verdict add(Transaction tx) {
+        if (tx.getHash() == null)
+            return handler.validate(tx);
+        Pending existing = pending.get(ByteBuffer.wrap(tx.getHash()));
+        if (existing != null) {
+            refresh();
+            return existing.verdict;
+        }
+
+        TxPrecheck precheck = TxPrecheck.of(tx, handler.utxoPool, NONE_CREATED, handler.metrics);
+        TxValidator.Verdict verdict = precheck.verdict(handler.utxoPool);
+        if (verdict != TxValidator.Verdict.VALID && verdict != TxValidator.Verdict.MISSING_INPUT)
+            return verdict;
+        Pending entry = new Pending(tx, precheck, verdict);
+        pending.put(ByteBuffer.wrap(tx.getHash()), entry);
+        for (Transaction.Input input : tx.getInputs())
+            dependents.computeIfAbsent(new UTXO(input.prevTxHash, input.outputIndex), u -> new ArrayList<Pending>(1))
+                    .add(entry);
+        if (verdict == TxValidator.Verdict.VALID)
+            valid.add(entry);
+        return verdict;
+    }
+
+    /** Removes {@code tx} from the pending transactions, if pending */
+    public void remove(Transaction tx) {
+        Pending entry = tx.getHash() == null ? null : pending.get(ByteBuffer.wrap(tx.getHash()));
+        if (entry != null)
+            remove(entry);
+    }
+
+    /** @return the pending transactions valid against the current pool, oldest first */
+    public Transaction[] getValidTxs() {
+        refresh();
+        Transaction[] txs = new Transaction[valid.size()];
+        int i = 0;
+        for (Pending entry : valid)
+            txs[i++] = entry.tx;
+        return txs;
+    }
+
+    /**
+     * Accepts the valid pending transactions, and then those made valid by them, as an epoch of
+     * {@link TxHandler#handleTxs}, in the order of {@link EpochScheduler#order}, without verifying
+     * their signatures again
+     *
+     * @return the accepted transactions, each following those whose outputs it claims
+     */
+    public Transaction[] handleValidTxs() {
+        JfrEvents.Epoch event = new JfrEvents.Epoch();
+        event.begin();
+        long start = System.nanoTime();
+        int proposed = pending.size();
+        List<Transaction> acceptedTxs = new ArrayList<Transaction>();
+        double fees = 0;
+        for (Transaction[] round; (round = getValidTxs()).length > 0; ) {
+            for (Transaction tx : EpochScheduler.order(round)) {
+                // Dropped if an accepted transaction claimed one of its outputs
+                Pending entry = pending.get(ByteBuffer.wrap(tx.getHash()));
+                if (entry == null) continue;
+                if (entry.precheck.verdict(handler.utxoPool) != TxValidator.Verdict.VALID
+                        || !handler.removeTxFromUTXO(tx)) {
+                    markDirty(entry);
+                    continue;
+                }
+                fees += entry.precheck.fee();
+                handler.addTxToUTXO(tx);
+                acceptedTxs.add(tx);
+            }
+        }
+        if (handler.metrics != null)
+            handler.metrics.epochHandled(proposed, acceptedTxs.size(), System.nanoTime() - start);
+        handler.commit(event, proposed, acceptedTxs.size(), fees);
+        return acceptedTxs.toArray(Transaction[]::new);
+    }
+
+    /** @return the number of pending transactions */
+    public int size() {
+        return pending.size();
+    }
+
+    /** Marks the transactions claiming outputs of {@code tx} to be rechecked */
+    private void outputsAdded(Transaction tx) {
+        for (int index = 0; index < tx.numOutputs(); index++) {
+            List<Pending> claiming = dependents.get(new UTXO(tx.getHash(), index));
+            if (claiming != null)
+                for (Pending entry : claiming)
+                    markDirty(entry);
+        }
+    }
+
+    /** Removes {@code tx} if pending, and drops the transactions conflicting with it */
+    private void inputsSpent(Transaction tx) {
+        Pending self = tx.getHash() == null ? null : pending.get(ByteBuffer.wrap(tx.getHash()));
+        if (self != null)
+            remove(self);
+        for (Transaction.Input input : tx.getInputs()) {
+            List<Pending> claiming = dependents.get(new UTXO(input.prevTxHash, input.outputIndex));
+            if (claiming != null)
+                for (Pending conflict : new ArrayList<Pending>(claiming))
+                    drop(conflict);
+        }
+    }
+
+    private void markDirty(Pending entry) {
+        if (!entry.dirty) {
+            entry.dirty = true;
+            dirty.add(entry);
+        }
+    }
+
+    /** Rechecks the transactions claiming outputs added since, dropping those invalid for good */
+    private void refresh() {
+        UTXOPool utxoPool = handler.utxoPool;
+        for (Pending entry; (entry = dirty.poll()) != null; ) {
+            entry.dirty = false;
+            if (pending.get(ByteBuffer.wrap(entry.tx.getHash())) != entry) continue;
+            // Verify the signatures of inputs unresolved at the precheck once, now they are resolved
+            if (!entry.precheck.isSound() && claimsPresent(entry.tx, utxoPool))
+                entry.precheck = TxPrecheck.of(entry.tx, utxoPool, NONE_CREATED, handler.metrics);
+            entry.verdict = entry.precheck.verdict(utxoPool);
+            if (entry.verdict == TxValidator.Verdict.VALID)
+                valid.add(entry);
+            else if (entry.verdict == TxValidator.Verdict.MISSING_INPUT)
+                valid.remove(entry);
+            else
+                drop(entry);
+        }
+    }
+
+    private static boolean claimsPresent(Transaction tx, UTXOPool utxoPool) {
+        for (Transaction.Input input : tx.getInputs())
+            if (!utxoPool.contains(new UTXO(input.prevTxHash, input.outputIndex)))
+                return false;
+        return true;
+    }
+
+    /** Removes {@code root} and the pending transactions claiming its outputs, recursively */
+    private void drop(Pending root) {
+        Queue<Pending> dropped = new ArrayDeque<Pending>();
+        dropped.add(root);
+        for (Pending entry; (entry = dropped.poll()) != null; ) {
+            if (pending.get(ByteBuffer.wrap(entry.tx.getHash())) != entry) continue;
+            remove(entry);
+            for (int index = 0; index < entry.tx.numOutputs(); index++) {
+                List<Pending> claiming = dependents.get(new UTXO(entry.tx.getHash(), index));
+                if (claiming != null)
+                    dropped.addAll(claiming);
+            }
+        }
+    }
+
+    private void remove(Pending entry) {
+        pending.remove(ByteBuffer.wrap(entry.tx.getHash()));
+        valid.remove(entry);
+        for (Transaction.Input input : entry.tx.getInputs()) {
+            UTXO utxo = new UTXO(input.prevTxHash, input.outputIndex);
+            List<Pending> claiming = dependents.get(utxo);
+            if (claiming == null) continue;
+            claiming.remove(entry);
+            if (claiming.isEmpty())
+                dependents.remove(utxo);
+        }
+    }
+}
@@ -0,0 +1,158 @@
+import java.security.InvalidKeyException;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.security.Signature;
+import java.security.SignatureException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A signature algorithm used to verify the signatures of inputs, selected by the algorithm of
+ * the public key in the address of the claimed output. Each thread reuses one {@link Signature}
+ * instance per scheme. Signatures may also be verified together by {@link #verifyAll}, which
+ * schemes with a batch equation, such as {@link #ED25519}, answer faster than one by one.
+ */
+public class SignatureScheme {
+
+    /** RSA with SHA-256, as used by the original ScroogeCoin */
+    public static final SignatureScheme RSA = new SignatureScheme("SHA256withRSA");
+
+    /** ECDSA with SHA-256 and DER encoded signatures */
+    public static final SignatureScheme ECDSA = new SignatureScheme("SHA256withECDSA");
+
+    /** EdDSA over Curve25519 */
+    public static final SignatureScheme ED25519 = new Ed25519Scheme();
+
+    /** Scheme of each key algorithm, as named by {@link PublicKey#getAlgorithm} */
+    private static final Map<String, SignatureScheme> BY_KEY_ALGORITHM = new ConcurrentHashMap<String, SignatureScheme>();
+
+    static {
+        register("RSA", RSA);
+        register("EC", ECDSA);
+        register("ECDSA", ECDSA);
+        register("EdDSA", ED25519);
+        register("Ed25519", ED25519);
+    }
+
+    /** A signature to be verified as part of a batch */
+    public static final class Check {
+        final PublicKey pubKey;
+        final byte[] message;
+        final byte[] signature;
+
+        /** Creates the check of {@code signature} of {@code message} under {@code pubKey} */
+        public Check(PublicKey pubKey, byte[] message, byte[] signature) {
+            this.pubKey = pubKey;
+            this.message = message;
+            this.signature = signature;
+        }
+
+        /** @return the check of the signature of input {@code index} of {@code tx}, claiming {@code txOut} */
+        public static Check ofInput(Transaction tx, int index, Transaction.Output txOut) {
+            return new Check(txOut.address, tx.getRawDataToSign(index), tx.getInput(index).signature);
+        }
+    }
+
+    private final String algorithm;
+    private final ThreadLocal<Signature> signature;
+
+    /** Creates a scheme verifying with the {@link Signature} algorithm {@code algorithm} */
+    public SignatureScheme(String algorithm) {
+        this.algorithm = algorithm;
+        this.signature = ThreadLocal.withInitial(this::newSignature);
+    }
+
+    /** Verifies signatures under public keys of algorithm {@code keyAlgorithm} by {@code scheme} */
+    public static void register(String keyAlgorithm, SignatureScheme scheme) {
+        BY_KEY_ALGORITHM.put(keyAlgorithm, scheme);
+    }
+
+    /** @return the scheme verifying signatures under {@code pubKey}, or null if there is none */
+    public static SignatureScheme of(PublicKey pubKey) {
+        return BY_KEY_ALGORITHM.get(pubKey.getAlgorithm());
+    }
+
+    /** @return the name of the {@link Signature} algorithm of this scheme */
+    public String getAlgorithm() {
+        return algorithm;
+    }
+
+    /**
+     * @return true iff {@code signature} is a valid signature of {@code message} under
+     *         {@code pubKey} in this scheme
+     */
+    public boolean verify(PublicKey pubKey, byte[] message, byte[] signature) {
+        Signature sig = this.signature.get();
+        try {
+            sig.initVerify(pubKey);
+        } catch (InvalidKeyException e) {
+            // The provider of this thread's instance may not accept keys of another provider
+            sig = newSignature();
+            try {
+                sig.initVerify(pubKey);
+            } catch (InvalidKeyException x) {
+                x.printStackTrace();
+                return false;
+            }
+        }
+        try {
+            sig.update(message);
+            return sig.verify(signature);
+        } catch (SignatureException e) {
+            e.printStackTrace();
+        }
+        return false;
+    }
+
+    /**
+     * Verifies the signatures of {@code checks}, each by the scheme of its key, and those of a
+     * scheme together where it has a batch equation. Checks without a signature or a scheme are
+     * invalid.
+     *
+     * @return the indices in {@code checks} of the invalid signatures
+     */
+    public static BitSet verifyAll(List<Check> checks) {
+        BitSet invalid = new BitSet(checks.size());
+        Map<SignatureScheme, List<Integer>> byScheme = new LinkedHashMap<SignatureScheme, List<Integer>>();
+        for (int i = 0; i < checks.size(); i++) {
+            Check check = checks.get(i);
+            SignatureScheme scheme = check.pubKey == null || check.message == null || check.signature == null
+                    ? null : of(check.pubKey);
+            if (scheme == null)
+                invalid.set(i);
+            else
+                byScheme.computeIfAbsent(scheme, s -> new ArrayList<Integer>()).add(i);
+        }
+        for (Map.Entry<SignatureScheme, List<Integer>> entry : byScheme.entrySet())
+            entry.getKey().verifyBatch(checks, entry.getValue(), invalid);
+        return invalid;
+    }
+
+    /**
+     * Sets in {@code invalid} the {@code indices} of the checks, all in this scheme, whose
+     * signatures are invalid. This implementation verifies them one by one.
+     */
+    protected void verifyBatch(List<Check> checks, List<Integer> indices, BitSet invalid) {
+        for (int i : indices) {
+            Check check = checks.get(i);
+            if (!verify(check.pubKey, check.message, check.signature))
+                invalid.set(i);
+        }
+    }
+
+    private Signature newSignature() {
+        try {
+            return Signature.getInstance(algorithm);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    public String toString() {
+        return algorithm;
+    }
+}
@@ -28,6 +28,7 @@ public class Transaction {
                 signature = null;
             else
                 signature = Arrays.copyOf(sig, sig.length);
+            invalidate();
         }
     }
 
@@ -48,29 +49,50 @@ public class Transaction {
     private ArrayList<Input> inputs;
     private ArrayList<Output> outputs;
 
+    /**
+     * Encodings cached until the transaction is changed by its methods (or those of its inputs);
+     * writing the public fields of an input or output directly does not invalidate them.
+     * The encoded outputs are shared by the raw transaction and the data to sign of each input.
+     */
+    private volatile byte[] rawOutputs;
+    private volatile byte[] rawTx;
+    private volatile byte[] rawTxDigest;
+
     public Transaction() {
         inputs = new ArrayList<Input>();
         outputs = new ArrayList<Output>();
     }
 
+    /**
+     * Creates a copy of {@code tx} with inputs of its own, so that signing an input of the copy
+     * invalidates the encodings of the copy; outputs, which never invalidate them, are shared
+     */
     public Transaction(Transaction tx) {
         hash = tx.hash.clone();
-        inputs = new ArrayList<Input>(tx.inputs);
+        inputs = new ArrayList<Input>(tx.inputs.size());
+        for (Input in : tx.inputs) {
+            Input copy = new Input(in.prevTxHash, in.outputIndex);
+            copy.signature = in.signature == null ? null : in.signature.clone();
+            inputs.add(copy);
+        }
         outputs = new ArrayList<Output>(tx.outputs);
     }
 
     public void addInput(byte[] prevTxHash, int outputIndex) {
         Input in = new Input(prevTxHash, outputIndex);
         inputs.add(in);
+        invalidate();
     }
 
     public void addOutput(double value, PublicKey address) {
         Output op = new Output(value, address);
         outputs.add(op);
+        invalidate();
     }
 
     public void removeInput(int index) {
         inputs.remove(index);
+        invalidate();
     }
 
     public void removeInput(UTXO ut) {
@@ -79,42 +101,62 @@ public class Transaction {
             UTXO u = new UTXO(in.prevTxHash, in.outputIndex);
             if (u.equals(ut)) {
                 inputs.remove(i);
+                invalidate();
                 return;
             }
         }
     }
 
+    /** Drops the cached encodings after a change of the transaction */
+    private void invalidate() {
+        rawOutputs = null;
+        rawTx = null;
+        rawTxDigest = null;
+    }
+
+    /** @return the value and address of each output, encoded once until the outputs change */
+    private byte[] rawOutputs() {
+        byte[] raw = rawOutputs;
+        if (raw != null)
+            return raw;
+        byte[][] addresses = new byte[outputs.size()][];
+        int length = 0;
+        for (int i = 0; i < addresses.length; i++) {
+            addresses[i] = outputs.get(i).address.getEncoded();
+            length += Double.BYTES + addresses[i].length;
+        }
+        ByteBuffer b = ByteBuffer.allocate(length);
+        for (int i = 0; i < addresses.length; i++)
+            b.putDouble(outputs.get(i).value).put(addresses[i]);
+        rawOutputs = raw = b.array();
+        return raw;
+    }
+
+    /** @return the length of {@link #getRawDataToSign} for input {@code index} */
+    public int getRawDataToSignLength(int index) {
+        byte[] prevTxHash = inputs.get(index).prevTxHash;
+        return (prevTxHash == null ? 0 : prevTxHash.length) + Integer.BYTES + rawOutputs().length;
+    }
+
+    /**
+     * Writes the data to sign of input {@code index} ({@link #getRawDataToSign}) into
+     * {@code buffer}, which needs {@link #getRawDataToSignLength} bytes remaining, so that a
+     * buffer can be reused across inputs and transactions
+     */
+    public void writeRawDataToSign(int index, ByteBuffer buffer) {
+        Input in = inputs.get(index);
+        if (in.prevTxHash != null)
+            buffer.put(in.prevTxHash);
+        buffer.putInt(in.outputIndex).put(rawOutputs());
+    }
+
     public byte[] getRawDataToSign(int index) {
         // ith input and all outputs
-        ArrayList<Byte> sigData = new ArrayList<Byte>();
         if (index > inputs.size())
             return null;
-        Input in = inputs.get(index);
-        byte[] prevTxHash = in.prevTxHash;
-        ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-        b.putInt(in.outputIndex);
-        byte[] outputIndex = b.array();
-        if (prevTxHash != null)
-            for (int i = 0; i < prevTxHash.length; i++)
-                sigData.add(prevTxHash[i]);
-        for (int i = 0; i < outputIndex.length; i++)
-            sigData.add(outputIndex[i]);
-        for (Output op : outputs) {
-            ByteBuffer bo = ByteBuffer.allocate(Double.SIZE / 8);
-            bo.putDouble(op.value);
-            byte[] value = bo.array();
-            byte[] addressBytes = op.address.getEncoded();
-            for (int i = 0; i < value.length; i++)
-                sigData.add(value[i]);
-
-            for (int i = 0; i < addressBytes.length; i++)
-                sigData.add(addressBytes[i]);
-        }
-        byte[] sigD = new byte[sigData.size()];
-        int i = 0;
-        for (Byte sb : sigData)
-            sigD[i++] = sb;
-        return sigD;
+        ByteBuffer sigData = ByteBuffer.allocate(getRawDataToSignLength(index));
+        writeRawDataToSign(index, sigData);
+        return sigData.array();
     }
 
     public void addSignature(byte[] signature, int index) {
@@ -122,50 +164,64 @@ public class Transaction {
     }
 
     public byte[] getRawTx() {
-        ArrayList<Byte> rawTx = new ArrayList<Byte>();
+        return rawTx().clone();
+    }
+
+    /** @return the length of {@link #getRawTx}, without copying it, e.g., to budget block space */
+    public int getRawTxLength() {
+        return rawTx().length;
+    }
+
+    /** @return the encoding of all inputs and outputs, cached until the transaction changes */
+    private byte[] rawTx() {
+        byte[] raw = rawTx;
+        if (raw != null)
+            return raw;
+        byte[] rawOutputs = rawOutputs();
+        int length = rawOutputs.length;
         for (Input in : inputs) {
-            byte[] prevTxHash = in.prevTxHash;
-            ByteBuffer b = ByteBuffer.allocate(Integer.SIZE / 8);
-            b.putInt(in.outputIndex);
-            byte[] outputIndex = b.array();
-            byte[] signature = in.signature;
-            if (prevTxHash != null)
-                for (int i = 0; i < prevTxHash.length; i++)
-                    rawTx.add(prevTxHash[i]);
-            for (int i = 0; i < outputIndex.length; i++)
-                rawTx.add(outputIndex[i]);
-            if (signature != null)
-                for (int i = 0; i < signature.length; i++)
-                    rawTx.add(signature[i]);
+            length += Integer.BYTES;
+            if (in.prevTxHash != null)
+                length += in.prevTxHash.length;
+            if (in.signature != null)
+                length += in.signature.length;
         }
-        for (Output op : outputs) {
-            ByteBuffer b = ByteBuffer.allocate(Double.SIZE / 8);
-            b.putDouble(op.value);
-            byte[] value = b.array();
-            byte[] addressBytes = op.address.getEncoded();
-            for (int i = 0; i < value.length; i++) {
-                rawTx.add(value[i]);
-            }
-            for (int i = 0; i < addressBytes.length; i++) {
-                rawTx.add(addressBytes[i]);
-            }
-
+        ByteBuffer b = ByteBuffer.allocate(length);
+        for (Input in : inputs) {
+            if (in.prevTxHash != null)
+                b.put(in.prevTxHash);
+            b.putInt(in.outputIndex);
+            if (in.signature != null)
+                b.put(in.signature);
         }
-        byte[] tx = new byte[rawTx.size()];
-        int i = 0;
-        for (Byte b : rawTx)
-            tx[i++] = b;
-        return tx;
+        b.put(rawOutputs);
+        rawTx = raw = b.array();
+        return raw;
     }
 
+    /** Computes the hash of the transaction; overrides Object.finalize by the name of the assignment's API */
+    @SuppressWarnings("deprecation")
     public void finalize() {
-        try {
-            MessageDigest md = MessageDigest.getInstance("SHA-256");
-            md.update(getRawTx());
-            hash = md.digest();
-        } catch (NoSuchAlgorithmException x) {
-            x.printStackTrace(System.err);
+        byte[] digest = rawTxDigest;
+        if (digest == null) {
+            JfrEvents.TransactionHash event = new JfrEvents.TransactionHash();
+            event.begin();
+            byte[] raw = rawTx();
+            try {
+                MessageDigest md = MessageDigest.getInstance("SHA-256");
+                md.update(raw);
+                rawTxDigest = digest = md.digest();
+            } catch (NoSuchAlgorithmException x) {
+                x.printStackTrace(System.err);
+                return;
+            }
+            event.end();
+            if (event.shouldCommit()) {
+                event.rawTxBytes = raw.length;
+                event.commit();
+            }
         }
+        hash = digest.clone();
     }
 
     public void setHash(byte[] h) {
@@ -0,0 +1,213 @@
+import java.math.BigInteger;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Generates reproducible graphs of signed transactions from a seed: a genesis transaction, built
+ * as in {@code MainPA1.ScroogeCoinGenesis}, pays the initial outputs to the generated keys, and
+ * each following transaction spends random unspent outputs, as in {@code MainPA1.transferAmount}.
+ * The number of inputs and outputs per transaction, the depth of the chains of transactions
+ * spending each other's outputs, the rates of double-spends and invalid signatures and the fees
+ * are configurable. The same seed and configuration give the same fixture.
+ *
+ * <p>Usage: {@code java TxGraphGenerator file [numTxs [seed]]} writes a {@link Fixture}.
+ */
+public class TxGraphGenerator {
+
+    /** Initial value of each genesis output */
+    public static final double GENESIS_OUTPUT_VALUE = 100;
+
+    private final long seed;
+    private String keyAlgorithm = "RSA";
+    private int keySize = 1024;
+    private int numKeys = 16;
+    private int numGenesisOutputs = 1000;
+    private int maxFanIn = 3;
+    private int maxFanOut = 3;
+    private int maxChainDepth = 8;
+    private double doubleSpendRate = 0.01;
+    private double invalidSignatureRate = 0.01;
+    private double meanFeeRate = 0.01;
+
+    /** Creates a generator of transaction graphs drawn from {@code seed} */
+    public TxGraphGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * Generates {@code numKeys} keys of {@code algorithm} ("RSA", "EC" or "Ed25519") and
+     * {@code keySize} bits (255 for Ed25519)
+     */
+    public void setKeys(int numKeys, String algorithm, int keySize) {
+        this.numKeys = numKeys;
+        this.keyAlgorithm = algorithm;
+        this.keySize = keySize;
+    }
+
+    /** Sets the number of outputs of the genesis transaction, the initial UTXOs */
+    public void setGenesisOutputs(int numGenesisOutputs) {
+        this.numGenesisOutputs = numGenesisOutputs;
+    }
+
+    /** Draws the numbers of inputs and outputs of each transaction uniformly from 1 to the maxima */
+    public void setFanInOut(int maxFanIn, int maxFanOut) {
+        this.maxFanIn = maxFanIn;
+        this.maxFanOut = maxFanOut;
+    }
+
+    /** Ends the chains of transactions spending each other's outputs after {@code maxChainDepth} */
+    public void setMaxChainDepth(int maxChainDepth) {
+        this.maxChainDepth = maxChainDepth;
+    }
+
+    /** Makes this fraction of inputs claim an output already claimed by another transaction */
+    public void setDoubleSpendRate(double doubleSpendRate) {
+        this.doubleSpendRate = doubleSpendRate;
+    }
+
+    /** Makes this fraction of inputs be signed by another key than the owner of the output */
+    public void setInvalidSignatureRate(double invalidSignatureRate) {
+        this.invalidSignatureRate = invalidSignatureRate;
+    }
+
+    /** Draws the fee of each transaction as an exponentially distributed fraction of its inputs */
+    public void setMeanFeeRate(double meanFeeRate) {
+        this.meanFeeRate = meanFeeRate;
+    }
+
+    /** An output that may be claimed, with its owner and the length of its chain from genesis */
+    private static class Spendable {
+        final byte[] txHash;
+        final int index;
+        final double value;
+        final int owner;
+        final int depth;
+
+        Spendable(byte[] txHash, int index, double value, int owner, int depth) {
+            this.txHash = txHash;
+            this.index = index;
+            this.value = value;
+            this.owner = owner;
+            this.depth = depth;
+        }
+    }
+
+    /** @return a fixture of {@code numTxs} transactions, fewer if all outputs got spent */
+    public Fixture generate(int numTxs) throws GeneralSecurityException {
+        Random random = new Random(seed);
+        KeyPair[] keys = generateKeys();
+        // Randomized signatures, e.g., the nonces of ECDSA, are drawn from a seeded stream too
+        SecureRandom signing = seededRandom(~seed);
+
+        // As MainPA1.ScroogeCoinGenesis, with one output per initial UTXO
+        Transaction genesis = new Transaction();
+        genesis.addInput(BigInteger.valueOf(1234566654321L).toByteArray(), 0);
+        List<Spendable> unspent = new ArrayList<Spendable>();
+        int[] genesisOwners = new int[numGenesisOutputs];
+        for (int index = 0; index < numGenesisOutputs; index++) {
+            genesisOwners[index] = random.nextInt(numKeys);
+            genesis.addOutput(GENESIS_OUTPUT_VALUE, keys[genesisOwners[index]].getPublic());
+        }
+        genesis.addSignature(sign(keys[0], genesis.getRawDataToSign(0), signing), 0);
+        genesis.finalize();
+        for (int index = 0; index < numGenesisOutputs; index++)
+            unspent.add(new Spendable(genesis.getHash(), index, GENESIS_OUTPUT_VALUE, genesisOwners[index], 0));
+
+        List<Spendable> spent = new ArrayList<Spendable>();
+        List<Transaction> txs = new ArrayList<Transaction>(numTxs);
+        while (txs.size() < numTxs && !unspent.isEmpty()) {
+            Transaction tx = new Transaction();
+            List<Spendable> claims = new ArrayList<Spendable>();
+            int fanIn = 1 + random.nextInt(maxFanIn);
+            double value = 0;
+            int depth = 0;
+            for (int i = 0; i < fanIn && !unspent.isEmpty(); i++) {
+                Spendable claim;
+                if (!spent.isEmpty() && random.nextDouble() < doubleSpendRate) {
+                    claim = spent.get(random.nextInt(spent.size()));
+                } else {
+                    // Swap-remove keeps drawing from the unspent outputs O(1)
+                    int j = random.nextInt(unspent.size());
+                    Collections.swap(unspent, j, unspent.size() - 1);
+                    claim = unspent.remove(unspent.size() - 1);
+                    spent.add(claim);
+                }
+                if (claims.contains(claim)) continue;
+                claims.add(claim);
+                tx.addInput(claim.txHash, claim.index);
+                value += claim.value;
+                depth = Math.max(depth, claim.depth + 1);
+            }
+
+            double fee = value * Math.min(1, -meanFeeRate * Math.log(1 - random.nextDouble()));
+            int fanOut = 1 + random.nextInt(maxFanOut);
+            int[] owners = new int[fanOut];
+            for (int index = 0; index < fanOut; index++) {
+                owners[index] = random.nextInt(numKeys);
+                tx.addOutput((value - fee) / fanOut, keys[owners[index]].getPublic());
+            }
+
+            // As MainPA1.transferAmount, each input signed by the owner of its claimed output
+            for (int index = 0; index < claims.size(); index++) {
+                int signer = claims.get(index).owner;
+                if (numKeys > 1 && random.nextDouble() < invalidSignatureRate)
+                    signer = (signer + 1 + random.nextInt(numKeys - 1)) % numKeys;
+                tx.addSignature(sign(keys[signer], tx.getRawDataToSign(index), signing), index);
+            }
+            tx.finalize();
+            txs.add(tx);
+
+            if (depth < maxChainDepth)
+                for (int index = 0; index < fanOut; index++)
+                    unspent.add(new Spendable(tx.getHash(), index, tx.getOutput(index).value, owners[index], depth));
+        }
+        return new Fixture(keys, genesis, txs.toArray(new Transaction[0]));
+    }
+
+    private KeyPair[] generateKeys() throws GeneralSecurityException {
+        KeyPairGenerator keyGen = KeyPairGenerator.getInstance(keyAlgorithm);
+        keyGen.initialize(keySize, seededRandom(seed));
+        KeyPair[] keys = new KeyPair[numKeys];
+        for (int id = 0; id < numKeys; id++)
+            keys[id] = keyGen.generateKeyPair();
+        return keys;
+    }
+
+    /** @return a generator of the random bytes of {@code seed} */
+    private static SecureRandom seededRandom(long seed) throws GeneralSecurityException {
+        // A seeded SHA1PRNG is deterministic and, unlike getInstanceStrong, never blocks
+        SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+        random.setSeed(seed);
+        return random;
+    }
+
+    /** Signs {@code message} with the scheme of {@code signer}'s key algorithm, drawing from {@code random} */
+    private static byte[] sign(KeyPair signer, byte[] message, SecureRandom random) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance(SignatureScheme.of(signer.getPublic()).getAlgorithm());
+        signature.initSign(signer.getPrivate(), random);
+        signature.update(message);
+        return signature.sign();
+    }
+
+    public static void main(String[] args) throws Exception {
+        Path path = Paths.get(args[0]);
+        int numTxs = args.length > 1 ? Integer.parseInt(args[1]) : 10000;
+        long seed = args.length > 2 ? Long.parseLong(args[2]) : 42;
+        long start = System.nanoTime();
+        TxGraphGenerator generator = new TxGraphGenerator(seed);
+        generator.setGenesisOutputs(Math.max(1000, numTxs / 2));
+        Fixture fixture = generator.generate(numTxs);
+        fixture.write(path);
+        System.out.printf("Wrote %d transactions to %s in %d ms%n", fixture.getTxs().length, path,
+                (System.nanoTime() - start) / 1000000);
+    }
+}
@@ -1,20 +1,49 @@
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
-import java.util.stream.Collectors;
+import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.function.Consumer;
 
 public class TxHandler {
 
   protected UTXOPool utxoPool;
 
+    /** Runs the stateless validation of each epoch in parallel, or null to validate sequentially */
+    private ForkJoinPool parallelism;
+
+    /** Checks the rules of {@link #isValidTx}; reused across transactions */
+    protected final TxValidator validator = new TxValidator();
+
+    /** Counts verdicts and latencies, or null if not instrumented */
+    protected TxMetrics metrics;
+
+    /** Notified of each transaction whose outputs {@link #addTxToUTXO} added, or null */
+    private Consumer<Transaction> outputsAdded;
+
+    /** Notified of each transaction whose claimed outputs {@link #removeTxFromUTXO} spent, or null */
+    private Consumer<Transaction> inputsSpent;
+
     /**
      * Creates a public ledger whose current UTXOPool (collection of unspent
      * transaction outputs) is {@code utxoPool}. This should make a copy of utxoPool
-     * by using the UTXOPool(UTXOPool uPool) constructor.
+     * by using the UTXOPool(UTXOPool uPool) constructor, through {@link UTXOPool#copy} so that
+     * the copy keeps the implementation of {@code utxoPool}.
      */
     public TxHandler(UTXOPool utxoPool) {
-        this.utxoPool = new UTXOPool(utxoPool);
+        this.utxoPool = utxoPool.copy();
+    }
+
+    /**
+     * Creates a public ledger whose current UTXOPool is {@code utxoPool} itself if
+     * {@code shared}, e.g., a {@link DurableUTXOPool} that must see every update, or a copy of it
+     * otherwise.
+     */
+    public TxHandler(UTXOPool utxoPool, boolean shared) {
+        this.utxoPool = shared ? utxoPool : utxoPool.copy();
     }
 
     /**
@@ -27,56 +56,126 @@ public class TxHandler {
      * and early aborts with `false` otherwise.
      */
     public boolean isValidTx(Transaction tx) {
-        // Using stateless, non-interfering stream operations (that do not modify source)
-        List<Transaction.Input> inputs = tx.getInputs();
-        List<Transaction.Output> outputs = tx.getOutputs();
-        int numInputs = inputs.size();
-
-        // (1) returns iff not all claimed utxo are in the current utxoPool
-        if (!inputs.stream().map(input -> new UTXO(input.prevTxHash, input.outputIndex))
-                .allMatch(utxo -> utxoPool.contains(utxo))) return false;
+        return validate(tx) == TxValidator.Verdict.VALID;
+    }
 
-        // (2) returns iff the signature of 1 input is invalid
-        boolean validInputIndexSignature;
-        for (int index = 0; index < numInputs; index++) {
-            validInputIndexSignature = validSignature(tx, index, inputs.get(index));
-            if (!validInputIndexSignature) return validInputIndexSignature;
+    /**
+     * @return the verdict of {@link #isValidTx} for {@code tx}, naming the rule it violates, as
+     *         found by a single pass of {@link TxValidator} over its inputs and outputs
+     */
+    public TxValidator.Verdict validate(Transaction tx) {
+        JfrEvents.Validation event = new JfrEvents.Validation();
+        event.begin();
+        long start = metrics == null ? 0 : System.nanoTime();
+        TxValidator.Verdict verdict = validator.validate(tx, utxoPool);
+        if (metrics != null)
+            metrics.validated(tx, verdict, validator.getInputIndex(), System.nanoTime() - start);
+        event.end();
+        if (event.shouldCommit()) {
+            event.inputs = tx.numInputs();
+            event.outputs = tx.numOutputs();
+            event.verdict = verdict.name();
+            event.commit();
         }
+        return verdict;
+    }
 
-        // (3) returns iff an UTXO is claimed multiple times
-        if (inputs.stream()
-            .map(input -> new UTXO(input.prevTxHash, input.outputIndex))
-            .map(utxo -> utxo.hashCode())
-            .collect(Collectors.toSet()).size() != numInputs) return false;
-
-        // (4) returns iff an output value is negative
-        if (outputs.stream().anyMatch(output -> output.value < 0))
-            return false;
-
-        // (5) returns iff input value sum is less than the output value sum
-        if (inputs.stream()
-            .mapToDouble(input -> utxoPool.getTxOutput(new UTXO(input.prevTxHash, input.outputIndex)).value)
-            .sum() < outputs.stream().mapToDouble(output -> output.value).sum()) return false;
-        
-        // tx is valid otherwise
-        return true;
+    /**
+     * Instruments this handler with {@code metrics}, which then count the verdict and latency of
+     * each validation, signature check and epoch and measure the size of the UTXO pool; null
+     * removes the instrumentation
+     */
+    public void setMetrics(TxMetrics metrics) {
+        this.metrics = metrics;
+        validator.setMetrics(metrics);
+        if (metrics != null)
+            metrics.bind(() -> utxoPool.size(), null);
     }
 
-    // Clause 2 / 5
-    protected boolean validSignature(Transaction tx, int index, Transaction.Input input) {
-        UTXO utxo = new UTXO(input.prevTxHash, input.outputIndex);
-        Transaction.Output txOut = utxoPool.getTxOutput(utxo);
-        return Crypto.verifySignature(txOut.address, tx.getRawDataToSign(index), input.signature);
+    /**
+     * Runs the stateless validation of {@code possibleTxs} against the current UTXO pool, in
+     * parallel if {@link #setParallelism} was given a pool. The pool is only read.
+     */
+    TxPrecheck[] precheck(Transaction[] possibleTxs) {
+        // Outputs an input may claim once an earlier tx of this epoch is committed
+        Map<UTXO, Transaction.Output> created = new HashMap<UTXO, Transaction.Output>();
+        for (Transaction tx : possibleTxs) {
+            if (tx.getHash() == null) continue;
+            List<Transaction.Output> outputs = tx.getOutputs();
+            for (int index = 0; index < outputs.size(); index++)
+                created.putIfAbsent(new UTXO(tx.getHash(), index), outputs.get(index));
+        }
+
+        if (parallelism == null)
+            return Arrays.stream(possibleTxs).map(tx -> TxPrecheck.of(tx, utxoPool, created, metrics))
+                    .toArray(TxPrecheck[]::new);
+        return parallelism.submit(() -> Arrays.stream(possibleTxs).parallel()
+                .map(tx -> TxPrecheck.of(tx, utxoPool, created, metrics))
+                .toArray(TxPrecheck[]::new)).join();
     }
 
     /**
      * Handles each epoch by receiving an unordered array of proposed transactions,
      * checking each transaction for correctness, returning a mutually valid array
      * of accepted transactions, and updating the current UTXO pool as appropriate.
+     * Transactions are validated in the order of {@link EpochScheduler#order}, so that one
+     * claiming an output of another transaction of the epoch is accepted regardless of its
+     * position in {@code possibleTxs}.
      */
     public Transaction[] handleTxs(Transaction[] possibleTxs) {
-        return Arrays.stream(possibleTxs).filter(tx -> isValidTx(tx))
-        .peek(tx -> {removeTxFromUTXO(tx); addTxToUTXO(tx);}).toArray(Transaction[]::new);
+        JfrEvents.Epoch event = new JfrEvents.Epoch();
+        event.begin();
+        long start = metrics == null ? 0 : System.nanoTime();
+        possibleTxs = EpochScheduler.order(possibleTxs);
+        DoubleAdder fees = new DoubleAdder();
+        Transaction[] acceptedTxs;
+        if (parallelism != null)
+            acceptedTxs = handleTxsInParallel(possibleTxs, fees);
+        else
+            acceptedTxs = Arrays.stream(possibleTxs).filter(tx -> isValidTx(tx) && removeTxFromUTXO(tx))
+            .peek(tx -> {fees.add(validator.getFee()); addTxToUTXO(tx);})
+            .toArray(Transaction[]::new);
+        if (metrics != null)
+            metrics.epochHandled(possibleTxs.length, acceptedTxs.length, System.nanoTime() - start);
+        commit(event, possibleTxs.length, acceptedTxs.length, fees.sum());
+        return acceptedTxs;
+    }
+
+    /** Commits {@code event} of an epoch, if recorded */
+    void commit(JfrEvents.Epoch event, int proposed, int accepted, double feeTotal) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.handler = getClass().getSimpleName();
+            event.size = proposed;
+            event.accepted = accepted;
+            event.feeTotal = feeTotal;
+            event.commit();
+        }
+    }
+
+    /**
+     * Makes {@link #handleTxs} check the signatures, claimed duplicates and output values of all
+     * transactions of an epoch concurrently on {@code pool}, before a sequential commit resolves
+     * double-spends and updates the UTXO pool. The accepted transactions are identical to those of
+     * the sequential validation, which is restored by passing null.
+     */
+    public void setParallelism(ForkJoinPool pool) {
+        this.parallelism = pool;
+    }
+
+    private Transaction[] handleTxsInParallel(Transaction[] possibleTxs, DoubleAdder fees) {
+        // Commit phase in scheduled order, as sequential handleTxs
+        List<Transaction> acceptedTxs = new ArrayList<Transaction>();
+        for (TxPrecheck precheck : precheck(possibleTxs)) {
+            TxValidator.Verdict verdict = precheck.verdict(utxoPool);
+            if (metrics != null)
+                metrics.validated(precheck.tx, verdict, -1, -1);
+            if (verdict != TxValidator.Verdict.VALID || !removeTxFromUTXO(precheck.tx)) continue;
+            fees.add(precheck.fee());
+            addTxToUTXO(precheck.tx);
+            acceptedTxs.add(precheck.tx);
+        }
+        return acceptedTxs.toArray(Transaction[]::new);
     }
 
     protected void addTxToUTXO(Transaction tx) {
@@ -87,16 +186,41 @@ public class TxHandler {
             UTXO utxo = new UTXO(txHash, index);
             utxoPool.addUTXO(utxo, txOut);
         }
+        if (metrics != null)
+            metrics.accepted(tx);
+        if (outputsAdded != null)
+            outputsAdded.accept(tx);
     }
 
-    protected void removeTxFromUTXO(Transaction tx) {
+    /** Also notifies {@code listener} of each transaction whose outputs are added to the pool, e.g., a {@link TxStream} */
+    void onOutputsAdded(Consumer<Transaction> listener) {
+        outputsAdded = outputsAdded == null ? listener : outputsAdded.andThen(listener);
+    }
+
+    /** Also notifies {@code listener} of each transaction whose claimed outputs are spent, e.g., a {@link PendingTxIndex} */
+    void onInputsSpent(Consumer<Transaction> listener) {
+        inputsSpent = inputsSpent == null ? listener : inputsSpent.andThen(listener);
+    }
+
+    /**
+     * Spends the outputs claimed by {@code tx} through {@link UTXOPool#spend}, all or none
+     *
+     * @return false if an output was missing, e.g., spent by another handler sharing a
+     *         {@link ConcurrentUTXOPool} since {@code tx} was validated
+     */
+    protected boolean removeTxFromUTXO(Transaction tx) {
         List<Transaction.Input> inputs = tx.getInputs();
+        List<UTXO> utxos = new ArrayList<UTXO>(inputs.size());
         for (int index = 0; index < inputs.size(); index++) {
             Transaction.Input input = inputs.get(index);
             byte[] txHash = input.prevTxHash;
             int outIndex = input.outputIndex;
-            UTXO utxo = new UTXO(txHash, outIndex);
-            utxoPool.removeUTXO(utxo);
+            utxos.add(new UTXO(txHash, outIndex));
         }
+        if (!utxoPool.spend(utxos))
+            return false;
+        if (inputsSpent != null)
+            inputsSpent.accept(tx);
+        return true;
     }
 }
\ No newline at end of file
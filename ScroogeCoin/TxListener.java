@@ -0,0 +1,22 @@
+/**
+ * Receives the outcome of the validation of each transaction and of each epoch of a handler
+ * instrumented with {@link TxMetrics}. Called on the validating thread, so implementations should
+ * return quickly.
+ */
+public interface TxListener {
+
+    /** Called when {@code tx} is accepted, once its outputs are added to the UTXO pool */
+    default void accepted(Transaction tx) {
+    }
+
+    /**
+     * Called when {@code tx} is rejected because it violates the rule of {@code verdict}, at
+     * input {@code inputIndex} for the rules (1) and (2) if known, or -1
+     */
+    default void rejected(Transaction tx, TxValidator.Verdict verdict, int inputIndex) {
+    }
+
+    /** Called after an epoch of {@code proposed} transactions accepted {@code accepted} in {@code nanos} */
+    default void epoch(int proposed, int accepted, long nanos) {
+    }
+}
@@ -0,0 +1,172 @@
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.IntSupplier;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+
+/**
+ * Counters of the verdicts of each rule of {@link TxHandler#isValidTx}, histograms of the
+ * latencies of epochs, transactions and signature checks, and gauges of the sizes of the UTXO
+ * pool and of {@code MaxFeeTxHandler}'s mempool, readable through JMX and reported to
+ * {@link TxListener}s. A handler is instrumented by {@link TxHandler#setMetrics}; without metrics
+ * it pays for a null check only.
+ */
+public class TxMetrics implements TxMetricsMXBean {
+
+    private final Map<TxValidator.Verdict, LongAdder> verdicts =
+            new EnumMap<TxValidator.Verdict, LongAdder>(TxValidator.Verdict.class);
+    private final LongAdder acceptedTxs = new LongAdder();
+    private final LongAdder epochs = new LongAdder();
+    private final LatencyHistogram epochLatency = new LatencyHistogram();
+    private final LatencyHistogram txLatency = new LatencyHistogram();
+    private final LatencyHistogram signatureLatency = new LatencyHistogram();
+    private final List<TxListener> listeners = new CopyOnWriteArrayList<TxListener>();
+
+    private volatile IntSupplier utxoPoolSize;
+    private volatile IntSupplier mempoolSize;
+
+    public TxMetrics() {
+        for (TxValidator.Verdict verdict : TxValidator.Verdict.values())
+            verdicts.put(verdict, new LongAdder());
+    }
+
+    /** Reports the outcomes of validations and epochs to {@code listener} */
+    public void addListener(TxListener listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(TxListener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Registers these metrics with the platform MBean server as
+     * {@code ScroogeCoin:type=TxMetrics,name=<name>}
+     *
+     * @return the name they are registered under
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("ScroogeCoin:type=TxMetrics,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    /** Measures the sizes of the UTXO pool and of the mempool by these suppliers, if not null */
+    void bind(IntSupplier utxoPoolSize, IntSupplier mempoolSize) {
+        this.utxoPoolSize = utxoPoolSize;
+        this.mempoolSize = mempoolSize;
+    }
+
+    /**
+     * Records the validation of {@code tx} with {@code verdict} in {@code nanos}, or -1 if not
+     * timed. A valid transaction is only counted, as it is accepted once {@link #accepted} is.
+     */
+    void validated(Transaction tx, TxValidator.Verdict verdict, int inputIndex, long nanos) {
+        verdicts.get(verdict).increment();
+        if (nanos >= 0)
+            txLatency.record(nanos);
+        if (verdict != TxValidator.Verdict.VALID)
+            for (TxListener listener : listeners)
+                listener.rejected(tx, verdict, inputIndex);
+    }
+
+    /** Records the acceptance of {@code tx}, whose outputs were added to the UTXO pool */
+    void accepted(Transaction tx) {
+        acceptedTxs.increment();
+        for (TxListener listener : listeners)
+            listener.accepted(tx);
+    }
+
+    /** Records a signature check of {@code nanos} */
+    void signatureChecked(long nanos) {
+        signatureLatency.record(nanos);
+    }
+
+    /** Records an epoch of {@code proposed} transactions accepting {@code accepted} in {@code nanos} */
+    void epochHandled(int proposed, int accepted, long nanos) {
+        epochs.increment();
+        epochLatency.record(nanos);
+        for (TxListener listener : listeners)
+            listener.epoch(proposed, accepted, nanos);
+    }
+
+    /** @return the number of validations with {@code verdict} */
+    public long getCount(TxValidator.Verdict verdict) {
+        return verdicts.get(verdict).sum();
+    }
+
+    public LatencyHistogram getEpochHistogram() {
+        return epochLatency;
+    }
+
+    public LatencyHistogram getTxHistogram() {
+        return txLatency;
+    }
+
+    public LatencyHistogram getSignatureHistogram() {
+        return signatureLatency;
+    }
+
+    @Override
+    public long getAcceptedTxs() {
+        return acceptedTxs.sum();
+    }
+
+    @Override
+    public Map<String, Long> getRejectedTxs() {
+        Map<String, Long> rejected = new LinkedHashMap<String, Long>();
+        for (Map.Entry<TxValidator.Verdict, LongAdder> entry : verdicts.entrySet())
+            if (entry.getKey() != TxValidator.Verdict.VALID)
+                rejected.put(entry.getKey().name(), entry.getValue().sum());
+        return rejected;
+    }
+
+    @Override
+    public long getEpochs() {
+        return epochs.sum();
+    }
+
+    @Override
+    public Map<String, Long> getEpochLatency() {
+        return epochLatency.getSummary();
+    }
+
+    @Override
+    public Map<String, Long> getTxLatency() {
+        return txLatency.getSummary();
+    }
+
+    @Override
+    public Map<String, Long> getSignatureLatency() {
+        return signatureLatency.getSummary();
+    }
+
+    @Override
+    public int getUTXOPoolSize() {
+        IntSupplier size = utxoPoolSize;
+        return size == null ? -1 : size.getAsInt();
+    }
+
+    @Override
+    public int getMempoolSize() {
+        IntSupplier size = mempoolSize;
+        return size == null ? -1 : size.getAsInt();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder count : verdicts.values())
+            count.reset();
+        acceptedTxs.reset();
+        epochs.reset();
+        epochLatency.reset();
+        txLatency.reset();
+        signatureLatency.reset();
+    }
+}
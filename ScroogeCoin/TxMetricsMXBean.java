@@ -0,0 +1,32 @@
+import java.util.Map;
+
+/** The attributes and operations of {@link TxMetrics} exposed through JMX */
+public interface TxMetricsMXBean {
+
+    /** @return the number of transactions accepted, whose outputs were added to the UTXO pool */
+    long getAcceptedTxs();
+
+    /** @return the number of transactions rejected, by the name of their {@link TxValidator.Verdict} */
+    Map<String, Long> getRejectedTxs();
+
+    /** @return the number of epochs handled */
+    long getEpochs();
+
+    /** @return the summary of the latencies of epochs, in ns */
+    Map<String, Long> getEpochLatency();
+
+    /** @return the summary of the latencies of transaction validations, in ns */
+    Map<String, Long> getTxLatency();
+
+    /** @return the summary of the latencies of signature checks, in ns */
+    Map<String, Long> getSignatureLatency();
+
+    /** @return the number of UTXOs in the pool of the handler, or -1 if there is none */
+    int getUTXOPoolSize();
+
+    /** @return the number of transactions in the mempool of a {@link MaxFeeTxHandler}, or -1 if there is none */
+    int getMempoolSize();
+
+    /** Resets all counters and histograms */
+    void reset();
+}
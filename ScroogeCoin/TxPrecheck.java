@@ -0,0 +1,147 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Result of the stateless part of {@link TxHandler#isValidTx} for one transaction of an epoch,
+ * computed before any transaction of that epoch is committed so that it can run concurrently.
+ */
+class TxPrecheck {
+
+    /** The checked transaction */
+    final Transaction tx;
+
+    /** Verdict of the rules (3) and (4), which do not depend on the UTXO pool */
+    final TxValidator.Verdict stateless;
+
+    /** The output each input was assumed to claim, or null if it could not be resolved */
+    final Transaction.Output[] claimed;
+
+    /** Whether the signature of each input is valid under the address of its claimed output */
+    final boolean[] signed;
+
+    private TxPrecheck(Transaction tx, TxValidator.Verdict stateless, Transaction.Output[] claimed, boolean[] signed) {
+        this.tx = tx;
+        this.stateless = stateless;
+        this.claimed = claimed;
+        this.signed = signed;
+    }
+
+    /**
+     * Checks the rules (2), (3) and (4) of {@code tx}, resolving each claimed output in
+     * {@code utxoPool} or else among the outputs {@code created} by the other transactions of the
+     * epoch. Only reads {@code utxoPool}, so it may run concurrently for all transactions. The
+     * latency of each signature check is recorded in {@code metrics}, unless null.
+     */
+    static TxPrecheck of(Transaction tx, UTXOPool utxoPool, Map<UTXO, Transaction.Output> created,
+            TxMetrics metrics) {
+        List<Transaction.Input> inputs = tx.getInputs();
+        int numInputs = inputs.size();
+
+        // (3) and (4), as in TxHandler.isValidTx
+        TxValidator.Verdict stateless = TxValidator.Verdict.VALID;
+        if (!TxValidator.distinctClaims(inputs, TxValidator.claimTable(numInputs)))
+            stateless = TxValidator.Verdict.DUPLICATE_INPUT;
+        else if (tx.getOutputs().stream().anyMatch(output -> output != null && output.value < 0))
+            stateless = TxValidator.Verdict.NEGATIVE_OUTPUT;
+
+        // (2) against the output the input would claim once its parent is committed
+        Transaction.Output[] claimed = new Transaction.Output[numInputs];
+        boolean[] signed = new boolean[numInputs];
+        if (stateless == TxValidator.Verdict.VALID) {
+            for (int index = 0; index < numInputs; index++) {
+                Transaction.Input input = inputs.get(index);
+                UTXO utxo = new UTXO(input.prevTxHash, input.outputIndex);
+                Transaction.Output txOut = utxoPool.getTxOutput(utxo);
+                if (txOut == null)
+                    txOut = created.get(utxo);
+                if (txOut == null)
+                    break;
+                claimed[index] = txOut;
+                long start = metrics == null ? 0 : System.nanoTime();
+                signed[index] = Crypto.verifySignature(txOut.address, tx.getRawDataToSign(index), input.signature);
+                if (metrics != null)
+                    metrics.signatureChecked(System.nanoTime() - start);
+                if (!signed[index])
+                    break;
+            }
+        }
+        return new TxPrecheck(tx, stateless, claimed, signed);
+    }
+
+    /**
+     * @return true iff the rules (2), (3) and (4) hold for the outputs the inputs of {@link #tx}
+     *         were resolved to, i.e., it is valid once these outputs are unspent in the pool and
+     *         cover its output values
+     */
+    boolean isSound() {
+        if (stateless != TxValidator.Verdict.VALID)
+            return false;
+        for (int index = 0; index < claimed.length; index++)
+            if (claimed[index] == null || !signed[index])
+                return false;
+        return true;
+    }
+
+    /**
+     * @return the sum of the claimed input values minus the sum of the output values of
+     *         {@link #tx}, which is non-negative iff rule (5) holds; requires {@link #isSound}
+     */
+    double fee() {
+        return Arrays.stream(claimed).mapToDouble(txOut -> txOut.value).sum() - outputSum(tx.getOutputs());
+    }
+
+    /**
+     * @return the verdict of {@link TxHandler#isValidTx} for {@link #tx} against the current
+     *         {@code utxoPool}, re-verifying a signature only if its input claims an output of
+     *         another address than the one it was prechecked against
+     */
+    boolean isValid(UTXOPool utxoPool) {
+        return verdict(utxoPool) == TxValidator.Verdict.VALID;
+    }
+
+    /** @return the verdict of {@link #isValid}, naming the first rule found to be violated */
+    TxValidator.Verdict verdict(UTXOPool utxoPool) {
+        if (stateless != TxValidator.Verdict.VALID)
+            return stateless;
+        List<Transaction.Input> inputs = tx.getInputs();
+        int numInputs = inputs.size();
+
+        // (1) and (2)
+        Transaction.Output[] txOuts = new Transaction.Output[numInputs];
+        for (int index = 0; index < numInputs; index++) {
+            Transaction.Input input = inputs.get(index);
+            txOuts[index] = utxoPool.getTxOutput(new UTXO(input.prevTxHash, input.outputIndex));
+            if (txOuts[index] == null)
+                return TxValidator.Verdict.MISSING_INPUT;
+        }
+        for (int index = 0; index < numInputs; index++) {
+            Transaction.Input input = inputs.get(index);
+            boolean valid = sameAddress(txOuts[index], claimed[index]) ? signed[index]
+                    : Crypto.verifySignature(txOuts[index].address, tx.getRawDataToSign(index), input.signature);
+            if (!valid)
+                return TxValidator.Verdict.INVALID_SIGNATURE;
+        }
+
+        // (5), summed in the same order as TxHandler.isValidTx
+        if (Arrays.stream(txOuts).mapToDouble(txOut -> txOut.value).sum() < outputSum(tx.getOutputs()))
+            return TxValidator.Verdict.INSUFFICIENT_INPUT;
+        return TxValidator.Verdict.VALID;
+    }
+
+    /** @return the sum of the values of {@code outputs}, skipping null ones as {@link TxValidator} does */
+    private static double outputSum(List<Transaction.Output> outputs) {
+        return outputs.stream().filter(output -> output != null).mapToDouble(output -> output.value).sum();
+    }
+
+    /**
+     * @return true iff both outputs are payable to the same address, under which a signature has
+     *         the same verdict; pools need not return the same output objects on each lookup
+     */
+    private static boolean sameAddress(Transaction.Output txOut, Transaction.Output claimed) {
+        if (claimed == null)
+            return false;
+        return txOut == claimed || txOut.address == claimed.address
+                || (txOut.address != null && txOut.address.equals(claimed.address));
+    }
+}
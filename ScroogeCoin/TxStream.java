@@ -0,0 +1,204 @@
+import java.nio.ByteBuffer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Flow;
+import java.util.function.Consumer;
+
+/**
+ * Validates transactions one by one as they arrive, from a {@link Flow.Publisher} or a queue,
+ * instead of in epochs. A transaction claiming outputs missing from the UTXO pool is kept in a
+ * bounded orphan pool, indexed by the hashes of the transactions it claims outputs of, until
+ * {@link TxHandler#addTxToUTXO} adds outputs of one of them, when it is validated again. The
+ * oldest orphans are evicted first once the pool holds more than its number of transactions or
+ * bytes of raw transactions.
+ */
+public class TxStream implements Flow.Subscriber<Transaction> {
+
+    /** A transaction waiting for outputs of the transactions of {@link #parents} */
+    private static class Orphan {
+        final Transaction tx;
+        final Set<ByteBuffer> parents = new HashSet<ByteBuffer>();
+        final int bytes;
+
+        Orphan(Transaction tx) {
+            this.tx = tx;
+            for (Transaction.Input input : tx.getInputs())
+                parents.add(ByteBuffer.wrap(input.prevTxHash));
+            this.bytes = tx.getRawTxLength();
+        }
+    }
+
+    private final TxHandler handler;
+    private final int maxOrphans;
+    private final long maxOrphanBytes;
+    private final Consumer<Transaction> accepted;
+
+    /** Orphans by their hash, oldest first */
+    private final LinkedHashMap<ByteBuffer, Orphan> orphans = new LinkedHashMap<ByteBuffer, Orphan>();
+    /** Orphans by the hash of each transaction they claim outputs of */
+    private final Map<ByteBuffer, List<Orphan>> orphansByParent = new HashMap<ByteBuffer, List<Orphan>>();
+    private long orphanBytes;
+    /** Orphans whose parent got outputs added, to be validated again */
+    private final Queue<Orphan> woken = new ArrayDeque<Orphan>();
+    private boolean draining;
+
+    private Flow.Subscription subscription;
+    private final CompletableFuture<Void> completion = new CompletableFuture<Void>();
+
+    /**
+     * Creates a stream validating transactions against and applying them to the UTXO pool of
+     * {@code handler}, keeping up to {@code maxOrphans} orphans of {@code maxOrphanBytes} raw
+     * bytes in total, and passing each accepted transaction to {@code accepted}. The stream must
+     * be the only user of {@code handler} while it validates; epochs handled in between wake the
+     * orphans of their transactions at the next {@link #offer} or {@link #flush}.
+     */
+    public TxStream(TxHandler handler, int maxOrphans, long maxOrphanBytes, Consumer<Transaction> accepted) {
+        this.handler = handler;
+        this.maxOrphans = maxOrphans;
+        this.maxOrphanBytes = maxOrphanBytes;
+        this.accepted = accepted;
+        handler.onOutputsAdded(this::outputsAdded);
+    }
+
+    /**
+     * Validates {@code tx} and applies it to the UTXO pool if valid, then validates the orphans
+     * woken by it, or keeps it as an orphan if it claims outputs missing from the pool.
+     *
+     * @return the verdict of {@code tx}; {@code MISSING_INPUT} if it was kept as an orphan
+     */
+    public synchronized TxValidator.Verdict offer(Transaction tx) {
+        TxValidator.Verdict verdict = process(tx);
+        flush();
+        return verdict;
+    }
+
+    /** Offers each transaction of {@code queue}, until it is empty, as {@link #offer} */
+    public synchronized int drain(Queue<Transaction> queue) {
+        int count = 0;
+        for (Transaction tx; (tx = queue.poll()) != null; count++)
+            offer(tx);
+        return count;
+    }
+
+    /** Validates the orphans woken since the last offer, e.g., by epochs of the handler */
+    public synchronized void flush() {
+        if (draining) return;
+        draining = true;
+        try {
+            for (Orphan orphan; (orphan = woken.poll()) != null; ) {
+                if (orphans.get(ByteBuffer.wrap(orphan.tx.getHash())) == orphan) {
+                    removeOrphan(orphan);
+                    process(orphan.tx);
+                }
+            }
+        } finally {
+            draining = false;
+        }
+    }
+
+    private TxValidator.Verdict process(Transaction tx) {
+        TxValidator.Verdict verdict = handler.validate(tx);
+        if (verdict == TxValidator.Verdict.VALID) {
+            // An input spent meanwhile by another handler sharing the pool is a double-spend
+            if (!handler.removeTxFromUTXO(tx))
+                return TxValidator.Verdict.MISSING_INPUT;
+            handler.addTxToUTXO(tx);
+            if (accepted != null)
+                accepted.accept(tx);
+        } else if (verdict == TxValidator.Verdict.MISSING_INPUT && tx.getHash() != null) {
+            addOrphan(tx);
+        }
+        return verdict;
+    }
+
+    /** Wakes the orphans claiming outputs of {@code tx}, now in the UTXO pool */
+    private void outputsAdded(Transaction tx) {
+        List<Orphan> children = orphansByParent.get(ByteBuffer.wrap(tx.getHash()));
+        if (children != null)
+            woken.addAll(children);
+    }
+
+    private void addOrphan(Transaction tx) {
+        ByteBuffer hash = ByteBuffer.wrap(tx.getHash());
+        if (orphans.containsKey(hash)) return;
+        Orphan orphan = new Orphan(tx);
+        if (orphan.bytes > maxOrphanBytes || maxOrphans <= 0) return;
+
+        orphans.put(hash, orphan);
+        orphanBytes += orphan.bytes;
+        for (ByteBuffer parent : orphan.parents)
+            orphansByParent.computeIfAbsent(parent, p -> new ArrayList<Orphan>(1)).add(orphan);
+
+        Iterator<Orphan> oldest = orphans.values().iterator();
+        while (orphans.size() > maxOrphans || orphanBytes > maxOrphanBytes) {
+            Orphan evicted = oldest.next();
+            oldest.remove();
+            unindex(evicted);
+        }
+    }
+
+    private void removeOrphan(Orphan orphan) {
+        orphans.remove(ByteBuffer.wrap(orphan.tx.getHash()));
+        unindex(orphan);
+    }
+
+    private void unindex(Orphan orphan) {
+        orphanBytes -= orphan.bytes;
+        for (ByteBuffer parent : orphan.parents) {
+            List<Orphan> children = orphansByParent.get(parent);
+            children.remove(orphan);
+            if (children.isEmpty())
+                orphansByParent.remove(parent);
+        }
+    }
+
+    /** @return the number of orphans kept */
+    public synchronized int getOrphanCount() {
+        return orphans.size();
+    }
+
+    /** @return the number of raw transaction bytes of the orphans kept */
+    public synchronized long getOrphanBytes() {
+        return orphanBytes;
+    }
+
+    /** @return a future completed when the publisher completes, or completed exceptionally on its error */
+    public CompletableFuture<Void> getCompletion() {
+        return completion;
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        if (this.subscription != null) {
+            subscription.cancel();
+            return;
+        }
+        this.subscription = subscription;
+        subscription.request(1);
+    }
+
+    @Override
+    public void onNext(Transaction tx) {
+        offer(tx);
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        completion.completeExceptionally(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        completion.complete(null);
+    }
+}
@@ -0,0 +1,206 @@
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Checks the five rules of {@link TxHandler#isValidTx} in a single pass over the inputs and one
+ * over the outputs, looking claimed outputs up with a reusable probe key and summing values in
+ * primitive accumulators, so that apart from signature verification no object is allocated per
+ * input. Signatures are verified last, once the cheap rules hold. Not thread-safe: each handler
+ * owns one validator.
+ */
+public class TxValidator {
+
+    /** The outcome of a validation, naming the first rule found to be violated */
+    public enum Verdict {
+        VALID(0),
+        /** (1) an output claimed by the transaction is not in the UTXO pool */
+        MISSING_INPUT(1),
+        /** (2) the signature of an input is invalid */
+        INVALID_SIGNATURE(2),
+        /** (3) an output is claimed multiple times by the transaction */
+        DUPLICATE_INPUT(3),
+        /** (4) an output value is negative */
+        NEGATIVE_OUTPUT(4),
+        /** (5) the sum of the input values is less than the sum of the output values */
+        INSUFFICIENT_INPUT(5),
+        /** valid on its own, but left out of the epoch by a fee-maximizing selection */
+        NOT_SELECTED(0);
+
+        private final int rule;
+
+        Verdict(int rule) {
+            this.rule = rule;
+        }
+
+        /** @return the number of the violated rule, or 0 if none is */
+        public int getRule() {
+            return rule;
+        }
+    }
+
+    /** Number of inputs up to which duplicates are found by comparing all pairs */
+    private static final int PAIRWISE_LIMIT = 8;
+
+    /** Compensated sum with the same result as {@link java.util.stream.DoubleStream#sum} */
+    private static final class Sum {
+        private double sum, compensation, simpleSum;
+
+        void reset() {
+            sum = compensation = simpleSum = 0;
+        }
+
+        void add(double value) {
+            double tmp = value - compensation;
+            double velvel = sum + tmp;
+            compensation = (velvel - sum) - tmp;
+            sum = velvel;
+            simpleSum += value;
+        }
+
+        double get() {
+            double tmp = sum - compensation;
+            return Double.isNaN(tmp) && Double.isInfinite(simpleSum) ? simpleSum : tmp;
+        }
+    }
+
+    private final UTXO probe = UTXO.probe();
+    private final Sum inputSum = new Sum(), outputSum = new Sum();
+    private Transaction.Output[] claimed = new Transaction.Output[16];
+    private int[] claims = new int[32];
+    private double fee;
+    private int inputIndex;
+    /** Records the latency of signature checks, or null */
+    private TxMetrics metrics;
+
+    /**
+     * @return the verdict of the rules of {@link TxHandler#isValidTx} for {@code tx} against
+     *         {@code utxoPool}, which is only read
+     */
+    public Verdict validate(Transaction tx, UTXOPool utxoPool) {
+        List<Transaction.Input> inputs = tx.getInputs();
+        List<Transaction.Output> outputs = tx.getOutputs();
+        int numInputs = inputs.size();
+        fee = Double.NaN;
+        inputIndex = -1;
+
+        // (4) and the output side of (5)
+        outputSum.reset();
+        for (int index = 0; index < outputs.size(); index++) {
+            Transaction.Output output = outputs.get(index);
+            if (output == null) continue;
+            if (output.value < 0) return Verdict.NEGATIVE_OUTPUT;
+            outputSum.add(output.value);
+        }
+
+        // (1), (3) and the input side of (5)
+        if (claimed.length < numInputs)
+            claimed = new Transaction.Output[Math.max(numInputs, 2 * claimed.length)];
+        inputSum.reset();
+        for (int index = 0; index < numInputs; index++) {
+            Transaction.Input input = inputs.get(index);
+            Transaction.Output txOut = utxoPool.getTxOutput(probe.set(input.prevTxHash, input.outputIndex));
+            if (txOut == null) {
+                inputIndex = index;
+                return clear(index, Verdict.MISSING_INPUT);
+            }
+            claimed[index] = txOut;
+            inputSum.add(txOut.value);
+        }
+        if (!distinctClaims(inputs)) return clear(numInputs, Verdict.DUPLICATE_INPUT);
+        double sum = inputSum.get();
+        if (sum < outputSum.get()) return clear(numInputs, Verdict.INSUFFICIENT_INPUT);
+
+        // (2)
+        for (int index = 0; index < numInputs; index++) {
+            long start = metrics == null ? 0 : System.nanoTime();
+            boolean valid = Crypto.verifySignature(claimed[index].address, tx.getRawDataToSign(index),
+                    inputs.get(index).signature);
+            if (metrics != null)
+                metrics.signatureChecked(System.nanoTime() - start);
+            if (!valid) {
+                inputIndex = index;
+                return clear(numInputs, Verdict.INVALID_SIGNATURE);
+            }
+        }
+        clear(numInputs, Verdict.VALID);
+        fee = sum - outputSum.get();
+        return Verdict.VALID;
+    }
+
+    /** @return the fee of the last transaction found valid by {@link #validate}, or NaN otherwise */
+    public double getFee() {
+        return fee;
+    }
+
+    /**
+     * @return the index of the input at which the last transaction passed to {@link #validate}
+     *         violated the rule (1) or (2), or -1
+     */
+    public int getInputIndex() {
+        return inputIndex;
+    }
+
+    /** Records the latency of each signature check in {@code metrics}, or in none if null */
+    void setMetrics(TxMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /** Drops the references to the first {@code numClaimed} claimed outputs */
+    private Verdict clear(int numClaimed, Verdict verdict) {
+        Arrays.fill(claimed, 0, numClaimed, null);
+        return verdict;
+    }
+
+    private boolean distinctClaims(List<Transaction.Input> inputs) {
+        int numInputs = inputs.size();
+        if (numInputs > PAIRWISE_LIMIT && claims.length < tableSize(numInputs))
+            claims = new int[tableSize(numInputs)];
+        return distinctClaims(inputs, claims);
+    }
+
+    /** @return the power of two of at least twice {@code numInputs} slots */
+    private static int tableSize(int numInputs) {
+        return Integer.highestOneBit(4 * numInputs - 1);
+    }
+
+    /**
+     * @return true iff no two of {@code inputs} claim the same output, comparing hashes exactly;
+     *         {@code table} is scratch space from {@link #claimTable}, or a larger one
+     */
+    static boolean distinctClaims(List<Transaction.Input> inputs, int[] table) {
+        int numInputs = inputs.size();
+        if (numInputs <= PAIRWISE_LIMIT) {
+            for (int i = 1; i < numInputs; i++)
+                for (int j = 0; j < i; j++)
+                    if (sameClaim(inputs.get(i), inputs.get(j)))
+                        return false;
+            return true;
+        }
+
+        // Open addressing over input positions + 1, 0 marking an empty slot
+        int mask = tableSize(numInputs) - 1;
+        Arrays.fill(table, 0, mask + 1, 0);
+        for (int i = 0; i < numInputs; i++) {
+            Transaction.Input input = inputs.get(i);
+            int h = (31 * Arrays.hashCode(input.prevTxHash) + input.outputIndex) * 0x9E3779B9;
+            for (int slot = (h ^ (h >>> 16)) & mask; ; slot = (slot + 1) & mask) {
+                if (table[slot] == 0) {
+                    table[slot] = i + 1;
+                    break;
+                }
+                if (sameClaim(input, inputs.get(table[slot] - 1)))
+                    return false;
+            }
+        }
+        return true;
+    }
+
+    /** @return the scratch table {@link #distinctClaims(List, int[])} needs for {@code numInputs} */
+    static int[] claimTable(int numInputs) {
+        return numInputs <= PAIRWISE_LIMIT ? null : new int[tableSize(numInputs)];
+    }
+
+    private static boolean sameClaim(Transaction.Input a, Transaction.Input b) {
+        return a.outputIndex == b.outputIndex && Arrays.equals(a.prevTxHash, b.prevTxHash);
+    }
+}
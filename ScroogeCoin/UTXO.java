@@ -1,25 +1,119 @@
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
 import java.util.Arrays;
 
 public class UTXO implements Comparable<UTXO> {
 
-    /** Hash of the transaction from which this UTXO originates */
-    private byte[] txHash;
+    /** Length of the transaction hashes packed into words, those of SHA-256 */
+    private static final int PACKED_LENGTH = 32;
+
+    /** Flips the sign bit of each byte, so that unsigned word order is signed byte order */
+    private static final long SIGN_BITS = 0x8080808080808080L;
+
+    private static final VarHandle WORDS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.BIG_ENDIAN);
+    private static final VarHandle TX_HASH;
+
+    static {
+        try {
+            TX_HASH = MethodHandles.lookup().findVarHandle(UTXO.class, "txHash", byte[].class);
+        } catch (ReflectiveOperationException e) {
+            throw new ExceptionInInitializerError(e);
+        }
+    }
+
+    /** Hash of the transaction from which this UTXO originates, as big-endian words if packed */
+    private long word0, word1, word2, word3;
+
+    /**
+     * Hash of the transaction from which this UTXO originates; for a packed hash, created from the
+     * words when first asked for, and published safely as keys are shared between threads
+     */
+    private volatile byte[] txHash;
+
+    /** Length of the transaction hash */
+    private int length;
 
     /** Index of the corresponding output in said transaction */
     private int index;
 
+    /** Hash code, mixed from the transaction hash and index once */
+    private int hash;
+
     /**
      * Creates a new UTXO corresponding to the output with index <index> in the transaction whose
      * hash is {@code txHash}
      */
     public UTXO(byte[] txHash, int index) {
-        this.txHash = Arrays.copyOf(txHash, txHash.length);
+        if (txHash.length == PACKED_LENGTH)
+            pack(txHash, index);
+        else
+            unpacked(Arrays.copyOf(txHash, txHash.length), index);
+    }
+
+    private UTXO() {
+    }
+
+    /**
+     * @return a mutable UTXO for looking outputs up without copying hashes, see {@link #set}; it
+     *         must never be stored in a pool
+     */
+    static UTXO probe() {
+        return new UTXO();
+    }
+
+    /** Makes this probe denote output {@code index} of {@code txHash}, without copying it */
+    UTXO set(byte[] txHash, int index) {
+        if (txHash.length == PACKED_LENGTH) {
+            pack(txHash, index);
+            // Kept to be returned by getTxHash; a probe is confined to its thread, so the write is plain
+            TX_HASH.set(this, txHash);
+        } else {
+            unpacked(txHash, index);
+        }
+        return this;
+    }
+
+    private void pack(byte[] txHash, int index) {
+        word0 = (long) WORDS.get(txHash, 0);
+        word1 = (long) WORDS.get(txHash, 8);
+        word2 = (long) WORDS.get(txHash, 16);
+        word3 = (long) WORDS.get(txHash, 24);
+        this.length = PACKED_LENGTH;
         this.index = index;
+        this.hash = mix(((word0 * 0x9E3779B97F4A7C15L ^ word1) * 0x9E3779B97F4A7C15L ^ word2)
+                * 0x9E3779B97F4A7C15L ^ word3, index);
+    }
+
+    private void unpacked(byte[] txHash, int index) {
+        word0 = word1 = word2 = word3 = 0;
+        TX_HASH.set(this, txHash);
+        this.length = txHash.length;
+        this.index = index;
+        this.hash = mix(Arrays.hashCode(txHash), index);
+    }
+
+    /** @return the hash code of {@code h} and {@code index}, with the finalizer of MurmurHash3 */
+    private static int mix(long h, int index) {
+        h = (h ^ index) * 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return (int) h;
     }
 
     /** @return the transaction hash of this UTXO */
     public byte[] getTxHash() {
-        return txHash;
+        byte[] bytes = txHash;
+        if (bytes == null) {
+            bytes = new byte[PACKED_LENGTH];
+            WORDS.set(bytes, 0, word0);
+            WORDS.set(bytes, 8, word1);
+            WORDS.set(bytes, 16, word2);
+            WORDS.set(bytes, 24, word3);
+            txHash = bytes;
+        }
+        return bytes;
     }
 
     /** @return the index of this UTXO */
@@ -32,6 +126,9 @@ public class UTXO implements Comparable<UTXO> {
      * {@code txHash} arrays with equal contents and equal {@code index} values
      */
     public boolean equals(Object other) {
+        if (other == this) {
+            return true;
+        }
         if (other == null) {
             return false;
         }
@@ -40,51 +137,47 @@ public class UTXO implements Comparable<UTXO> {
         }
 
         UTXO utxo = (UTXO) other;
-        byte[] hash = utxo.txHash;
-        int in = utxo.index;
-        if (hash.length != txHash.length || index != in)
+        if (hash != utxo.hash || index != utxo.index || length != utxo.length)
             return false;
-        for (int i = 0; i < hash.length; i++) {
-            if (hash[i] != txHash[i])
-                return false;
-        }
-        return true;
+        if (length == PACKED_LENGTH)
+            return word0 == utxo.word0 && word1 == utxo.word1 && word2 == utxo.word2 && word3 == utxo.word3;
+        return Arrays.equals(txHash, utxo.txHash);
     }
 
     /**
-     * Simple implementation of a UTXO hashCode that respects equality of UTXOs // (i.e.
-     * utxo1.equals(utxo2) => utxo1.hashCode() == utxo2.hashCode())
+     * Hash code of the UTXO, computed once from the words of its hash so that lookups only read
+     * it, that respects equality of UTXOs (i.e. utxo1.equals(utxo2) => utxo1.hashCode() ==
+     * utxo2.hashCode())
      */
     public int hashCode() {
-        int hash = 1;
-        hash = hash * 17 + index;
-        hash = hash * 31 + Arrays.hashCode(txHash);
         return hash;
     }
 
     /** Compares this UTXO to the one specified by {@code utxo} */
     public int compareTo(UTXO utxo) {
-        byte[] hash = utxo.txHash;
         int in = utxo.index;
         if (in > index)
             return -1;
         else if (in < index)
             return 1;
         else {
-            int len1 = txHash.length;
-            int len2 = hash.length;
+            int len1 = length;
+            int len2 = utxo.length;
             if (len2 > len1)
                 return -1;
             else if (len2 < len1)
                 return 1;
+            else if (len1 != PACKED_LENGTH)
+                return Integer.signum(Arrays.compare(txHash, utxo.txHash));
             else {
-                for (int i = 0; i < len1; i++) {
-                    if (hash[i] > txHash[i])
-                        return -1;
-                    else if (hash[i] < txHash[i])
-                        return 1;
-                }
-                return 0;
+                int order = Long.compareUnsigned(word0 ^ SIGN_BITS, utxo.word0 ^ SIGN_BITS);
+                if (order == 0)
+                    order = Long.compareUnsigned(word1 ^ SIGN_BITS, utxo.word1 ^ SIGN_BITS);
+                if (order == 0)
+                    order = Long.compareUnsigned(word2 ^ SIGN_BITS, utxo.word2 ^ SIGN_BITS);
+                if (order == 0)
+                    order = Long.compareUnsigned(word3 ^ SIGN_BITS, utxo.word3 ^ SIGN_BITS);
+                return Integer.signum(order);
             }
         }
     }
@@ -0,0 +1,144 @@
+import java.math.BigInteger;
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * An order-independent commitment to a set of UTXOs and their outputs, as the MuHash3072
+ * multiset hash: the product modulo the prime 2^3072 - 1103717 of the 3072-bit hashes of its
+ * elements, each the SHA-256 digest of the element expanded by SHA-256 in counter mode. Unlike
+ * a sum of digests, such as AdHash, which Wagner's generalized birthday attack breaks, finding
+ * two sets of equal product is as hard as a discrete logarithm in that group. Adding an element
+ * multiplies the numerator by its hash and removing it multiplies the denominator, so that each
+ * change takes one modular multiplication, and pools with the same UTXOs have equal commitments
+ * however they were built. Comparing two pools takes two multiplications once their commitments
+ * are maintained, e.g., by {@link CommittedUTXOPool}.
+ */
+public final class UTXOCommitment {
+
+    private static final int BITS = 3072;
+
+    /** The modulus, 2^3072 - 1103717, the largest prime below 2^3072 */
+    private static final BigInteger PRIME_DIFFERENCE = BigInteger.valueOf(1103717);
+    private static final BigInteger PRIME = BigInteger.ONE.shiftLeft(BITS).subtract(PRIME_DIFFERENCE);
+    private static final BigInteger LOW_BITS = BigInteger.ONE.shiftLeft(BITS).subtract(BigInteger.ONE);
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    /** Products of the hashes of the added and of the removed elements */
+    private BigInteger numerator = BigInteger.ONE;
+    private BigInteger denominator = BigInteger.ONE;
+
+    /** Creates the commitment to the empty set */
+    public UTXOCommitment() {
+    }
+
+    /** Creates a copy of {@code commitment} */
+    public UTXOCommitment(UTXOCommitment commitment) {
+        numerator = commitment.numerator;
+        denominator = commitment.denominator;
+    }
+
+    /** @return the commitment to the UTXOs of {@code pool}, hashed in parallel */
+    public static UTXOCommitment of(UTXOPool pool) {
+        return pool.stream().parallel().collect(UTXOCommitment::new,
+                (commitment, entry) -> commitment.add(entry.getKey(), entry.getValue()), UTXOCommitment::add);
+    }
+
+    /** Adds UTXO {@code utxo} with output {@code txOut} to the committed set */
+    public void add(UTXO utxo, Transaction.Output txOut) {
+        numerator = multiply(numerator, hash(utxo, txOut));
+    }
+
+    /** Removes UTXO {@code utxo} with output {@code txOut}, which must be in it, from the committed set */
+    public void remove(UTXO utxo, Transaction.Output txOut) {
+        denominator = multiply(denominator, hash(utxo, txOut));
+    }
+
+    /** Adds the UTXOs committed to by {@code commitment}, disjoint from those of this one */
+    public void add(UTXOCommitment commitment) {
+        numerator = multiply(numerator, commitment.numerator);
+        denominator = multiply(denominator, commitment.denominator);
+    }
+
+    /** @return {@code a * b} modulo the prime, for {@code a} and {@code b} below it */
+    private static BigInteger multiply(BigInteger a, BigInteger b) {
+        BigInteger product = a.multiply(b);
+        // As 2^3072 is PRIME_DIFFERENCE modulo the prime, the high bits fold onto the low ones
+        for (int i = 0; i < 2; i++)
+            product = product.and(LOW_BITS).add(product.shiftRight(BITS).multiply(PRIME_DIFFERENCE));
+        return product.compareTo(PRIME) >= 0 ? product.subtract(PRIME) : product;
+    }
+
+    /** @return the 3072-bit hash of the element, modulo the prime */
+    private static BigInteger hash(UTXO utxo, Transaction.Output txOut) {
+        MessageDigest md = SHA256.get();
+        byte[] txHash = utxo.getTxHash();
+        ByteBuffer fields = ByteBuffer.allocate(2 * Integer.BYTES + Long.BYTES + 1);
+        fields.putInt(txHash.length).putInt(utxo.getIndex());
+        fields.putLong(txOut == null ? 0 : Double.doubleToLongBits(txOut.value));
+        fields.put((byte) (txOut == null ? 0 : txOut.address == null ? 1 : 2));
+        md.update(fields.array());
+        md.update(txHash);
+        if (txOut != null && txOut.address != null)
+            md.update(txOut.address.getEncoded());
+        byte[] digest = md.digest();
+
+        byte[] expanded = new byte[BITS / Byte.SIZE];
+        byte[] counter = new byte[1];
+        for (int offset = 0; offset < expanded.length; offset += digest.length) {
+            md.update(digest);
+            md.update(counter);
+            System.arraycopy(md.digest(), 0, expanded, offset, digest.length);
+            counter[0]++;
+        }
+        BigInteger hash = new BigInteger(1, expanded);
+        return hash.compareTo(PRIME) >= 0 ? hash.subtract(PRIME) : hash;
+    }
+
+    /** Divides the numerator by the denominator, so that equal sets have equal numerators */
+    private BigInteger normalize() {
+        if (!denominator.equals(BigInteger.ONE)) {
+            numerator = multiply(numerator, denominator.modInverse(PRIME));
+            denominator = BigInteger.ONE;
+        }
+        return numerator;
+    }
+
+    /** @return the 32 bytes of the commitment, the SHA-256 digest of its 3072 bits, most significant first */
+    public byte[] getBytes() {
+        byte[] value = normalize().toByteArray();
+        byte[] bits = new byte[BITS / Byte.SIZE];
+        int length = Math.min(value.length, bits.length);
+        System.arraycopy(value, value.length - length, bits, bits.length - length, length);
+        return SHA256.get().digest(bits);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (!(other instanceof UTXOCommitment))
+            return false;
+        UTXOCommitment commitment = (UTXOCommitment) other;
+        return multiply(numerator, commitment.denominator).equals(multiply(commitment.numerator, denominator));
+    }
+
+    @Override
+    public int hashCode() {
+        return normalize().hashCode();
+    }
+
+    /** @return the commitment in hexadecimal */
+    @Override
+    public String toString() {
+        StringBuilder hex = new StringBuilder(64);
+        for (byte b : getBytes())
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+}
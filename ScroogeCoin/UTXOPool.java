@@ -1,22 +1,105 @@
+import java.lang.ref.WeakReference;
+import java.util.AbstractMap;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.Set;
+import java.util.List;
+import java.util.Map;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
 
 public class UTXOPool {
 
     /**
-     * The current collection of UTXOs, with each one mapped to its corresponding transaction output
+     * The current collection of UTXOs, with each one mapped to its corresponding transaction output,
+     * in a trie shared with the copies of this pool until either changes it
      */
-    private HashMap<UTXO, Transaction.Output> H;
+    private HashTrie<UTXO, Transaction.Output> H;
+
+    /**
+     * The pool this one is a copy of, not kept reachable by the copy, and the version of the UTXOs
+     * of this pool when it was copied or last merged into it
+     */
+    private WeakReference<UTXOPool> parent;
+    private Object parentVersion;
 
     /** Creates a new empty UTXOPool */
     public UTXOPool() {
-        H = new HashMap<UTXO, Transaction.Output>();
+        this(true);
     }
 
-    /** Creates a new UTXOPool that is a copy of {@code uPool} */
+    /**
+     * Creates a new empty UTXOPool, without a trie unless {@code trie}, for subclasses keeping
+     * their UTXOs elsewhere that override every method reading or changing them but
+     * {@link #copy}, {@link #merge} and {@link #stream}
+     */
+    UTXOPool(boolean trie) {
+        H = trie ? new HashTrie<UTXO, Transaction.Output>() : null;
+    }
+
+    /**
+     * Creates a new UTXOPool that is a copy of {@code uPool}. Both pools share their UTXOs, so
+     * that the copy takes constant time, and each copies only the parts it changes afterwards.
+     */
     public UTXOPool(UTXOPool uPool) {
-        H = new HashMap<UTXO, Transaction.Output>(uPool.H);
+        if (uPool.sharesTrie()) {
+            parent = new WeakReference<UTXOPool>(uPool);
+            parentVersion = uPool.H.version();
+            H = uPool.H.snapshot();
+            return;
+        }
+        // Other implementations only expose their UTXOs through the public methods
+        JfrEvents.PoolBulkOperation event = new JfrEvents.PoolBulkOperation();
+        event.begin();
+        H = new HashTrie<UTXO, Transaction.Output>();
+        for (UTXO ut : uPool.getAllUTXO())
+            H.put(ut, uPool.getTxOutput(ut));
+        commit(event, "copy", uPool);
+    }
+
+    /** Commits {@code event} of the bulk operation {@code operation} on {@code pool}, if recorded */
+    static void commit(JfrEvents.PoolBulkOperation event, String operation, UTXOPool pool) {
+        event.end();
+        if (event.shouldCommit()) {
+            event.operation = operation;
+            event.poolClass = pool.getClass().getSimpleName();
+            event.size = pool.size();
+            event.commit();
+        }
+    }
+
+    /** @return true iff this pool keeps its UTXOs in its trie, which a copy may then share */
+    boolean sharesTrie() {
+        return getClass() == UTXOPool.class;
+    }
+
+    /**
+     * @return a copy of this pool of the same implementation, which subclasses storing their UTXOs
+     *         elsewhere override
+     */
+    public UTXOPool copy() {
+        return new UTXOPool(this);
+    }
+
+    /**
+     * Applies the changes made to {@code copy}, a copy of this pool made by
+     * {@link #UTXOPool(UTXOPool)}, since it was made. Takes constant time if this pool did not
+     * change since, and otherwise time proportional to the changes of the copy, which win over
+     * conflicting changes of this pool. Subclasses keeping more state than the trie always apply
+     * the changes one by one, through {@link #addUTXO} and {@link #removeUTXO}.
+     */
+    public void merge(UTXOPool copy) {
+        if (copy.parent == null || copy.parent.get() != this)
+            throw new IllegalArgumentException("Not a copy of this pool");
+        JfrEvents.PoolBulkOperation event = new JfrEvents.PoolBulkOperation();
+        event.begin();
+        if (getClass() == UTXOPool.class && H.version() == copy.parentVersion) {
+            H.assign(copy.H);
+        } else {
+            copy.H.diff(copy.parentVersion, (ut, txOut) -> addUTXO(ut, txOut), (ut, txOut) -> removeUTXO(ut));
+        }
+        copy.parentVersion = copy.H.version();
+        commit(event, "merge", this);
     }
 
     /** Adds a mapping from UTXO {@code utxo} to transaction output @code{txOut} to the pool */
@@ -29,6 +112,21 @@ public class UTXOPool {
         H.remove(utxo);
     }
 
+    /**
+     * Removes all UTXOs of {@code utxos}, which are distinct, from the pool if all are in it, and
+     * none otherwise, e.g., the outputs claimed by a transaction
+     *
+     * @return true iff the UTXOs were removed
+     */
+    public boolean spend(List<UTXO> utxos) {
+        for (UTXO ut : utxos)
+            if (!contains(ut))
+                return false;
+        for (UTXO ut : utxos)
+            removeUTXO(ut);
+        return true;
+    }
+
     /**
      * @return the transaction output corresponding to UTXO {@code utxo}, or null if {@code utxo} is
      *         not in the pool.
@@ -42,13 +140,32 @@ public class UTXOPool {
         return H.containsKey(utxo);
     }
 
+    /** @return the number of UTXOs in the pool */
+    public int size() {
+        return H.size();
+    }
+
+    /**
+     * @return a stream of the UTXOs of the pool with their outputs, without copying them: the
+     *         stream iterates over a constant-time snapshot, unaffected by later changes. Pools
+     *         keeping their UTXOs elsewhere stream those of {@link #getAllUTXO} unless they
+     *         override this method.
+     */
+    public Stream<Map.Entry<UTXO, Transaction.Output>> stream() {
+        if (!sharesTrie())
+            return getAllUTXO().stream().map(ut -> new AbstractMap.SimpleImmutableEntry<UTXO, Transaction.Output>(ut, getTxOutput(ut)));
+        HashTrie<UTXO, Transaction.Output> snapshot = H.snapshot();
+        return StreamSupport.stream(Spliterators.spliterator(snapshot.iterator(), snapshot.size(),
+                Spliterator.DISTINCT | Spliterator.NONNULL | Spliterator.IMMUTABLE), false);
+    }
+
     /** Returns an {@code ArrayList} of all UTXOs in the pool */
     public ArrayList<UTXO> getAllUTXO() {
-        Set<UTXO> setUTXO = H.keySet();
-        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>();
-        for (UTXO ut : setUTXO) {
-            allUTXO.add(ut);
-        }
+        JfrEvents.PoolBulkOperation event = new JfrEvents.PoolBulkOperation();
+        event.begin();
+        ArrayList<UTXO> allUTXO = new ArrayList<UTXO>(H.size());
+        H.forEach((ut, txOut) -> allUTXO.add(ut));
+        commit(event, "getAllUTXO", this);
         return allUTXO;
     }
 }
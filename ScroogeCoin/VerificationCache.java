@@ -0,0 +1,124 @@
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.PublicKey;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Bounded, thread-safe cache of signature verification results, keyed by the SHA-256 digest of
+ * the public key, message and signature. Entries are spread over segments, each evicting its
+ * least recently used entry when full, so that concurrent lookups rarely contend.
+ */
+public class VerificationCache {
+
+    private static final int SEGMENTS = 16;
+
+    private static final ThreadLocal<MessageDigest> SHA256 = ThreadLocal.withInitial(() -> {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    });
+
+    private final int capacity;
+    private final Segment[] segments = new Segment[SEGMENTS];
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    /** Creates a cache holding the results of up to {@code capacity} verifications */
+    public VerificationCache(int capacity) {
+        this.capacity = capacity;
+        for (int i = 0; i < SEGMENTS; i++)
+            segments[i] = new Segment((capacity + SEGMENTS - 1) / SEGMENTS);
+    }
+
+    /** A segment of the cache, in least recently used order */
+    private static class Segment extends LinkedHashMap<ByteBuffer, Boolean> {
+        private static final long serialVersionUID = 1L;
+
+        private final int capacity;
+
+        Segment(int capacity) {
+            super(16, 0.75f, true);
+            this.capacity = capacity;
+        }
+
+        protected boolean removeEldestEntry(Map.Entry<ByteBuffer, Boolean> eldest) {
+            return size() > capacity;
+        }
+    }
+
+    /** @return the key under which the verification of {@code signature}, not null, is cached */
+    static ByteBuffer key(PublicKey pubKey, byte[] message, byte[] signature) {
+        MessageDigest md = SHA256.get();
+        md.update(pubKey.getEncoded());
+        md.update(ByteBuffer.allocate(2 * Integer.BYTES).putInt(message.length).putInt(signature.length).array());
+        md.update(message);
+        md.update(signature);
+        return ByteBuffer.wrap(md.digest());
+    }
+
+    /** @return the cached result of the verification under {@code key}, or null if unknown */
+    Boolean get(ByteBuffer key) {
+        Segment segment = segment(key);
+        Boolean valid;
+        synchronized (segment) {
+            valid = segment.get(key);
+        }
+        if (valid == null)
+            misses.increment();
+        else
+            hits.increment();
+        return valid;
+    }
+
+    /** Caches {@code valid} as the result of the verification under {@code key} */
+    void put(ByteBuffer key, boolean valid) {
+        Segment segment = segment(key);
+        synchronized (segment) {
+            segment.put(key, valid);
+        }
+    }
+
+    private Segment segment(ByteBuffer key) {
+        return segments[(key.get(0) & 0xff) % SEGMENTS];
+    }
+
+    /** @return the number of verifications answered from the cache */
+    public long getHits() {
+        return hits.sum();
+    }
+
+    /** @return the number of verifications not found in the cache */
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    /** @return the number of cached verification results */
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments)
+            synchronized (segment) {
+                size += segment.size();
+            }
+        return size;
+    }
+
+    /** @return the maximum number of cached verification results */
+    public int getCapacity() {
+        return capacity;
+    }
+
+    /** Removes all cached results and resets the counters */
+    public void clear() {
+        for (Segment segment : segments)
+            synchronized (segment) {
+                segment.clear();
+            }
+        hits.reset();
+        misses.reset();
+    }
+}
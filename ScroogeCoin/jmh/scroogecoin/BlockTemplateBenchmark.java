@@ -0,0 +1,89 @@
+package scroogecoin;
+
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Refresh of a template over unsigned pending transactions, a third of them spending an output
+ * of an earlier one, after one arrives and after a block is confirmed
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class BlockTemplateBenchmark {
+
+    @Param({"200000"})
+    int pending;
+
+    private Mempool mempool;
+    private BlockTemplate template;
+    private Transaction[] arrivals;
+    private final double[] fees = new double[1024];
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(Workloads.SEED);
+        mempool = new Mempool(Long.MAX_VALUE, Long.MAX_VALUE);
+        Transaction[] txs = new Transaction[pending + 1024];
+        byte[] hash = new byte[32];
+        for (int i = 0; i < txs.length; i++) {
+            Transaction tx = new Transaction();
+            if (i > 0 && random.nextInt(3) == 0) {
+                tx.addInput(txs[random.nextInt(i)].getHash(), 0);
+            } else {
+                random.nextBytes(hash);
+                tx.addInput(hash, 0);
+            }
+            tx.addOutput(1, Workloads.keys()[i % 8].getPublic());
+            tx.finalize();
+            txs[i] = tx;
+            if (i < pending)
+                mempool.add(tx, random.nextDouble());
+        }
+        arrivals = Arrays.copyOfRange(txs, pending, txs.length);
+        for (int i = 0; i < fees.length; i++)
+            fees[i] = random.nextDouble();
+        template = new BlockTemplate(mempool);
+        template.getFee();
+    }
+
+    /** A transaction arrives, the template is refreshed, and the transaction is confirmed */
+    @Benchmark
+    public double arrival() {
+        int i = next++ & 1023;
+        Transaction tx = arrivals[i];
+        mempool.add(tx, fees[i]);
+        double fee = template.getFee();
+        mempool.removeConfirmed(new Transaction[] {tx});
+        return fee;
+    }
+
+    /** The template is confirmed as a block and refilled, then its transactions arrive again */
+    @Benchmark
+    public double block() {
+        Transaction[] block = template.getTxs();
+        mempool.removeConfirmed(block);
+        double fee = template.getFee();
+        for (int i = 0; i < block.length; i++)
+            mempool.add(block[i], fees[(next + i) & 1023]);
+        next++;
+        return fee + template.getFee();
+    }
+}
@@ -0,0 +1,70 @@
+package scroogecoin;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Updates of a UTXO set commitment, and the comparison and encoding of commitments */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CommitmentBenchmark {
+
+    private final UTXO[] utxos = new UTXO[1024];
+    private final Transaction.Output[] outputs = new Transaction.Output[1024];
+    private UTXOCommitment commitment;
+    private UTXOCommitment other;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        Random random = new Random(Workloads.SEED);
+        Transaction tx = new Transaction();
+        for (int i = 0; i < utxos.length; i++) {
+            byte[] hash = new byte[32];
+            random.nextBytes(hash);
+            utxos[i] = new UTXO(hash, i & 3);
+            outputs[i] = tx.new Output(random.nextInt(100), Workloads.keys()[i & 7].getPublic());
+        }
+        commitment = new UTXOCommitment();
+        for (int i = 0; i < utxos.length; i++)
+            commitment.add(utxos[i], outputs[i]);
+        other = new UTXOCommitment(commitment);
+        other.remove(utxos[0], outputs[0]);
+        other.add(utxos[0], outputs[0]);
+    }
+
+    /** Adds a UTXO, as a pool does for each output of an accepted transaction */
+    @Benchmark
+    public UTXOCommitment add() {
+        int i = next++ & 1023;
+        commitment.add(utxos[i], outputs[i]);
+        return commitment;
+    }
+
+    /** Compares commitments of the same set built differently, as a node with another one */
+    @Benchmark
+    public boolean compare() {
+        return commitment.equals(other);
+    }
+
+    /** Encodes a commitment whose removals are not yet divided out, as a journal does per epoch */
+    @Benchmark
+    public byte[] getBytes() {
+        UTXOCommitment copy = new UTXOCommitment(other);
+        return copy.getBytes();
+    }
+}
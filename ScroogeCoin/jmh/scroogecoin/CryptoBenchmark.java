@@ -0,0 +1,47 @@
+package scroogecoin;
+
+import java.security.PublicKey;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Verification of an RSA signature, with and without the verification cache */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CryptoBenchmark {
+
+    @Param({"false", "true"})
+    boolean cached;
+
+    private PublicKey pubKey;
+    private byte[] message;
+    private byte[] signature;
+
+    @Setup
+    public void setup() throws Exception {
+        Crypto.setCache(cached ? new VerificationCache(Crypto.DEFAULT_CACHE_CAPACITY) : null);
+        Transaction tx = Workloads.epoch(1, new UTXOPool())[0];
+        pubKey = Workloads.keys()[0].getPublic();
+        message = tx.getRawDataToSign(0);
+        signature = tx.getInput(0).signature;
+    }
+
+    @Benchmark
+    public boolean verifySignature() {
+        return Crypto.verifySignature(pubKey, message, signature);
+    }
+}
@@ -0,0 +1,51 @@
+package scroogecoin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Encoding and hashing of a signed transaction */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TransactionBenchmark {
+
+    private Transaction tx;
+    private byte[] signature;
+
+    @Setup
+    public void setup() throws Exception {
+        tx = Workloads.epoch(1, new UTXOPool())[0];
+        signature = tx.getInput(0).signature;
+    }
+
+    @Benchmark
+    public byte[] getRawTx() {
+        return tx.getRawTx();
+    }
+
+    @Benchmark
+    public byte[] getRawDataToSign() {
+        return tx.getRawDataToSign(0);
+    }
+
+    /** Hashing after the encoding is invalidated by a signature */
+    @Benchmark
+    public byte[] finalizeAfterAddSignature() {
+        tx.addSignature(signature, 0);
+        tx.finalize();
+        return tx.getHash();
+    }
+}
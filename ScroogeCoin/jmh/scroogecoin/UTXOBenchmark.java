@@ -0,0 +1,59 @@
+package scroogecoin;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Creation of UTXO keys of 32-byte hashes and their lookup in a hash map */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class UTXOBenchmark {
+
+    private final byte[][] hashes = new byte[1024][32];
+    private final Map<UTXO, Integer> map = new HashMap<UTXO, Integer>();
+    private final UTXO probe = UTXO.probe();
+    private int next;
+
+    @Setup
+    public void setup() {
+        Random random = new Random(Workloads.SEED);
+        for (int i = 0; i < hashes.length; i++) {
+            random.nextBytes(hashes[i]);
+            map.put(new UTXO(hashes[i], i & 3), i);
+        }
+    }
+
+    @Benchmark
+    public UTXO newUTXO() {
+        int i = next++;
+        return new UTXO(hashes[i & 1023], i & 3);
+    }
+
+    @Benchmark
+    public Integer getNewKey() {
+        int i = next++;
+        return map.get(new UTXO(hashes[i & 1023], i & 3));
+    }
+
+    @Benchmark
+    public Integer getProbe() {
+        int i = next++;
+        return map.get(probe.set(hashes[i & 1023], i & 3));
+    }
+}
@@ -0,0 +1,94 @@
+package scroogecoin;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Operations of the UTXO pools on pools of random UTXOs */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Xmx4g")
+public class UTXOPoolBenchmark {
+
+    @Param({"UTXOPool", "OffHeapUTXOPool", "ConcurrentUTXOPool"})
+    String implementation;
+
+    @Param({"1000", "10000", "100000", "1000000"})
+    int size;
+
+    private UTXOPool pool;
+    private UTXO[] utxos;
+    private final UTXO[] absent = new UTXO[1024];
+    private Transaction.Output txOut;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        switch (implementation) {
+        case "UTXOPool":
+            pool = new UTXOPool();
+            break;
+        case "OffHeapUTXOPool":
+            pool = new OffHeapUTXOPool();
+            break;
+        case "ConcurrentUTXOPool":
+            pool = new ConcurrentUTXOPool();
+            break;
+        default:
+            throw new IllegalArgumentException(implementation);
+        }
+        Random random = new Random(Workloads.SEED);
+        Transaction tx = new Transaction();
+        tx.addOutput(1, Workloads.keys()[0].getPublic());
+        txOut = tx.getOutput(0);
+
+        utxos = new UTXO[size];
+        byte[] hash = new byte[32];
+        for (int i = 0; i < size; i++) {
+            random.nextBytes(hash);
+            utxos[i] = new UTXO(hash, i & 3);
+            pool.addUTXO(utxos[i], txOut);
+        }
+        for (int i = 0; i < absent.length; i++) {
+            random.nextBytes(hash);
+            absent[i] = new UTXO(hash, 0);
+        }
+    }
+
+    @Benchmark
+    public Transaction.Output getTxOutput() {
+        return pool.getTxOutput(utxos[Math.floorMod(next++ * 0x9E3779B97L, size)]);
+    }
+
+    @Benchmark
+    public boolean containsAbsent() {
+        return pool.contains(absent[next++ & 1023]);
+    }
+
+    @Benchmark
+    public UTXO addAndRemoveUTXO() {
+        UTXO utxo = absent[next++ & 1023];
+        pool.addUTXO(utxo, txOut);
+        pool.removeUTXO(utxo);
+        return utxo;
+    }
+
+    @Benchmark
+    public UTXOPool copy() {
+        return pool.copy();
+    }
+}
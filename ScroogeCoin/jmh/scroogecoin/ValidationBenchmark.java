@@ -0,0 +1,56 @@
+package scroogecoin;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Validation of epochs by the handlers, without caching signature verifications */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class ValidationBenchmark {
+
+    @Param({"10", "100", "1000"})
+    int epochSize;
+
+    private UTXOPool pool;
+    private Transaction[] epoch;
+    private TxHandler validator;
+    private int next;
+
+    @Setup
+    public void setup() throws Exception {
+        Crypto.setCache(null);
+        pool = new UTXOPool();
+        epoch = Workloads.epoch(epochSize, pool);
+        validator = new TxHandler(pool);
+    }
+
+    @Benchmark
+    public boolean isValidTx() {
+        return validator.isValidTx(epoch[next++ % epoch.length]);
+    }
+
+    @Benchmark
+    public Transaction[] handleTxs() {
+        return new TxHandler(pool).handleTxs(epoch);
+    }
+
+    @Benchmark
+    public Transaction[] maxFeeHandleTxs() {
+        return new MaxFeeTxHandler(pool).handleTxs(epoch);
+    }
+}
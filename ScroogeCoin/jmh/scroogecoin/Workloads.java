@@ -0,0 +1,84 @@
+package scroogecoin;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.PrivateKey;
+import java.security.SecureRandom;
+import java.security.Signature;
+import java.util.List;
+import java.util.Random;
+
+/** Workloads of the benchmarks, built from fixed seeds */
+final class Workloads {
+
+    static final long SEED = 42;
+
+    private static KeyPair[] keys;
+
+    private Workloads() {
+    }
+
+    /** @return the keys signing the workloads, the same in every fork */
+    static synchronized KeyPair[] keys() throws Exception {
+        if (keys == null) {
+            SecureRandom random = SecureRandom.getInstance("SHA1PRNG");
+            random.setSeed(SEED);
+            KeyPairGenerator keyGen = KeyPairGenerator.getInstance("RSA");
+            keyGen.initialize(1024, random);
+            keys = new KeyPair[8];
+            for (int i = 0; i < keys.length; i++)
+                keys[i] = keyGen.generateKeyPair();
+        }
+        return keys;
+    }
+
+    /**
+     * @return an epoch of {@code size} signed transactions, each spending an output of a genesis
+     *         transaction added to {@code pool}, where every fourth one also spends an output of
+     *         the previous transaction and every tenth one double-spends with a higher fee
+     */
+    static Transaction[] epoch(int size, UTXOPool pool) throws Exception {
+        KeyPair[] keys = keys();
+        Random random = new Random(SEED + size);
+        Transaction genesis = new Transaction();
+        for (int i = 0; i < size; i++)
+            genesis.addOutput(10 + random.nextInt(90), keys[i % keys.length].getPublic());
+        genesis.finalize();
+        for (int i = 0; i < size; i++)
+            pool.addUTXO(new UTXO(genesis.getHash(), i), genesis.getOutput(i));
+
+        Transaction[] txs = new Transaction[size];
+        for (int i = 0; i < size; i++) {
+            Transaction tx = new Transaction();
+            tx.addInput(genesis.getHash(), i);
+            double value = genesis.getOutput(i).value;
+            int owner = i % keys.length;
+            int[] owners = {owner};
+            if (i % 4 == 3) {
+                tx.addInput(txs[i - 1].getHash(), 1);
+                value += txs[i - 1].getOutput(1).value;
+                owners = new int[] {owner, owner};
+            } else if (i % 10 == 9) {
+                tx.addInput(genesis.getHash(), i - 1);
+                value += genesis.getOutput(i - 1).value;
+                owners = new int[] {owner, (i - 1) % keys.length};
+            }
+            double fee = random.nextDouble() * value / 10;
+            tx.addOutput((value - fee) / 2, keys[random.nextInt(keys.length)].getPublic());
+            tx.addOutput((value - fee) / 2, keys[(i + 1) % keys.length].getPublic());
+            List<Transaction.Input> inputs = tx.getInputs();
+            for (int index = 0; index < inputs.size(); index++)
+                tx.addSignature(sign(keys[owners[index]].getPrivate(), tx.getRawDataToSign(index)), index);
+            tx.finalize();
+            txs[i] = tx;
+        }
+        return txs;
+    }
+
+    static byte[] sign(PrivateKey sk, byte[] message) throws Exception {
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(sk);
+        signature.update(message);
+        return signature.sign();
+    }
+}
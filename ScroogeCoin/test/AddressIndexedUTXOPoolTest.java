@@ -0,0 +1,128 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.stream.Collectors;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Checks the balances and UTXOs of each address of {@link AddressIndexedUTXOPool} against a scan of the pool */
+class AddressIndexedUTXOPoolTest {
+
+    private static PublicKey[] addresses;
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        addresses = new PublicKey[3];
+        for (int i = 0; i < addresses.length; i++)
+            addresses[i] = generator.generateKeyPair().getPublic();
+    }
+
+    private static UTXO utxo(int i) {
+        return new UTXO(new byte[] {(byte) (i >> 8), (byte) i}, i & 3);
+    }
+
+    @Test
+    void followsAddsAndRemoves() {
+        Random random = new Random(1);
+        AddressIndexedUTXOPool pool = new AddressIndexedUTXOPool();
+        Transaction tx = new Transaction();
+        for (int step = 0; step < 2000; step++) {
+            UTXO utxo = utxo(random.nextInt(300));
+            int op = random.nextInt(10);
+            if (op < 5)
+                pool.addUTXO(utxo, tx.new Output(random.nextInt(1000) / 8.0, addresses[random.nextInt(addresses.length)]));
+            else if (op < 6)
+                pool.addUTXO(utxo, null);
+            else
+                pool.removeUTXO(utxo);
+            if (step % 50 == 0)
+                assertIndexed(pool);
+        }
+        assertIndexed(pool);
+    }
+
+    /** A UTXO mapped to no output is in the pool but not indexed, and is removed like any other */
+    @Test
+    void nullOutputs() {
+        AddressIndexedUTXOPool pool = new AddressIndexedUTXOPool();
+        UTXO utxo = utxo(1);
+        pool.addUTXO(utxo, null);
+        assertTrue(pool.contains(utxo));
+        assertEquals(0, pool.getAddressCount());
+
+        pool.addUTXO(utxo, new Transaction().new Output(2, addresses[0]));
+        assertEquals(2, pool.getBalance(addresses[0]));
+        pool.addUTXO(utxo, null);
+        assertEquals(0, pool.getBalance(addresses[0]));
+        pool.removeUTXO(utxo);
+        assertFalse(pool.contains(utxo));
+        assertEquals(0, pool.size());
+    }
+
+    /** The UTXOs of an address are read in pages of their view, and the whole pool in pages of a stream snapshot */
+    @Test
+    void pagesWhileChanging() {
+        AddressIndexedUTXOPool pool = new AddressIndexedUTXOPool();
+        Transaction tx = new Transaction();
+        for (int i = 0; i < 100; i++)
+            pool.addUTXO(utxo(i), tx.new Output(1, addresses[i % 2]));
+
+        List<UTXO> firstPage = new ArrayList<UTXO>();
+        Iterator<UTXO> cursor = pool.getUTXOs(addresses[0]).iterator();
+        for (int i = 0; i < 10; i++)
+            firstPage.add(cursor.next());
+        for (int i = 0; i < 10; i++)
+            assertEquals(utxo(2 * i), firstPage.get(i));
+
+        // A snapshot stream pages over the pool as it was, whatever changes meanwhile
+        Iterator<Map.Entry<UTXO, Transaction.Output>> snapshot = pool.stream().iterator();
+        for (int i = 0; i < 100; i += 2)
+            pool.removeUTXO(utxo(i));
+        pool.addUTXO(utxo(200), tx.new Output(1, addresses[0]));
+        int paged = 0;
+        while (snapshot.hasNext()) {
+            snapshot.next();
+            paged++;
+        }
+        assertEquals(100, paged);
+
+        assertEquals(List.of(utxo(200)), new ArrayList<UTXO>(pool.getUTXOs(addresses[0])));
+        assertEquals(1, pool.getBalance(addresses[0]));
+        assertEquals(50, pool.getBalance(addresses[1]));
+        assertEquals(pool.size(), pool.stream().skip(20).count() + 20);
+        assertIndexed(pool);
+    }
+
+    /** Balances and UTXOs of each address are those of a scan of the pool, as are those of a copy */
+    private static void assertIndexed(AddressIndexedUTXOPool pool) {
+        for (AddressIndexedUTXOPool checked : List.of(pool, (AddressIndexedUTXOPool) pool.copy())) {
+            Map<PublicKey, Double> balances = new HashMap<PublicKey, Double>();
+            Map<PublicKey, List<UTXO>> utxos = new LinkedHashMap<PublicKey, List<UTXO>>();
+            for (UTXO utxo : checked.getAllUTXO()) {
+                Transaction.Output txOut = checked.getTxOutput(utxo);
+                if (txOut == null) continue;
+                balances.merge(txOut.address, txOut.value, Double::sum);
+                utxos.computeIfAbsent(txOut.address, a -> new ArrayList<UTXO>()).add(utxo);
+            }
+            assertEquals(utxos.size(), checked.getAddressCount());
+            for (PublicKey address : addresses) {
+                assertEquals(balances.getOrDefault(address, 0.0), checked.getBalance(address), 1e-9);
+                assertEquals(utxos.getOrDefault(address, List.of()).stream().collect(Collectors.toSet()),
+                        checked.getUTXOs(address));
+            }
+        }
+    }
+}
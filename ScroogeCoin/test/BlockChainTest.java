@@ -0,0 +1,120 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Checks that {@link BlockChain} keeps the exact UTXO pool of its head across reorganizations */
+class BlockChainTest {
+
+    private static KeyPair keys;
+    private static Transaction genesis;
+
+    @BeforeAll
+    static void generate() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        keys = generator.generateKeyPair();
+        genesis = new Transaction();
+        for (int i = 0; i < 4; i++)
+            genesis.addOutput(10, keys.getPublic());
+        genesis.finalize();
+    }
+
+    /** @return a transaction signed by the key of the fixture, claiming output {@code index} of {@code parent} */
+    private static Transaction spend(Transaction parent, int index, double... values) throws Exception {
+        Transaction tx = new Transaction();
+        tx.addInput(parent.getHash(), index);
+        for (double value : values)
+            tx.addOutput(value, keys.getPublic());
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keys.getPrivate());
+        signature.update(tx.getRawDataToSign(0));
+        tx.addSignature(signature.sign(), 0);
+        tx.finalize();
+        return tx;
+    }
+
+    private static UTXOPool genesisPool() {
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < genesis.numOutputs(); i++)
+            pool.addUTXO(new UTXO(genesis.getHash(), i), genesis.getOutput(i));
+        return pool;
+    }
+
+    /** @return the UTXOs of the genesis pool after handling the blocks from the genesis block up to {@code head} */
+    private static Map<UTXO, Transaction.Output> replay(Block head) {
+        List<Block> blocks = new ArrayList<Block>();
+        for (Block block = head; block.getParent() != null; block = block.getParent())
+            blocks.add(0, block);
+        TxHandler handler = new TxHandler(genesisPool());
+        for (Block block : blocks)
+            assertEquals(block.getTransactions().length, handler.handleTxs(block.getTransactions()).length);
+        return utxos(handler.utxoPool);
+    }
+
+    private static Map<UTXO, Transaction.Output> utxos(UTXOPool pool) {
+        Map<UTXO, Transaction.Output> utxos = new HashMap<UTXO, Transaction.Output>();
+        for (UTXO utxo : pool.getAllUTXO())
+            utxos.put(utxo, pool.getTxOutput(utxo));
+        return utxos;
+    }
+
+    private static void assertPool(Map<UTXO, Transaction.Output> expected, BlockChain chain) {
+        Map<UTXO, Transaction.Output> actual = utxos(chain.getUTXOPool());
+        assertEquals(expected.keySet(), actual.keySet());
+        for (Map.Entry<UTXO, Transaction.Output> entry : expected.entrySet())
+            assertSame(entry.getValue(), actual.get(entry.getKey()), "output of " + entry.getKey());
+    }
+
+    @Test
+    void reorganizesToForkAndBack() throws Exception {
+        BlockChain chain = new BlockChain(genesisPool());
+        Block root = chain.getGenesisBlock();
+        Map<UTXO, Transaction.Output> initial = utxos(genesisPool());
+        assertPool(initial, chain);
+
+        // The main branch: a split, then spends of both halves
+        Transaction split = spend(genesis, 0, 4, 6);
+        Block main1 = chain.addBlock(root.getHash(), new Transaction[] {split, spend(genesis, 1, 10)});
+        Transaction left = spend(split, 0, 4);
+        Block main2 = chain.addBlock(main1.getHash(), new Transaction[] {left, spend(split, 1, 3, 3)});
+        assertSame(main2, chain.getHead());
+        Map<UTXO, Transaction.Output> atMain2 = replay(main2);
+        assertPool(atMain2, chain);
+
+        // A fork spending the same genesis output differently, which becomes longest at its third block
+        Transaction other = spend(genesis, 0, 9);
+        Block fork1 = chain.addBlock(root.getHash(), new Transaction[] {other, spend(genesis, 2, 10)});
+        Block fork2 = chain.addBlock(fork1.getHash(), new Transaction[] {spend(other, 0, 8)});
+        assertSame(main2, chain.getHead());
+        assertPool(atMain2, chain);
+        Block fork3 = chain.addBlock(fork2.getHash(), new Transaction[] {spend(genesis, 3, 5, 5)});
+        assertSame(fork3, chain.getHead());
+        assertPool(replay(fork3), chain);
+
+        // The main branch grows longest again
+        Block main3 = chain.addBlock(main2.getHash(), new Transaction[] {spend(left, 0, 4)});
+        assertSame(fork3, chain.getHead());
+        Block main4 = chain.addBlock(main3.getHash(), new Transaction[] {spend(genesis, 3, 1)});
+        assertSame(main4, chain.getHead());
+        assertPool(replay(main4), chain);
+
+        // Transactions invalid on their parent are left out, and blocks on unknown parents rejected
+        Block stale = chain.addBlock(fork1.getHash(), new Transaction[] {split, spend(genesis, 1, 1)});
+        assertEquals(1, stale.getTransactions().length);
+        assertSame(main4, chain.getHead());
+        assertPool(replay(main4), chain);
+        assertNull(chain.addBlock(new byte[32], new Transaction[0]));
+        assertNull(chain.addBlock(null, new Transaction[0]));
+    }
+}
@@ -0,0 +1,217 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Checks that a {@link BlockTemplate} following a mempool through adds, confirmations, evictions
+ * and expiries agrees with a template rebuilt from scratch on the same mempool
+ */
+class BlockTemplateTest {
+
+    private static PublicKey address;
+    private static Transaction genesis;
+
+    @BeforeAll
+    static void generate() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        address = generator.generateKeyPair().getPublic();
+        genesis = new Transaction();
+        for (int i = 0; i < 256; i++)
+            genesis.addOutput(10, address);
+        genesis.finalize();
+    }
+
+    /** Distinguishes the hashes of transactions claiming the same output, e.g., again after it was confirmed */
+    private static int serial;
+
+    /** @return an unsigned transaction of {@code numOutputs} outputs claiming output {@code index} of {@code parent} */
+    private static Transaction spend(Transaction parent, int index, int numOutputs) {
+        Transaction tx = new Transaction();
+        tx.addInput(parent.getHash(), index);
+        tx.addOutput(++serial, address);
+        for (int i = 1; i < numOutputs; i++)
+            tx.addOutput(1, address);
+        tx.finalize();
+        return tx;
+    }
+
+    @Test
+    void parentAndChild() {
+        Mempool mempool = new Mempool();
+        BlockTemplate template = new BlockTemplate(mempool);
+        Transaction parent = spend(genesis, 0, 1);
+        Transaction child = spend(parent, 0, 1);
+        mempool.add(parent, 1);
+        mempool.add(child, 9);
+        assertArrayEquals(new Transaction[] {parent, child}, template.getTxs());
+        assertEquals(10, template.getFee());
+
+        mempool.removeConfirmed(new Transaction[] {parent});
+        assertArrayEquals(new Transaction[] {child}, template.getTxs());
+        assertEquals(9, template.getFee());
+        assertEquals(child.getRawTxLength(), template.getBytes());
+        assertSameAsRebuilt(mempool, template);
+    }
+
+    /** A child paying for its parent evicts a cheaper transaction, which returns once the parent is confirmed */
+    @Test
+    void childEvictsCheaperTransaction() {
+        Mempool mempool = new Mempool();
+        Transaction parent = spend(genesis, 0, 1);
+        Transaction child = spend(parent, 0, 1);
+        Transaction other = spend(genesis, 1, 1);
+        BlockTemplate template = new BlockTemplate(mempool, parent.getRawTxLength() + other.getRawTxLength());
+        mempool.add(parent, 1);
+        mempool.add(other, 2);
+        assertArrayEquals(new Transaction[] {other, parent}, template.getTxs());
+        mempool.add(child, 50);
+        assertArrayEquals(new Transaction[] {parent, child}, template.getTxs());
+        assertEquals(51, template.getFee());
+        assertSameAsRebuilt(mempool, template);
+
+        mempool.removeConfirmed(new Transaction[] {parent});
+        assertArrayEquals(new Transaction[] {child, other}, template.getTxs());
+        assertSameAsRebuilt(mempool, template);
+    }
+
+    /** With a budget fitting the whole mempool, the template holds it all, as does a rebuilt one */
+    @Test
+    void followsMempoolWithinBudget() {
+        Random random = new Random(1);
+        long[] now = {0};
+        Mempool mempool = new Mempool(8000, 60, () -> now[0]);
+        BlockTemplate template = new BlockTemplate(mempool, mempool.getMaxBytes());
+        for (int step = 0; step < 400; step++) {
+            now[0]++;
+            step(random, mempool);
+            if (step % 7 == 0) {
+                assertSameAsRebuilt(mempool, template);
+                assertEquals(mempool.size(), template.size());
+            }
+        }
+    }
+
+    /**
+     * With a binding budget, the template is greedy: each transaction left out whose parents are
+     * in it would not fit even by evicting transactions of a lower fee per byte without children
+     * in it. Its totals are those of its transactions, as in a rebuilt one.
+     */
+    @Test
+    void followsMempoolOverBudget() {
+        Random random = new Random(2);
+        long[] now = {0};
+        Mempool mempool = new Mempool(8000, 60, () -> now[0]);
+        BlockTemplate template = new BlockTemplate(mempool, 2000);
+        int excluded = 0;
+        for (int step = 0; step < 400; step++) {
+            now[0]++;
+            step(random, mempool);
+            if (step % 7 == 0) {
+                excluded += mempool.size() - template.size();
+                assertConsistent(mempool, template);
+                assertGreedy(mempool, template);
+                BlockTemplate rebuilt = new BlockTemplate(mempool, template.getMaxBytes());
+                assertConsistent(mempool, rebuilt);
+                assertGreedy(mempool, rebuilt);
+                rebuilt.close();
+            }
+        }
+        assertTrue(excluded > 0);
+    }
+
+    /** Adds a transaction, claiming an output of genesis or of an entry, confirms an entry or expires entries */
+    private static void step(Random random, Mempool mempool) {
+        Transaction[] txs = mempool.getTxsByArrival();
+        int op = random.nextInt(10);
+        if (op < 6 || txs.length == 0) {
+            Transaction parent = txs.length > 0 && random.nextBoolean() ? txs[random.nextInt(txs.length)] : genesis;
+            mempool.add(spend(parent, random.nextInt(parent.numOutputs()), 1 + random.nextInt(3)), random.nextDouble() * 100);
+        } else if (op < 9) {
+            mempool.removeConfirmed(new Transaction[] {txs[random.nextInt(txs.length)]});
+        } else {
+            mempool.expire();
+        }
+    }
+
+    private static void assertSameAsRebuilt(Mempool mempool, BlockTemplate template) {
+        BlockTemplate rebuilt = new BlockTemplate(mempool, template.getMaxBytes());
+        assertEquals(new HashSet<Transaction>(Arrays.asList(rebuilt.getTxs())), new HashSet<Transaction>(Arrays.asList(template.getTxs())));
+        assertEquals(rebuilt.getFee(), template.getFee(), 1e-9);
+        assertEquals(rebuilt.getBytes(), template.getBytes());
+        rebuilt.close();
+        assertConsistent(mempool, template);
+    }
+
+    /** Transactions of the template are entries following their parents, within budget and totalling its fee and bytes */
+    private static void assertConsistent(Mempool mempool, BlockTemplate template) {
+        Map<ByteBuffer, Transaction> entries = byHash(mempool);
+        Set<Transaction> seen = new HashSet<Transaction>();
+        double fee = 0;
+        long bytes = 0;
+        for (Transaction tx : template.getTxs()) {
+            assertTrue(mempool.contains(tx));
+            assertTrue(seen.containsAll(parents(tx, entries)));
+            seen.add(tx);
+            fee += mempool.getFee(tx);
+            bytes += tx.getRawTxLength();
+        }
+        assertEquals(fee, template.getFee(), 1e-9);
+        assertEquals(bytes, template.getBytes());
+        assertTrue(bytes <= template.getMaxBytes());
+    }
+
+    private static void assertGreedy(Mempool mempool, BlockTemplate template) {
+        Map<ByteBuffer, Transaction> entries = byHash(mempool);
+        Set<Transaction> included = new HashSet<Transaction>(Arrays.asList(template.getTxs()));
+        Set<Transaction> withChildren = new HashSet<Transaction>();
+        for (Transaction tx : included)
+            withChildren.addAll(parents(tx, entries));
+        for (Transaction tx : mempool.getTxs()) {
+            List<Transaction> parents = parents(tx, entries);
+            if (included.contains(tx) || !included.containsAll(parents)) continue;
+            long evictable = 0;
+            for (Transaction leaf : included)
+                if (!withChildren.contains(leaf) && !parents.contains(leaf) && rate(mempool, leaf) < rate(mempool, tx))
+                    evictable += leaf.getRawTxLength();
+            assertTrue(template.getBytes() + tx.getRawTxLength() > template.getMaxBytes() + evictable);
+        }
+    }
+
+    private static double rate(Mempool mempool, Transaction tx) {
+        return mempool.getFee(tx) / tx.getRawTxLength();
+    }
+
+    private static Map<ByteBuffer, Transaction> byHash(Mempool mempool) {
+        Map<ByteBuffer, Transaction> entries = new HashMap<ByteBuffer, Transaction>();
+        for (Transaction tx : mempool.getTxs())
+            entries.put(ByteBuffer.wrap(tx.getHash()), tx);
+        return entries;
+    }
+
+    /** @return the entries whose outputs {@code tx} claims */
+    private static List<Transaction> parents(Transaction tx, Map<ByteBuffer, Transaction> entries) {
+        List<Transaction> parents = new ArrayList<Transaction>();
+        for (Transaction.Input input : tx.getInputs()) {
+            Transaction parent = entries.get(ByteBuffer.wrap(input.prevTxHash));
+            if (parent != null && !parents.contains(parent))
+                parents.add(parent);
+        }
+        return parents;
+    }
+}
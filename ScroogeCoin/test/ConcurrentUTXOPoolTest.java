@@ -0,0 +1,141 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import org.junit.jupiter.api.Test;
+
+/** Checks that each output of a {@link ConcurrentUTXOPool} is spent exactly once however many threads race for it */
+class ConcurrentUTXOPoolTest {
+
+    private static final int THREADS = 4;
+    private static final int OUTPOINTS = 200;
+
+    private static UTXO utxo(int i) {
+        return new UTXO(new byte[] {(byte) (i >> 8), (byte) i}, 0);
+    }
+
+    @Test
+    void spendsEachOutpointOnce() throws Exception {
+        ConcurrentUTXOPool pool = new ConcurrentUTXOPool();
+        Transaction tx = new Transaction();
+        for (int i = 0; i < OUTPOINTS; i++)
+            pool.addUTXO(utxo(i), i % 10 == 0 ? null : tx.new Output(i, null));
+
+        AtomicIntegerArray wins = new AtomicIntegerArray(OUTPOINTS);
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            List<Callable<Void>> spenders = new ArrayList<Callable<Void>>();
+            for (int t = 0; t < THREADS; t++) {
+                Random random = new Random(t);
+                spenders.add(() -> {
+                    // Pairs of random outpoints, then every outpoint alone, each in a random order
+                    List<List<Integer>> claims = new ArrayList<List<Integer>>();
+                    for (int k = 0; k < OUTPOINTS; k++) {
+                        int i = random.nextInt(OUTPOINTS), j = random.nextInt(OUTPOINTS);
+                        claims.add(i == j ? List.of(i) : List.of(i, j));
+                    }
+                    List<List<Integer>> singles = new ArrayList<List<Integer>>();
+                    for (int i = 0; i < OUTPOINTS; i++)
+                        singles.add(List.of(i));
+                    Collections.shuffle(singles, random);
+                    claims.addAll(singles);
+                    for (List<Integer> claim : claims) {
+                        List<UTXO> utxos = new ArrayList<UTXO>();
+                        for (int i : claim)
+                            utxos.add(utxo(i));
+                        if (pool.spend(utxos))
+                            for (int i : claim)
+                                wins.incrementAndGet(i);
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> spender : executor.invokeAll(spenders))
+                spender.get();
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < OUTPOINTS; i++)
+            assertEquals(1, wins.get(i), "outpoint " + i);
+        assertEquals(0, pool.size());
+    }
+
+    /** Handlers sharing the pool accept conflicting transactions of their epochs concurrently, each outpoint once */
+    @Test
+    void sharedHandlersDoubleSpend() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keys = generator.generateKeyPair();
+        int numOutputs = 40;
+        Transaction genesis = new Transaction();
+        for (int i = 0; i < numOutputs; i++)
+            genesis.addOutput(10, keys.getPublic());
+        genesis.finalize();
+        ConcurrentUTXOPool pool = new ConcurrentUTXOPool();
+        for (int i = 0; i < numOutputs; i++)
+            pool.addUTXO(new UTXO(genesis.getHash(), i), genesis.getOutput(i));
+
+        // Each handler's epoch claims every output, in pairs of neighbours offset by handler
+        List<Callable<Transaction[]>> epochs = new ArrayList<Callable<Transaction[]>>();
+        for (int h = 0; h < THREADS; h++) {
+            List<Transaction> txs = new ArrayList<Transaction>();
+            for (int i = h % 2; i < numOutputs + h % 2; i += 2) {
+                Transaction tx = new Transaction();
+                tx.addInput(genesis.getHash(), i % numOutputs);
+                tx.addInput(genesis.getHash(), (i + 1) % numOutputs);
+                tx.addOutput(20 - h, keys.getPublic());
+                for (int index = 0; index < 2; index++) {
+                    Signature signature = Signature.getInstance("SHA256withRSA");
+                    signature.initSign(keys.getPrivate());
+                    signature.update(tx.getRawDataToSign(index));
+                    tx.addSignature(signature.sign(), index);
+                }
+                tx.finalize();
+                txs.add(tx);
+            }
+            TxHandler handler = new TxHandler(pool, true);
+            Transaction[] possibleTxs = txs.toArray(new Transaction[0]);
+            epochs.add(() -> handler.handleTxs(possibleTxs));
+        }
+
+        Set<UTXO> claimed = new HashSet<UTXO>();
+        int accepted = 0;
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        try {
+            for (Future<Transaction[]> epoch : executor.invokeAll(epochs)) {
+                for (Transaction tx : epoch.get()) {
+                    accepted++;
+                    for (Transaction.Input input : tx.getInputs())
+                        assertTrue(claimed.add(new UTXO(input.prevTxHash, input.outputIndex)));
+                }
+            }
+        } finally {
+            executor.shutdown();
+        }
+        assertEquals(numOutputs - claimed.size() + accepted, pool.size());
+        assertTrue(accepted > 0);
+        for (int i = 0; i < numOutputs; i++) {
+            UTXO utxo = new UTXO(genesis.getHash(), i);
+            assertTrue(pool.contains(utxo) != claimed.contains(utxo));
+        }
+
+        // Inherited paths read the UTXOs of the pool, not an empty trie
+        assertEquals(pool.size(), new UTXOPool(pool).size());
+        assertEquals(pool.size(), pool.copy().stream().count());
+        assertEquals(UTXOCommitment.of(new UTXOPool(pool)), UTXOCommitment.of(pool));
+    }
+}
@@ -0,0 +1,136 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Checks that {@link DurableUTXOPool} recovers UTXOs, and the ids of their addresses, from its checkpoint and log */
+class DurableUTXOPoolTest {
+
+    private static PublicKey address;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void generateKey() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        address = generator.generateKeyPair().getPublic();
+    }
+
+    /** A hash longer than {@link OffHeapUTXOPool#MAX_HASH_LENGTH} keeps its UTXO on the heap */
+    private static UTXO longHashUTXO(int index) {
+        byte[] txHash = new byte[OffHeapUTXOPool.MAX_HASH_LENGTH + 8];
+        Arrays.fill(txHash, (byte) 7);
+        return new UTXO(txHash, index);
+    }
+
+    @Test
+    void recoversLongHashFromLog() throws Exception {
+        UTXO utxo = longHashUTXO(0);
+        try (DurableUTXOPool pool = DurableUTXOPool.open(directory)) {
+            pool.addUTXO(utxo, new Transaction().new Output(2.5, address));
+            pool.commit();
+        }
+        try (DurableUTXOPool pool = DurableUTXOPool.open(directory)) {
+            assertRecovered(pool, utxo, 2.5);
+        }
+    }
+
+    @Test
+    void recoversLongHashFromCheckpoint() throws Exception {
+        UTXO utxo = longHashUTXO(1);
+        try (DurableUTXOPool pool = DurableUTXOPool.open(directory)) {
+            pool.addUTXO(utxo, new Transaction().new Output(4, address));
+            pool.checkpoint();
+        }
+        try (DurableUTXOPool pool = DurableUTXOPool.open(directory)) {
+            assertRecovered(pool, utxo, 4);
+        }
+    }
+
+    /**
+     * Addresses churning through commits, checkpoints and reopens reuse their ids, and the
+     * recovered pool holds the outputs and address references of the last commit
+     */
+    @Test
+    void recoversReusedAddressIds() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        PublicKey[] addresses = new PublicKey[20];
+        for (int i = 0; i < addresses.length; i++)
+            addresses[i] = generator.generateKeyPair().getPublic();
+        List<UTXO> utxos = new ArrayList<UTXO>();
+        for (int i = 0; i < 6; i++)
+            utxos.add(new UTXO(new byte[] {(byte) i}, 0));
+        for (int i = 0; i < 2; i++)
+            utxos.add(longHashUTXO(i));
+
+        Random random = new Random(1);
+        Map<UTXO, Transaction.Output> committed = new HashMap<UTXO, Transaction.Output>();
+        Transaction tx = new Transaction();
+        for (int round = 0; round < 12; round++) {
+            // A small threshold, so that some commits also take a checkpoint
+            try (DurableUTXOPool pool = DurableUTXOPool.open(directory, 512)) {
+                assertPool(committed, utxos, pool);
+                Map<UTXO, Transaction.Output> model = new HashMap<UTXO, Transaction.Output>(committed);
+                for (int step = 0; step < 30; step++) {
+                    UTXO utxo = utxos.get(random.nextInt(utxos.size()));
+                    if (random.nextInt(4) > 0) {
+                        Transaction.Output txOut = tx.new Output(step, addresses[random.nextInt(addresses.length)]);
+                        pool.addUTXO(utxo, txOut);
+                        model.put(utxo, txOut);
+                    } else {
+                        pool.removeUTXO(utxo);
+                        model.remove(utxo);
+                    }
+                    if (step % 10 == 9) {
+                        pool.commit();
+                        committed = new HashMap<UTXO, Transaction.Output>(model);
+                    }
+                }
+                if (round % 4 == 3)
+                    pool.checkpoint();
+                assertTrue(pool.addresses().size() <= utxos.size() + 1, "ids " + pool.addresses().size());
+            }
+        }
+    }
+
+    private static void assertPool(Map<UTXO, Transaction.Output> model, List<UTXO> utxos, OffHeapUTXOPool pool) {
+        assertEquals(model.size(), pool.size());
+        Map<PublicKey, Integer> references = new HashMap<PublicKey, Integer>();
+        for (UTXO utxo : utxos) {
+            Transaction.Output expected = model.get(utxo), txOut = pool.getTxOutput(utxo);
+            assertEquals(expected == null, txOut == null, "output of " + utxo);
+            if (expected == null) continue;
+            assertEquals(expected.value, txOut.value);
+            assertEquals(expected.address, txOut.address);
+            references.merge(expected.address, 1, Integer::sum);
+        }
+        List<PublicKey> interned = pool.addresses();
+        for (int id = 0; id < interned.size(); id++)
+            if (interned.get(id) != null)
+                assertEquals(references.remove(interned.get(id)), pool.references(id), "references of " + id);
+        assertEquals(Map.of(), references);
+    }
+
+    private static void assertRecovered(UTXOPool pool, UTXO utxo, double value) {
+        Transaction.Output txOut = pool.getTxOutput(utxo);
+        assertNotNull(txOut);
+        assertEquals(value, txOut.value);
+        assertEquals(address, txOut.address);
+        assertEquals(1, pool.getAllUTXO().size());
+    }
+}
@@ -0,0 +1,89 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+/** Checks that {@link JournalReplay} accepts the transactions recorded by {@link EpochJournal} */
+class EpochJournalTest {
+
+    private static Fixture fixture;
+
+    @TempDir
+    Path directory;
+
+    @BeforeAll
+    static void generate() throws Exception {
+        TxGraphGenerator generator = new TxGraphGenerator(5);
+        generator.setKeys(4, "RSA", 1024);
+        generator.setGenesisOutputs(40);
+        generator.setDoubleSpendRate(0.1);
+        generator.setInvalidSignatureRate(0.05);
+        fixture = generator.generate(120);
+    }
+
+    /**
+     * Epochs with a transaction missing an output and an address, and a pool with a UTXO mapped to
+     * no output, are replayed to the same accepted transactions and commitments
+     */
+    @Test
+    void replayAcceptsRecordedTxs() throws Exception {
+        UTXOPool utxoPool = new CommittedUTXOPool(fixture.getUTXOPool());
+        utxoPool.addUTXO(new UTXO(new byte[] {1, 2, 3}, 0), null);
+        Path path = directory.resolve("epochs.journal");
+
+        Transaction[] txs = fixture.getTxs();
+        Transaction incomplete = new Transaction(txs[0]);
+        incomplete.addOutput(1, null);
+        incomplete.getOutputs().add(null);
+        incomplete.setHash(new byte[] {9, 9, 9});
+
+        TxHandler handler = new TxHandler(utxoPool);
+        List<Transaction[]> accepted = new ArrayList<Transaction[]>();
+        long numAccepted = 0;
+        try (EpochJournal journal = EpochJournal.create(path, utxoPool)) {
+            for (int from = 0; from < txs.length; from += 40) {
+                List<Transaction> epoch = new ArrayList<Transaction>(Arrays.asList(txs).subList(from, from + 40));
+                if (from == 40)
+                    epoch.add(incomplete);
+                Transaction[] acceptedTxs = journal.handle(handler, epoch.toArray(new Transaction[0]));
+                accepted.add(acceptedTxs);
+                numAccepted += acceptedTxs.length;
+            }
+        }
+        assertTrue(numAccepted > 0);
+
+        List<Transaction[]> replayed = new ArrayList<Transaction[]>();
+        JournalReplay.Report report;
+        try (JournalReplay replay = new JournalReplay(path)) {
+            report = replay.replay(pool -> new TxHandler(pool) {
+                @Override
+                public Transaction[] handleTxs(Transaction[] possibleTxs) {
+                    Transaction[] acceptedTxs = super.handleTxs(possibleTxs);
+                    replayed.add(acceptedTxs);
+                    return acceptedTxs;
+                }
+            }, false);
+        }
+        assertTrue(report.isConsistent(), report::toString);
+        assertEquals(3, report.getEpochs());
+        assertEquals(txs.length + 1, report.getTxs());
+        assertEquals(numAccepted, report.getAcceptedTxs());
+        for (int epoch = 0; epoch < accepted.size(); epoch++)
+            assertArrayEquals(hashes(accepted.get(epoch)), hashes(replayed.get(epoch)));
+    }
+
+    private static byte[][] hashes(Transaction[] txs) {
+        byte[][] hashes = new byte[txs.length][];
+        for (int i = 0; i < txs.length; i++)
+            hashes[i] = txs[i].getHash();
+        return hashes;
+    }
+}
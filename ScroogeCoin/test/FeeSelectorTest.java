@@ -0,0 +1,160 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.ByteBuffer;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+/** Checks that {@link FeeSelector} selects mutually valid transactions of maximum total fee */
+class FeeSelectorTest {
+
+    /** Small epochs of conflicting and dependent transactions, whose subsets can all be tried */
+    private static Fixture smallEpoch(long seed) throws Exception {
+        TxGraphGenerator generator = new TxGraphGenerator(seed);
+        generator.setKeys(2, "RSA", 1024);
+        generator.setGenesisOutputs(4);
+        generator.setFanInOut(2, 2);
+        generator.setDoubleSpendRate(0.4);
+        generator.setInvalidSignatureRate(0.05);
+        return generator.generate(12);
+    }
+
+    private static FeeSelector.Selection select(FeeSelector selector, UTXOPool utxoPool, Transaction[] orderedTxs) {
+        TxPrecheck[] prechecks = new MaxFeeTxHandler(utxoPool).precheck(orderedTxs);
+        return selector.select(orderedTxs, prechecks, utxoPool);
+    }
+
+    @Test
+    void matchesBruteForce() throws Exception {
+        int conflicting = 0;
+        for (long seed = 1; seed <= 8; seed++) {
+            Fixture fixture = smallEpoch(seed);
+            UTXOPool utxoPool = fixture.getUTXOPool();
+            Transaction[] orderedTxs = EpochScheduler.order(fixture.getTxs());
+            FeeSelector.Selection selection = select(new FeeSelector(), utxoPool, orderedTxs);
+
+            assertMutuallyValid(utxoPool, selection);
+            assertTrue(selection.isOptimal());
+            assertEquals(bruteForce(utxoPool, orderedTxs), selection.getFee(), 1e-9, "seed " + seed);
+            assertEquals(selection.getFee(), selection.getBound(), 1e-9);
+            if (selection.getTxs().length < orderedTxs.length)
+                conflicting++;
+        }
+        assertTrue(conflicting > 0);
+    }
+
+    /**
+     * A ring of transactions each claiming the outputs its neighbours claim is searched longer than
+     * a deadline already past allows, leaving the greedy selection with the sum of fees as bound
+     */
+    @Test
+    void boundUnderPastDeadline() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        KeyPair keys = generator.generateKeyPair();
+        int n = 31;
+        Transaction genesis = new Transaction();
+        for (int i = 0; i < n; i++)
+            genesis.addOutput(100, keys.getPublic());
+        genesis.finalize();
+        UTXOPool utxoPool = new UTXOPool();
+        for (int i = 0; i < n; i++)
+            utxoPool.addUTXO(new UTXO(genesis.getHash(), i), genesis.getOutput(i));
+
+        Random random = new Random(3);
+        Transaction[] txs = new Transaction[n];
+        double total = 0;
+        for (int i = 0; i < n; i++) {
+            double fee = 1 + random.nextInt(50);
+            total += fee;
+            txs[i] = new Transaction();
+            txs[i].addInput(genesis.getHash(), i);
+            txs[i].addInput(genesis.getHash(), (i + 1) % n);
+            txs[i].addOutput(200 - fee, keys.getPublic());
+            for (int index = 0; index < 2; index++) {
+                Signature signature = Signature.getInstance("SHA256withRSA");
+                signature.initSign(keys.getPrivate());
+                signature.update(txs[i].getRawDataToSign(index));
+                txs[i].addSignature(signature.sign(), index);
+            }
+            txs[i].finalize();
+        }
+        Transaction[] orderedTxs = EpochScheduler.order(txs);
+
+        FeeSelector.Selection optimal = select(new FeeSelector(n, Long.MAX_VALUE / 2), utxoPool, orderedTxs);
+        assertTrue(optimal.isOptimal());
+        assertMutuallyValid(utxoPool, optimal);
+        FeeSelector.Selection timedOut = select(new FeeSelector(n, 0), utxoPool, orderedTxs);
+        assertMutuallyValid(utxoPool, timedOut);
+        assertFalse(timedOut.isOptimal());
+        assertEquals(total, timedOut.getBound(), 1e-9);
+        assertTrue(timedOut.getFee() <= optimal.getFee());
+        assertTrue(optimal.getFee() <= timedOut.getBound());
+    }
+
+    /** No two selected transactions claim the same output, and each follows the selected ones it claims outputs of */
+    private static void assertMutuallyValid(UTXOPool utxoPool, FeeSelector.Selection selection) {
+        Set<UTXO> claimed = new HashSet<UTXO>();
+        Set<ByteBuffer> preceding = new HashSet<ByteBuffer>();
+        UTXOPool applied = new UTXOPool(utxoPool);
+        TxValidator validator = new TxValidator();
+        Transaction[] txs = selection.getTxs();
+        double fee = 0;
+        for (int i = 0; i < txs.length; i++) {
+            for (Transaction.Input input : txs[i].getInputs()) {
+                UTXO utxo = new UTXO(input.prevTxHash, input.outputIndex);
+                assertTrue(claimed.add(utxo));
+                assertTrue(utxoPool.contains(utxo) || preceding.contains(ByteBuffer.wrap(input.prevTxHash)));
+            }
+            preceding.add(ByteBuffer.wrap(txs[i].getHash()));
+
+            assertEquals(TxValidator.Verdict.VALID, validator.validate(txs[i], applied));
+            assertEquals(validator.getFee(), selection.getFee(i), 1e-9);
+            fee += selection.getFee(i);
+            for (Transaction.Input input : txs[i].getInputs())
+                applied.removeUTXO(new UTXO(input.prevTxHash, input.outputIndex));
+            for (int index = 0; index < txs[i].numOutputs(); index++)
+                applied.addUTXO(new UTXO(txs[i].getHash(), index), txs[i].getOutput(index));
+        }
+        assertEquals(fee, selection.getFee(), 1e-9);
+        assertTrue(selection.getFee() <= selection.getBound() + 1e-9);
+    }
+
+    /** @return the maximum total fee of the subsets of {@code orderedTxs} whose claims resolve and are distinct */
+    private static double bruteForce(UTXOPool utxoPool, Transaction[] orderedTxs) {
+        int n = orderedTxs.length;
+        TxPrecheck[] prechecks = new MaxFeeTxHandler(utxoPool).precheck(orderedTxs);
+        Map<ByteBuffer, Integer> byHash = new HashMap<ByteBuffer, Integer>();
+        for (int i = 0; i < n; i++)
+            byHash.put(ByteBuffer.wrap(orderedTxs[i].getHash()), i);
+        double best = 0;
+        for (int subset = 0; subset < 1 << n; subset++) {
+            Set<UTXO> claimed = new HashSet<UTXO>();
+            double fee = 0;
+            boolean valid = true;
+            for (int i = 0; i < n && valid; i++) {
+                if ((subset & 1 << i) == 0) continue;
+                valid = prechecks[i].isSound() && prechecks[i].fee() >= 0;
+                if (!valid) break;
+                fee += prechecks[i].fee();
+                for (Transaction.Input input : orderedTxs[i].getInputs()) {
+                    UTXO utxo = new UTXO(input.prevTxHash, input.outputIndex);
+                    Integer parent = byHash.get(ByteBuffer.wrap(input.prevTxHash));
+                    valid &= claimed.add(utxo) && (utxoPool.contains(utxo) || parent != null && (subset & 1 << parent) != 0);
+                }
+            }
+            if (valid)
+                best = Math.max(best, fee);
+        }
+        return best;
+    }
+}
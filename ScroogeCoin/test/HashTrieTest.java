@@ -0,0 +1,135 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/** Checks {@link HashTrie} and its snapshots against hash maps, with keys whose hash codes collide */
+class HashTrieTest {
+
+    /** A key of the given hash code, so that many keys share one */
+    private static final class Key {
+        final int id, hash;
+
+        Key(int id, int hash) {
+            this.id = id;
+            this.hash = hash;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            return o instanceof Key && ((Key) o).id == id;
+        }
+
+        @Override
+        public int hashCode() {
+            return hash;
+        }
+
+        @Override
+        public String toString() {
+            return id + "#" + hash;
+        }
+    }
+
+    /** @return the key {@code id}, whose hash code is that of the other keys of its group of 4 ids */
+    private static Key key(int id) {
+        return new Key(id, (id / 4) << 27 | (id / 128));
+    }
+
+    /** A trie and its snapshots change independently, each seeing only its own writes */
+    @Test
+    void snapshotsAreIsolated() {
+        Random random = new Random(1);
+        List<HashTrie<Key, Integer>> tries = new ArrayList<HashTrie<Key, Integer>>();
+        List<Map<Key, Integer>> models = new ArrayList<Map<Key, Integer>>();
+        tries.add(new HashTrie<Key, Integer>());
+        models.add(new HashMap<Key, Integer>());
+        for (int step = 0; step < 20000; step++) {
+            int t = random.nextInt(tries.size());
+            HashTrie<Key, Integer> trie = tries.get(t);
+            Map<Key, Integer> model = models.get(t);
+            Key key = key(random.nextInt(512));
+            int op = random.nextInt(100);
+            if (op < 55) {
+                Integer value = random.nextInt(10) == 0 ? null : step;
+                trie.put(key, value);
+                model.put(key, value);
+            } else if (op < 97) {
+                trie.remove(key);
+                model.remove(key);
+            } else if (tries.size() < 8) {
+                tries.add(trie.snapshot());
+                models.add(new HashMap<Key, Integer>(model));
+            }
+            if (step % 500 == 0)
+                for (int i = 0; i < tries.size(); i++)
+                    assertEntries(models.get(i), tries.get(i));
+        }
+        for (int i = 0; i < tries.size(); i++)
+            assertEntries(models.get(i), tries.get(i));
+    }
+
+    /** The diff against a version lists exactly the entries changed and removed since */
+    @Test
+    void diffsAgainstVersion() {
+        Random random = new Random(2);
+        HashTrie<Key, Integer> trie = new HashTrie<Key, Integer>();
+        for (int i = 0; i < 300; i++)
+            trie.put(key(random.nextInt(512)), i);
+        for (int round = 0; round < 20; round++) {
+            Map<Key, Integer> before = entries(trie);
+            Object version = trie.version();
+            HashTrie<Key, Integer> snapshot = trie.snapshot();
+            for (int i = 0; i < 40; i++) {
+                Key key = key(random.nextInt(512));
+                if (random.nextBoolean())
+                    trie.put(key, 1000 * round + i);
+                else
+                    trie.remove(key);
+            }
+            Map<Key, Integer> after = entries(trie);
+            Map<Key, Integer> changed = new HashMap<Key, Integer>(), removed = new HashMap<Key, Integer>();
+            trie.diff(version, changed::put, removed::put);
+
+            Map<Key, Integer> expectedChanged = new HashMap<Key, Integer>(), expectedRemoved = new HashMap<Key, Integer>();
+            after.forEach((key, value) -> {
+                if (!before.containsKey(key) || !before.get(key).equals(value))
+                    expectedChanged.put(key, value);
+            });
+            before.forEach((key, value) -> {
+                if (!after.containsKey(key))
+                    expectedRemoved.put(key, value);
+            });
+            assertEquals(expectedChanged, changed);
+            assertEquals(expectedRemoved, removed);
+            assertEntries(before, snapshot);
+        }
+    }
+
+    private static Map<Key, Integer> entries(HashTrie<Key, Integer> trie) {
+        Map<Key, Integer> entries = new HashMap<Key, Integer>();
+        for (Iterator<Map.Entry<Key, Integer>> it = trie.iterator(); it.hasNext(); ) {
+            Map.Entry<Key, Integer> entry = it.next();
+            assertFalse(entries.containsKey(entry.getKey()), "duplicate " + entry.getKey());
+            entries.put(entry.getKey(), entry.getValue());
+        }
+        return entries;
+    }
+
+    private static void assertEntries(Map<Key, Integer> model, HashTrie<Key, Integer> trie) {
+        assertEquals(model.size(), trie.size());
+        assertEquals(model, entries(trie));
+        for (int id = 0; id < 512; id++) {
+            Key key = key(id);
+            assertEquals(model.containsKey(key), trie.containsKey(key), "containsKey " + key);
+            assertEquals(model.get(key), trie.get(key), "get " + key);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Checks the eviction, expiry and conflict removal of {@link Mempool}, and the children it admits */
+class MempoolTest {
+
+    private static KeyPair keys;
+    private static Transaction genesis;
+
+    /** Time of the clock of the mempools, in ns */
+    private long now;
+
+    @BeforeAll
+    static void generate() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        keys = generator.generateKeyPair();
+        genesis = new Transaction();
+        for (int i = 0; i < 8; i++)
+            genesis.addOutput(10, keys.getPublic());
+        genesis.finalize();
+    }
+
+    /** @return a transaction signed by the key of the fixture, claiming output {@code index} of {@code parent} */
+    private static Transaction spend(Transaction parent, int index, double value) throws Exception {
+        Transaction tx = new Transaction();
+        tx.addInput(parent.getHash(), index);
+        tx.addOutput(value, keys.getPublic());
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keys.getPrivate());
+        signature.update(tx.getRawDataToSign(0));
+        tx.addSignature(signature.sign(), 0);
+        tx.finalize();
+        return tx;
+    }
+
+    private Mempool mempool(long maxBytes, long maxAgeNanos) {
+        return new Mempool(maxBytes, maxAgeNanos, () -> now);
+    }
+
+    /** Transactions of one input and one output are all of the same size */
+    private static int size() throws Exception {
+        return spend(genesis, 0, 1).getRawTxLength();
+    }
+
+    @Test
+    void evictsCheapestWithDescendants() throws Exception {
+        Mempool mempool = mempool(3 * size() - 1, Long.MAX_VALUE);
+        Transaction parent = spend(genesis, 0, 9);
+        Transaction child = spend(parent, 0, 1);
+        Transaction other = spend(genesis, 1, 8);
+        assertTrue(mempool.add(parent, 1));
+        assertTrue(mempool.add(child, 8));
+        assertTrue(mempool.add(other, 2));
+
+        assertFalse(mempool.contains(parent));
+        assertFalse(mempool.contains(child));
+        assertTrue(mempool.contains(other));
+        assertEquals(other.getRawTxLength(), mempool.getBytes());
+    }
+
+    @Test
+    void rejectsCheapestOverBudget() throws Exception {
+        Mempool mempool = mempool(size(), Long.MAX_VALUE);
+        Transaction expensive = spend(genesis, 0, 5);
+        assertTrue(mempool.add(expensive, 5));
+        assertFalse(mempool.add(spend(genesis, 1, 9), 1));
+        assertArrayEquals(new Transaction[] {expensive}, mempool.getTxs());
+    }
+
+    @Test
+    void expiresOldestWithDescendants() throws Exception {
+        Mempool mempool = mempool(Long.MAX_VALUE, 10);
+        Transaction parent = spend(genesis, 0, 9);
+        Transaction other = spend(genesis, 1, 9);
+        mempool.add(parent, 1);
+        now = 5;
+        mempool.add(other, 1);
+        Transaction child = spend(parent, 0, 8);
+        mempool.add(child, 1);
+
+        now = 11;
+        mempool.expire();
+        assertFalse(mempool.contains(parent));
+        assertFalse(mempool.contains(child));
+        assertTrue(mempool.contains(other));
+        now = 16;
+        assertTrue(mempool.add(spend(genesis, 2, 9), 1));
+        assertEquals(1, mempool.size());
+    }
+
+    @Test
+    void removesConflictsOfConfirmed() throws Exception {
+        Mempool mempool = mempool(Long.MAX_VALUE, Long.MAX_VALUE);
+        Transaction pending = spend(genesis, 0, 9);
+        Transaction child = spend(pending, 0, 8);
+        Transaction kept = spend(genesis, 1, 9);
+        mempool.add(pending, 1);
+        mempool.add(child, 1);
+        mempool.add(kept, 1);
+        assertFalse(mempool.add(spend(genesis, 0, 7), 3));
+
+        mempool.removeConfirmed(new Transaction[] {spend(genesis, 0, 6)});
+        assertFalse(mempool.contains(pending));
+        assertFalse(mempool.contains(child));
+        assertArrayEquals(new Transaction[] {kept}, mempool.getTxs());
+    }
+
+    /** The children of a confirmed entry stay, and are evicted with their own descendants later */
+    @Test
+    void keepsChildrenOfConfirmed() throws Exception {
+        Mempool mempool = mempool(Long.MAX_VALUE, 10);
+        Transaction parent = spend(genesis, 0, 9);
+        Transaction child = spend(parent, 0, 8);
+        Transaction grandchild = spend(child, 0, 7);
+        mempool.add(parent, 1);
+        mempool.add(child, 1);
+        now = 5;
+        mempool.add(grandchild, 1);
+
+        mempool.removeConfirmed(new Transaction[] {parent});
+        assertArrayEquals(new Transaction[] {child, grandchild}, mempool.getTxsByArrival());
+        now = 11;
+        mempool.expire();
+        assertEquals(0, mempool.size());
+        assertEquals(0, mempool.getBytes());
+    }
+
+    /** A handler admits children of its entries, which are accepted once proposed with their parents */
+    @Test
+    void handlerKeepsChildrenOfEntries() throws Exception {
+        UTXOPool utxoPool = new UTXOPool();
+        for (int i = 0; i < genesis.numOutputs(); i++)
+            utxoPool.addUTXO(new UTXO(genesis.getHash(), i), genesis.getOutput(i));
+        MaxFeeTxHandler handler = new MaxFeeTxHandler(utxoPool);
+        Transaction parent = spend(genesis, 0, 9);
+        Transaction child = spend(parent, 0, 8);
+        Transaction orphan = spend(spend(genesis, 1, 9), 0, 8);
+
+        assertTrue(handler.isValidTx(parent));
+        assertFalse(handler.isValidTx(child));
+        assertFalse(handler.isValidTx(orphan));
+        Mempool mempool = handler.getMempool();
+        assertTrue(mempool.contains(child));
+        assertFalse(mempool.contains(orphan));
+        assertEquals(1, mempool.getFee(child));
+
+        assertEquals(2, handler.handleTxs(mempool.getTxs()).length);
+        assertEquals(0, mempool.size());
+    }
+}
@@ -0,0 +1,144 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Checks the open-addressing table of {@link OffHeapUTXOPool} against a hash map, and the reuse of address ids */
+class OffHeapUTXOPoolTest {
+
+    private static PublicKey[] addresses;
+
+    private final Transaction tx = new Transaction();
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        addresses = new PublicKey[40];
+        for (int i = 0; i < addresses.length; i++)
+            addresses[i] = generator.generateKeyPair().getPublic();
+    }
+
+    /** @return UTXO {@code i} of {@code group}, whose hash code is the same for all {@code i}, as 31 * i + (124 - 31 * i) is */
+    private static UTXO colliding(int group, int i) {
+        return new UTXO(new byte[] {(byte) group, (byte) i, (byte) (124 - 31 * i)}, 0);
+    }
+
+    /** Removing from runs of equal and of neighbouring home slots, which wrap around the table, keeps all others reachable */
+    @Test
+    void backwardShiftsUnderCollisions() {
+        List<UTXO> utxos = new ArrayList<UTXO>();
+        for (int group = 0; group < 4; group++)
+            for (int i = 0; i < 9; i++)
+                utxos.add(colliding(group, i));
+        for (int i = 0; i < 12; i++)
+            utxos.add(new UTXO(new byte[] {(byte) i}, i));
+
+        Random random = new Random(1);
+        for (int round = 0; round < 20; round++) {
+            OffHeapUTXOPool pool = new OffHeapUTXOPool();
+            Map<UTXO, Transaction.Output> model = new HashMap<UTXO, Transaction.Output>();
+            for (int step = 0; step < 400; step++) {
+                UTXO utxo = utxos.get(random.nextInt(utxos.size()));
+                if (random.nextInt(3) > 0) {
+                    Transaction.Output txOut = random.nextInt(10) == 0 ? null
+                            : tx.new Output(step, addresses[random.nextInt(addresses.length)]);
+                    pool.addUTXO(utxo, txOut);
+                    model.put(utxo, txOut);
+                } else {
+                    pool.removeUTXO(utxo);
+                    model.remove(utxo);
+                }
+                assertPool(model, utxos, pool);
+            }
+            // Emptied in a random order
+            List<UTXO> remaining = new ArrayList<UTXO>(model.keySet());
+            Collections.shuffle(remaining, random);
+            for (UTXO utxo : remaining) {
+                pool.removeUTXO(utxo);
+                model.remove(utxo);
+                assertPool(model, utxos, pool);
+            }
+            assertTrue(pool.addresses().stream().allMatch(address -> address == null));
+        }
+    }
+
+    /** Ids of addresses no UTXO refers to anymore are reused, however many addresses come and go */
+    @Test
+    void reusesIdsOfReleasedAddresses() {
+        OffHeapUTXOPool pool = new OffHeapUTXOPool();
+        Map<UTXO, Transaction.Output> model = new HashMap<UTXO, Transaction.Output>();
+        List<UTXO> utxos = new ArrayList<UTXO>();
+        byte[] longHash = new byte[OffHeapUTXOPool.MAX_HASH_LENGTH + 1];
+        for (int i = 0; i < 8; i++)
+            utxos.add(new UTXO(new byte[] {(byte) i}, 0));
+        // Kept on the heap, but referring to interned addresses all the same
+        for (int i = 0; i < 2; i++)
+            utxos.add(new UTXO(longHash, i));
+
+        Random random = new Random(2);
+        for (int step = 0; step < 2000; step++) {
+            UTXO utxo = utxos.get(random.nextInt(utxos.size()));
+            if (random.nextInt(4) > 0) {
+                Transaction.Output txOut = tx.new Output(step, addresses[random.nextInt(addresses.length)]);
+                pool.addUTXO(utxo, txOut);
+                model.put(utxo, txOut);
+            } else {
+                pool.removeUTXO(utxo);
+                model.remove(utxo);
+            }
+            assertPool(model, utxos, pool);
+            // One more id than UTXOs is taken while an output is replaced by one of a new address
+            assertTrue(pool.addresses().size() <= utxos.size() + 1, "ids " + pool.addresses().size());
+            assertAddresses(model, pool);
+        }
+        OffHeapUTXOPool copy = new OffHeapUTXOPool(pool);
+        assertAddresses(model, copy);
+        for (UTXO utxo : utxos)
+            copy.removeUTXO(utxo);
+        assertTrue(copy.addresses().stream().allMatch(address -> address == null));
+        assertAddresses(model, pool);
+    }
+
+    /** The interned addresses are those of the outputs of the pool, each referred to by its UTXOs */
+    private static void assertAddresses(Map<UTXO, Transaction.Output> model, OffHeapUTXOPool pool) {
+        Map<PublicKey, Integer> references = new HashMap<PublicKey, Integer>();
+        for (Transaction.Output txOut : model.values())
+            if (txOut != null)
+                references.merge(txOut.address, 1, Integer::sum);
+        List<PublicKey> interned = pool.addresses();
+        Set<PublicKey> live = new HashSet<PublicKey>(interned);
+        live.remove(null);
+        assertEquals(references.keySet(), live);
+        for (int id = 0; id < interned.size(); id++)
+            if (interned.get(id) != null)
+                assertEquals(references.get(interned.get(id)), pool.references(id), "references of " + id);
+    }
+
+    private static void assertPool(Map<UTXO, Transaction.Output> model, List<UTXO> utxos, UTXOPool pool) {
+        assertEquals(model.size(), pool.size());
+        assertEquals(model.keySet(), new HashSet<UTXO>(pool.getAllUTXO()));
+        for (UTXO utxo : utxos) {
+            assertEquals(model.containsKey(utxo), pool.contains(utxo), "contains " + utxo);
+            Transaction.Output expected = model.get(utxo), txOut = pool.getTxOutput(utxo);
+            if (expected == null) {
+                assertNull(txOut, "output of " + utxo);
+            } else {
+                assertEquals(expected.value, txOut.value);
+                assertEquals(expected.address, txOut.address);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Checks that a {@link PendingTxIndex} rechecks only the transactions depending on the outputs an epoch changed */
+class PendingTxIndexTest {
+
+    private static KeyPair keys;
+    private static Transaction genesis;
+
+    /** A pool recording the UTXOs read while {@code reads} is set */
+    private static class RecordingUTXOPool extends UTXOPool {
+        Set<UTXO> reads;
+
+        @Override
+        public Transaction.Output getTxOutput(UTXO ut) {
+            if (reads != null)
+                reads.add(ut);
+            return super.getTxOutput(ut);
+        }
+
+        @Override
+        public boolean contains(UTXO utxo) {
+            if (reads != null)
+                reads.add(utxo);
+            return super.contains(utxo);
+        }
+    }
+
+    @BeforeAll
+    static void generate() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        keys = generator.generateKeyPair();
+        genesis = new Transaction();
+        for (int i = 0; i < 8; i++)
+            genesis.addOutput(10, keys.getPublic());
+        genesis.finalize();
+    }
+
+    /** @return a transaction signed by the key of the fixture, claiming output {@code index} of {@code parent} */
+    private static Transaction spend(Transaction parent, int index, double value) throws Exception {
+        Transaction tx = new Transaction();
+        tx.addInput(parent.getHash(), index);
+        tx.addOutput(value, keys.getPublic());
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keys.getPrivate());
+        signature.update(tx.getRawDataToSign(0));
+        tx.addSignature(signature.sign(), 0);
+        tx.finalize();
+        return tx;
+    }
+
+    @Test
+    void rechecksOnlyDependentsOfEpoch() throws Exception {
+        RecordingUTXOPool pool = new RecordingUTXOPool();
+        for (int i = 0; i < genesis.numOutputs(); i++)
+            pool.addUTXO(new UTXO(genesis.getHash(), i), genesis.getOutput(i));
+        TxHandler handler = new TxHandler(pool, true);
+        PendingTxIndex index = new PendingTxIndex(handler);
+
+        Transaction parent = spend(genesis, 0, 9);
+        Transaction child = spend(parent, 0, 8);
+        Transaction conflicting = spend(genesis, 1, 9);
+        Transaction descendant = spend(conflicting, 0, 8);
+        Transaction[] unrelated = new Transaction[4];
+        for (int i = 0; i < unrelated.length; i++)
+            unrelated[i] = spend(genesis, 2 + i, 9);
+        assertEquals(TxValidator.Verdict.VALID, index.add(parent));
+        assertEquals(TxValidator.Verdict.MISSING_INPUT, index.add(child));
+        assertEquals(TxValidator.Verdict.VALID, index.add(conflicting));
+        assertEquals(TxValidator.Verdict.MISSING_INPUT, index.add(descendant));
+        for (Transaction tx : unrelated)
+            assertEquals(TxValidator.Verdict.VALID, index.add(tx));
+        assertEquals(8, index.size());
+
+        // An epoch confirms the parent and spends the output claimed by the conflicting transaction
+        Transaction spender = spend(genesis, 1, 7);
+        assertEquals(2, handler.handleTxs(new Transaction[] {parent, spender}).length);
+
+        pool.reads = new HashSet<UTXO>();
+        Transaction[] validTxs = index.getValidTxs();
+        assertEquals(Set.of(new UTXO(parent.getHash(), 0)), pool.reads);
+        assertArrayEquals(new Transaction[] {unrelated[0], unrelated[1], unrelated[2], unrelated[3], child}, validTxs);
+        assertEquals(5, index.size());
+
+        // Nothing changed since, so nothing is read again
+        pool.reads.clear();
+        assertArrayEquals(validTxs, index.getValidTxs());
+        assertEquals(Set.of(), pool.reads);
+
+        // An epoch spending one unrelated output only drops the transaction claiming it
+        handler.handleTxs(new Transaction[] {spend(genesis, 2, 6)});
+        pool.reads.clear();
+        assertArrayEquals(new Transaction[] {unrelated[1], unrelated[2], unrelated[3], child}, index.getValidTxs());
+        assertEquals(Set.of(), pool.reads);
+    }
+}
@@ -0,0 +1,127 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.nio.charset.StandardCharsets;
+import java.security.GeneralSecurityException;
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Checks {@link SignatureScheme#verifyAll} and the verification of EC and Ed25519 signatures */
+class SignatureSchemeTest {
+
+    private static KeyPair[] ed25519;
+    private static KeyPair ec;
+    private static KeyPair rsa;
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        ed25519 = new KeyPair[3];
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("Ed25519");
+        for (int i = 0; i < ed25519.length; i++)
+            ed25519[i] = generator.generateKeyPair();
+        generator = KeyPairGenerator.getInstance("EC");
+        generator.initialize(256);
+        ec = generator.generateKeyPair();
+        generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        rsa = generator.generateKeyPair();
+    }
+
+    private static byte[] message(int i) {
+        return ("message " + i).getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static SignatureScheme.Check check(KeyPair keys, String algorithm, byte[] message) throws GeneralSecurityException {
+        Signature signature = Signature.getInstance(algorithm);
+        signature.initSign(keys.getPrivate());
+        signature.update(message);
+        return new SignatureScheme.Check(keys.getPublic(), message, signature.sign());
+    }
+
+    private static List<SignatureScheme.Check> ed25519Checks(int n) throws GeneralSecurityException {
+        List<SignatureScheme.Check> checks = new ArrayList<SignatureScheme.Check>();
+        for (int i = 0; i < n; i++)
+            checks.add(check(ed25519[i % ed25519.length], "Ed25519", message(i)));
+        return checks;
+    }
+
+    @Test
+    void validEd25519Batch() throws Exception {
+        assertSame(SignatureScheme.ED25519, SignatureScheme.of(ed25519[0].getPublic()));
+        assertTrue(SignatureScheme.verifyAll(ed25519Checks(16)).isEmpty());
+    }
+
+    /** A signature of another message and a corrupted S fail the batch equation, and are found by halving */
+    @Test
+    void corruptedEd25519InBatch() throws Exception {
+        List<SignatureScheme.Check> checks = ed25519Checks(16);
+        SignatureScheme.Check replayed = checks.get(3);
+        checks.set(3, new SignatureScheme.Check(replayed.pubKey, message(100), replayed.signature));
+        byte[] corrupted = checks.get(9).signature.clone();
+        corrupted[40] ^= 1;
+        checks.set(9, new SignatureScheme.Check(checks.get(9).pubKey, checks.get(9).message, corrupted));
+
+        BitSet expected = new BitSet();
+        expected.set(3);
+        expected.set(9);
+        assertEquals(expected, SignatureScheme.verifyAll(checks));
+        for (int i = 0; i < checks.size(); i++) {
+            SignatureScheme.Check check = checks.get(i);
+            assertEquals(!expected.get(i), SignatureScheme.ED25519.verify(check.pubKey, check.message, check.signature));
+        }
+    }
+
+    /** Malformed signatures are left to the individual check, which rejects them */
+    @Test
+    void malformedEd25519InBatch() throws Exception {
+        List<SignatureScheme.Check> checks = ed25519Checks(8);
+        byte[] truncated = new byte[63];
+        System.arraycopy(checks.get(2).signature, 0, truncated, 0, truncated.length);
+        checks.set(2, new SignatureScheme.Check(checks.get(2).pubKey, checks.get(2).message, truncated));
+        byte[] noncanonical = checks.get(5).signature.clone();
+        noncanonical[63] = (byte) 0xff;
+        checks.set(5, new SignatureScheme.Check(checks.get(5).pubKey, checks.get(5).message, noncanonical));
+
+        BitSet expected = new BitSet();
+        expected.set(2);
+        expected.set(5);
+        assertEquals(expected, SignatureScheme.verifyAll(checks));
+    }
+
+    @Test
+    void mixedSchemes() throws Exception {
+        List<SignatureScheme.Check> checks = ed25519Checks(6);
+        checks.add(check(ec, "SHA256withECDSA", message(6)));
+        checks.add(check(rsa, "SHA256withRSA", message(7)));
+        SignatureScheme.Check ecCheck = check(ec, "SHA256withECDSA", message(8));
+        checks.add(new SignatureScheme.Check(ecCheck.pubKey, message(9), ecCheck.signature));
+        checks.add(new SignatureScheme.Check(rsa.getPublic(), message(10), null));
+        checks.add(check(ed25519[0], "Ed25519", message(11)));
+
+        BitSet expected = new BitSet();
+        expected.set(8);
+        expected.set(9);
+        assertEquals(expected, SignatureScheme.verifyAll(checks));
+    }
+
+    @Test
+    void cryptoVerifiesEcAndEd25519() throws Exception {
+        assertSame(SignatureScheme.ECDSA, SignatureScheme.of(ec.getPublic()));
+        for (KeyPair keys : new KeyPair[] {ec, ed25519[1]}) {
+            String algorithm = keys == ec ? "SHA256withECDSA" : "Ed25519";
+            SignatureScheme.Check check = check(keys, algorithm, message(0));
+            assertTrue(Crypto.verifySignature(keys.getPublic(), check.message, check.signature));
+            assertFalse(Crypto.verifySignature(keys.getPublic(), message(1), check.signature));
+            assertFalse(Crypto.verifySignature(keys.getPublic(), check.message, null));
+        }
+    }
+}
@@ -0,0 +1,81 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Checks that the parallel precheck of {@link TxHandler#setParallelism} accepts exactly what the sequential path does */
+class TxHandlerParallelTest {
+
+    private static ForkJoinPool parallelism;
+    private static Fixture fixture;
+
+    @BeforeAll
+    static void generate() throws Exception {
+        parallelism = new ForkJoinPool(4);
+        TxGraphGenerator generator = new TxGraphGenerator(1);
+        generator.setKeys(8, "RSA", 1024);
+        generator.setGenesisOutputs(200);
+        generator.setDoubleSpendRate(0.1);
+        generator.setInvalidSignatureRate(0.05);
+        fixture = generator.generate(600);
+    }
+
+    @AfterAll
+    static void shutdown() {
+        parallelism.shutdown();
+    }
+
+    @Test
+    void shuffledEpochs() {
+        List<Transaction> txs = new ArrayList<Transaction>(Arrays.asList(fixture.getTxs()));
+        Collections.shuffle(txs, new Random(2));
+        assertSameAccepted(fixture.getUTXOPool(), split(txs, 100));
+    }
+
+    /** Epochs missing the parents of some transactions, which claim outputs mapped to null, or none */
+    @Test
+    void orphansAndNullOutputs() {
+        UTXOPool utxoPool = fixture.getUTXOPool();
+        Transaction genesis = fixture.getGenesis();
+        for (int index = 0; index < genesis.numOutputs(); index += 5)
+            utxoPool.addUTXO(new UTXO(genesis.getHash(), index), null);
+
+        List<Transaction> txs = new ArrayList<Transaction>();
+        Transaction[] fixtureTxs = fixture.getTxs();
+        for (int i = 0; i < fixtureTxs.length; i++)
+            if (i % 7 != 3)
+                txs.add(fixtureTxs[i]);
+        Collections.reverse(txs);
+        assertSameAccepted(utxoPool, split(txs, 150));
+    }
+
+    private static void assertSameAccepted(UTXOPool utxoPool, List<Transaction[]> epochs) {
+        TxHandler sequential = new TxHandler(utxoPool);
+        TxHandler parallel = new TxHandler(utxoPool);
+        parallel.setParallelism(parallelism);
+        int accepted = 0;
+        for (Transaction[] epoch : epochs) {
+            Transaction[] expected = sequential.handleTxs(epoch);
+            assertArrayEquals(expected, parallel.handleTxs(epoch));
+            accepted += expected.length;
+        }
+        assertTrue(accepted > 0 && accepted < epochs.stream().mapToInt(epoch -> epoch.length).sum(),
+                "the fixture should have both valid and invalid transactions");
+    }
+
+    private static List<Transaction[]> split(List<Transaction> txs, int epochSize) {
+        List<Transaction[]> epochs = new ArrayList<Transaction[]>();
+        for (int from = 0; from < txs.size(); from += epochSize)
+            epochs.add(txs.subList(from, Math.min(txs.size(), from + epochSize)).toArray(Transaction[]::new));
+        return epochs;
+    }
+}
@@ -0,0 +1,120 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.security.KeyPair;
+import java.security.KeyPairGenerator;
+import java.security.Signature;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Checks that {@link TxStream} promotes orphans once their parents arrive, and bounds its orphan pool */
+class TxStreamTest {
+
+    private static KeyPair keys;
+    private static Transaction genesis;
+
+    private final List<Transaction> accepted = new ArrayList<Transaction>();
+
+    @BeforeAll
+    static void generate() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        keys = generator.generateKeyPair();
+        genesis = new Transaction();
+        for (int i = 0; i < 8; i++)
+            genesis.addOutput(10, keys.getPublic());
+        genesis.finalize();
+    }
+
+    /** @return a transaction signed by the key of the fixture, claiming output {@code index} of {@code parent} */
+    private static Transaction spend(Transaction parent, int index, double value) throws Exception {
+        Transaction tx = new Transaction();
+        tx.addInput(parent.getHash(), index);
+        tx.addOutput(value, keys.getPublic());
+        Signature signature = Signature.getInstance("SHA256withRSA");
+        signature.initSign(keys.getPrivate());
+        signature.update(tx.getRawDataToSign(0));
+        tx.addSignature(signature.sign(), 0);
+        tx.finalize();
+        return tx;
+    }
+
+    private static TxHandler handler() {
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < genesis.numOutputs(); i++)
+            pool.addUTXO(new UTXO(genesis.getHash(), i), genesis.getOutput(i));
+        return new TxHandler(pool);
+    }
+
+    @Test
+    void promotesOrphansWhenParentArrives() throws Exception {
+        TxHandler handler = handler();
+        TxStream stream = new TxStream(handler, 10, Long.MAX_VALUE, accepted::add);
+        Transaction parent = spend(genesis, 0, 9);
+        Transaction child = spend(parent, 0, 8);
+        Transaction grandchild = spend(child, 0, 7);
+
+        assertEquals(TxValidator.Verdict.MISSING_INPUT, stream.offer(grandchild));
+        assertEquals(TxValidator.Verdict.MISSING_INPUT, stream.offer(child));
+        assertEquals(2, stream.getOrphanCount());
+        assertEquals(child.getRawTxLength() + grandchild.getRawTxLength(), stream.getOrphanBytes());
+        assertEquals(List.of(), accepted);
+
+        assertEquals(TxValidator.Verdict.VALID, stream.offer(parent));
+        assertEquals(List.of(parent, child, grandchild), accepted);
+        assertEquals(0, stream.getOrphanCount());
+        assertEquals(0, stream.getOrphanBytes());
+        assertTrue(handler.utxoPool.contains(new UTXO(grandchild.getHash(), 0)));
+        assertFalse(handler.utxoPool.contains(new UTXO(child.getHash(), 0)));
+
+        // A parent accepted by an epoch of the handler wakes its orphan at the next flush
+        Transaction other = spend(genesis, 1, 9);
+        Transaction otherChild = spend(other, 0, 8);
+        stream.offer(otherChild);
+        handler.handleTxs(new Transaction[] {other});
+        assertEquals(1, stream.getOrphanCount());
+        stream.flush();
+        assertEquals(List.of(parent, child, grandchild, otherChild), accepted);
+        assertEquals(0, stream.getOrphanCount());
+    }
+
+    @Test
+    void boundsOrphanPool() throws Exception {
+        Transaction[] parents = new Transaction[5], orphans = new Transaction[5];
+        for (int i = 0; i < parents.length; i++) {
+            parents[i] = spend(genesis, i, 9);
+            orphans[i] = spend(parents[i], 0, 8);
+        }
+        int size = orphans[0].getRawTxLength();
+
+        // By count, evicting the oldest orphans, which their parents then do not wake
+        TxStream stream = new TxStream(handler(), 3, Long.MAX_VALUE, accepted::add);
+        for (Transaction orphan : orphans)
+            assertEquals(TxValidator.Verdict.MISSING_INPUT, stream.offer(orphan));
+        assertEquals(3, stream.getOrphanCount());
+        assertEquals(3L * size, stream.getOrphanBytes());
+        for (Transaction parent : parents)
+            stream.offer(parent);
+        assertEquals(List.of(parents[0], parents[1], parents[2], orphans[2], parents[3], orphans[3], parents[4],
+                orphans[4]), accepted);
+        assertEquals(0, stream.getOrphanCount());
+
+        // By bytes
+        accepted.clear();
+        stream = new TxStream(handler(), 10, 2L * size, accepted::add);
+        for (Transaction orphan : orphans)
+            stream.offer(orphan);
+        assertEquals(2, stream.getOrphanCount());
+        assertEquals(2L * size, stream.getOrphanBytes());
+
+        // An orphan larger than the pool is not kept
+        stream = new TxStream(handler(), 10, size - 1, accepted::add);
+        assertEquals(TxValidator.Verdict.MISSING_INPUT, stream.offer(orphans[0]));
+        assertEquals(0, stream.getOrphanCount());
+        assertEquals(0, stream.getOrphanBytes());
+    }
+}
@@ -0,0 +1,129 @@
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/** Checks that a {@link UTXOCommitment} depends on the committed set only, not on how it was built */
+class UTXOCommitmentTest {
+
+    private static PublicKey[] addresses;
+
+    private final Transaction tx = new Transaction();
+
+    @BeforeAll
+    static void generateKeys() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        addresses = new PublicKey[2];
+        for (int i = 0; i < addresses.length; i++)
+            addresses[i] = generator.generateKeyPair().getPublic();
+    }
+
+    private static UTXO utxo(int i) {
+        return new UTXO(new byte[] {(byte) (i >> 8), (byte) i, 7}, i % 3);
+    }
+
+    /** @return a UTXOPool of {@code n} UTXOs, some of an output without address or of no output */
+    private UTXOPool pool(int n) {
+        UTXOPool pool = new UTXOPool();
+        for (int i = 0; i < n; i++)
+            pool.addUTXO(utxo(i), i % 17 == 0 ? null : tx.new Output(i / 4.0, i % 13 == 0 ? null : addresses[i % 2]));
+        return pool;
+    }
+
+    @Test
+    void unchangedByAddThenRemove() {
+        UTXOPool pool = pool(50);
+        UTXOCommitment commitment = UTXOCommitment.of(pool);
+        byte[] bytes = commitment.getBytes();
+
+        UTXOCommitment changed = new UTXOCommitment(commitment);
+        List<Transaction.Output> added = new ArrayList<Transaction.Output>();
+        for (int i = 50; i < 60; i++) {
+            added.add(tx.new Output(i, addresses[0]));
+            changed.add(utxo(i), added.get(i - 50));
+            assertNotEquals(commitment, changed);
+        }
+        // Removed in another order than added, the set is the same again
+        for (int i = 59; i >= 50; i--)
+            changed.remove(utxo(i), added.get(i - 50));
+        assertEquals(commitment, changed);
+        assertEquals(commitment.hashCode(), changed.hashCode());
+        assertArrayEquals(bytes, changed.getBytes());
+
+        UTXOCommitment empty = new UTXOCommitment();
+        empty.add(utxo(1), null);
+        empty.remove(utxo(1), null);
+        assertEquals(new UTXOCommitment(), empty);
+
+        // Through a pool maintaining it, which replaces the output of a UTXO added twice
+        CommittedUTXOPool committed = new CommittedUTXOPool(pool);
+        assertEquals(commitment, committed.getCommitment());
+        committed.addUTXO(utxo(60), tx.new Output(1, addresses[1]));
+        committed.addUTXO(utxo(60), tx.new Output(2, addresses[1]));
+        committed.addUTXO(utxo(3), tx.new Output(3, addresses[0]));
+        committed.removeUTXO(utxo(60));
+        committed.addUTXO(utxo(3), pool.getTxOutput(utxo(3)));
+        committed.removeUTXO(utxo(61));
+        assertEquals(commitment, committed.getCommitment());
+    }
+
+    @Test
+    void independentOfOrder() {
+        UTXOPool pool = pool(200);
+        UTXOCommitment expected = UTXOCommitment.of(pool);
+        List<Map.Entry<UTXO, Transaction.Output>> entries = new ArrayList<Map.Entry<UTXO, Transaction.Output>>();
+        pool.stream().forEach(entries::add);
+
+        Random random = new Random(1);
+        for (int round = 0; round < 5; round++) {
+            Collections.shuffle(entries, random);
+            UTXOCommitment commitment = new UTXOCommitment();
+            CommittedUTXOPool committed = new CommittedUTXOPool();
+            for (Map.Entry<UTXO, Transaction.Output> entry : entries) {
+                commitment.add(entry.getKey(), entry.getValue());
+                committed.addUTXO(entry.getKey(), entry.getValue());
+            }
+            assertEquals(expected, commitment);
+            assertEquals(expected, committed.getCommitment());
+            assertArrayEquals(expected.getBytes(), commitment.getBytes());
+
+            // And as the union of two disjoint halves
+            UTXOCommitment first = new UTXOCommitment(), second = new UTXOCommitment();
+            for (int i = 0; i < entries.size(); i++)
+                (i < entries.size() / 2 ? first : second).add(entries.get(i).getKey(), entries.get(i).getValue());
+            second.add(first);
+            assertEquals(expected, second);
+        }
+    }
+
+    /** The value and address of an output, and whether there is one, are committed to */
+    @Test
+    void differsByOutput() {
+        UTXO utxo = utxo(1);
+        List<UTXOCommitment> commitments = new ArrayList<UTXOCommitment>();
+        for (Transaction.Output txOut : List.of(tx.new Output(1, addresses[0]), tx.new Output(2, addresses[0]),
+                tx.new Output(1, addresses[1]), tx.new Output(1, null), tx.new Output(0, null))) {
+            UTXOCommitment commitment = new UTXOCommitment();
+            commitment.add(utxo, txOut);
+            commitments.add(commitment);
+        }
+        UTXOCommitment noOutput = new UTXOCommitment();
+        noOutput.add(utxo, null);
+        commitments.add(noOutput);
+        commitments.add(new UTXOCommitment());
+        for (int i = 0; i < commitments.size(); i++)
+            for (int j = i + 1; j < commitments.size(); j++)
+                assertNotEquals(commitments.get(i), commitments.get(j), i + " and " + j);
+    }
+}
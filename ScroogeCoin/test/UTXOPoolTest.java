@@ -0,0 +1,148 @@
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.security.KeyPairGenerator;
+import java.security.PublicKey;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Random;
+
+import org.junit.jupiter.api.Test;
+
+/** Checks that copies of a {@link UTXOPool} are isolated from it, and that merging them applies their changes */
+class UTXOPoolTest {
+
+    private static final int UTXOS = 400;
+
+    private final Transaction tx = new Transaction();
+
+    private static UTXO utxo(int i) {
+        return new UTXO(new byte[] {(byte) (i >> 8), (byte) i}, i & 1);
+    }
+
+    /** Adds or removes a random UTXO of both {@code pool} and {@code model} */
+    private void edit(Random random, UTXOPool pool, Map<UTXO, Transaction.Output> model, PublicKey address) {
+        UTXO utxo = utxo(random.nextInt(UTXOS));
+        if (random.nextBoolean()) {
+            Transaction.Output txOut = random.nextInt(20) == 0 ? null : tx.new Output(random.nextInt(100), address);
+            pool.addUTXO(utxo, txOut);
+            model.put(utxo, txOut);
+        } else {
+            pool.removeUTXO(utxo);
+            model.remove(utxo);
+        }
+    }
+
+    @Test
+    void copiesAreIsolated() {
+        Random random = new Random(1);
+        UTXOPool pool = new UTXOPool();
+        Map<UTXO, Transaction.Output> model = new HashMap<UTXO, Transaction.Output>();
+        for (int i = 0; i < 300; i++)
+            edit(random, pool, model, null);
+
+        UTXOPool copy = pool.copy();
+        Map<UTXO, Transaction.Output> copyModel = new HashMap<UTXO, Transaction.Output>(model);
+        UTXOPool copyOfCopy = copy.copy();
+        Map<UTXO, Transaction.Output> copyOfCopyModel = new HashMap<UTXO, Transaction.Output>(model);
+        for (int i = 0; i < 600; i++) {
+            edit(random, pool, model, null);
+            edit(random, copy, copyModel, null);
+            edit(random, copyOfCopy, copyOfCopyModel, null);
+        }
+        assertPool(model, pool);
+        assertPool(copyModel, copy);
+        assertPool(copyOfCopyModel, copyOfCopy);
+    }
+
+    /** Merging a copy applies the changes of the copy since it was made or last merged, which win over those of the pool */
+    @Test
+    void mergesAfterConcurrentEdits() {
+        Random random = new Random(2);
+        UTXOPool pool = new UTXOPool();
+        Map<UTXO, Transaction.Output> model = new HashMap<UTXO, Transaction.Output>();
+        for (int i = 0; i < 300; i++)
+            edit(random, pool, model, null);
+
+        // Only the copy changed: the pool takes its UTXOs as they are
+        UTXOPool copy = pool.copy();
+        Map<UTXO, Transaction.Output> copyModel = new HashMap<UTXO, Transaction.Output>(model);
+        for (int i = 0; i < 100; i++)
+            edit(random, copy, copyModel, null);
+        pool.merge(copy);
+        assertPool(copyModel, pool);
+        model = new HashMap<UTXO, Transaction.Output>(copyModel);
+
+        // Both changed, the same copy again and a new one
+        for (int round = 0; round < 2; round++) {
+            UTXOPool merged = round == 0 ? copy : pool.copy();
+            Map<UTXO, Transaction.Output> base = new HashMap<UTXO, Transaction.Output>(model);
+            Map<UTXO, Transaction.Output> mergedModel = new HashMap<UTXO, Transaction.Output>(model);
+            assertPool(mergedModel, merged);
+            for (int i = 0; i < 200; i++) {
+                edit(random, pool, model, null);
+                edit(random, merged, mergedModel, null);
+            }
+            pool.merge(merged);
+            apply(base, mergedModel, model);
+            assertPool(model, pool);
+            assertPool(mergedModel, merged);
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> copy.merge(new UTXOPool()));
+        assertThrows(IllegalArgumentException.class, () -> pool.merge(pool));
+    }
+
+    /** A subclass indexing its UTXOs applies the changes of a copy one by one, keeping its index */
+    @Test
+    void mergesIntoIndexedPool() throws Exception {
+        KeyPairGenerator generator = KeyPairGenerator.getInstance("RSA");
+        generator.initialize(1024);
+        PublicKey address = generator.generateKeyPair().getPublic();
+        Random random = new Random(3);
+        AddressIndexedUTXOPool pool = new AddressIndexedUTXOPool();
+        Map<UTXO, Transaction.Output> model = new HashMap<UTXO, Transaction.Output>();
+        for (int i = 0; i < 300; i++)
+            edit(random, pool, model, address);
+
+        UTXOPool copy = pool.copy();
+        Map<UTXO, Transaction.Output> base = new HashMap<UTXO, Transaction.Output>(model);
+        Map<UTXO, Transaction.Output> copyModel = new HashMap<UTXO, Transaction.Output>(model);
+        for (int i = 0; i < 200; i++) {
+            edit(random, pool, model, address);
+            edit(random, copy, copyModel, address);
+        }
+        pool.merge(copy);
+        apply(base, copyModel, model);
+        assertPool(model, pool);
+        double balance = 0;
+        for (Transaction.Output txOut : model.values())
+            if (txOut != null)
+                balance += txOut.value;
+        assertEquals(balance, pool.getBalance(address), 1e-9);
+    }
+
+    /** Applies to {@code model} the changes of {@code after} since {@code before} */
+    private static void apply(Map<UTXO, Transaction.Output> before, Map<UTXO, Transaction.Output> after,
+            Map<UTXO, Transaction.Output> model) {
+        after.forEach((utxo, txOut) -> {
+            if (!before.containsKey(utxo) || before.get(utxo) != txOut)
+                model.put(utxo, txOut);
+        });
+        for (UTXO utxo : before.keySet())
+            if (!after.containsKey(utxo))
+                model.remove(utxo);
+    }
+
+    private static void assertPool(Map<UTXO, Transaction.Output> model, UTXOPool pool) {
+        assertEquals(model.size(), pool.size());
+        assertEquals(model.keySet(), new HashSet<UTXO>(pool.getAllUTXO()));
+        for (int i = 0; i < UTXOS; i++) {
+            UTXO utxo = utxo(i);
+            assertEquals(model.containsKey(utxo), pool.contains(utxo), "contains " + utxo);
+            assertSame(model.get(utxo), pool.getTxOutput(utxo), "output of " + utxo);
+        }
+    }
+}